@@ -0,0 +1,392 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.IntToLongFunction;
+import java.util.function.LongSupplier;
+import java.util.regex.Pattern;
+
+/**
+ * Microbenchmarks for the rules engine. Each benchmark is one call to the measured method, cycling through a fixed
+ * corpus of middlegame and endgame positions. Runs warmup iterations, then measurement iterations, and reports
+ * average time per call and bytes allocated per call (the same figure as JMH's gc.alloc.rate.norm).
+ * Each benchmark runs in a fresh JVM, as JMH forks do, since the benchmarks share one call site and profiles
+ * gathered by the ones before would otherwise slow down the ones after
+ *
+ * Usage:
+ *   java Benchmarks [--filter regex] [--warmup N] [--iterations N] [--time ms] [--json file] [--fork false]
+ *     --fork false   run every benchmark in this JVM, only for quick checks
+ */
+public class Benchmarks {
+    //Middlegame and endgame positions, the last few have the side to move in check
+    private static final String[] CORPUS = {
+        "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+        "r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10",
+        "r1bq1rk1/pp2bppp/2n1pn2/3p4/2PP4/2N1PN2/PP1B1PPP/R2QKB1R w KQ - 0 8",
+        "r2q1rk1/pb1nbppp/1p2pn2/2pp4/3P4/1PNBPN2/PBQ2PPP/R4RK1 b - - 3 11",
+        "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+        "8/5pk1/6p1/8/3R4/6P1/5PK1/1r6 w - - 0 40",
+        "6k1/5ppp/8/8/8/8/5PPP/3Q2K1 b - - 0 1",
+        "8/8/4k3/3p4/3P4/4K3/8/8 w - - 0 50",
+        "rnbqkbnr/ppp1pppp/8/1B1p4/4P3/8/PPPP1PPP/RNBQK1NR b KQkq - 1 2",
+        "r1bqkbnr/pppp1Qpp/2n5/4p3/2B1P3/8/PPPP1PPP/RNB1K1NR b KQkq - 0 4",
+        "4k3/8/8/8/8/8/4r3/R3K3 w Q - 0 1",
+        "rnb1kbnr/pppp1ppp/8/4p3/6Pq/5P2/PPPPP2P/RNBQKBNR w KQkq - 1 3",
+    };
+
+    private static final Color[] COLORS = Color.values();
+    private static volatile long sink; //Results are folded in here so the JIT can't drop the measured calls
+
+    public static void main(String[] args) throws IOException {
+        Pattern filter = Pattern.compile(".*");
+        int warmup = 5;
+        int iterations = 5;
+        long timeMillis = 1000;
+        String json = null;
+        String result = null;
+        boolean fork = true;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--filter": filter = Pattern.compile(args[i + 1]); break;
+                case "--warmup": warmup = Integer.parseInt(args[i + 1]); break;
+                case "--iterations": iterations = Integer.parseInt(args[i + 1]); break;
+                case "--time": timeMillis = Long.parseLong(args[i + 1]); break;
+                case "--json": json = args[i + 1]; break;
+                case "--fork": fork = Boolean.parseBoolean(args[i + 1]); break;
+                case "--result": result = args[i + 1]; break; //Written by a forked JVM for its parent to read
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        List<String> results = new ArrayList<>();
+        for (Benchmark benchmark : benchmarks()) {
+            if (!filter.matcher(benchmark.name).find()) continue;
+            if (fork) results.add(fork(benchmark.name, warmup, iterations, timeMillis));
+            else results.add(run(benchmark, warmup, iterations, timeMillis));
+        }
+        if (result != null) Files.writeString(Path.of(result), String.join(",\n", results));
+        if (json != null) {
+            Files.writeString(Path.of(json), "[\n" + String.join(",\n", results) + "\n]\n");
+            System.out.println("Results written to " + json);
+        }
+    }
+
+    /**
+     * Runs one benchmark in a new JVM with the same class path and JVM options as this one
+     * @param name name of the benchmark
+     * @param warmup number of warmup iterations
+     * @param iterations number of measurement iterations
+     * @param timeMillis length of each iteration
+     * @return JSON object describing the result
+     * @throws IOException if the JVM can't be started or fails
+     */
+    private static String fork(String name, int warmup, int iterations, long timeMillis) throws IOException {
+        Path result = Files.createTempFile("benchmark", ".json");
+        try {
+            List<String> command = new ArrayList<>();
+            command.add(ProcessHandle.current().info().command().orElse("java"));
+            command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+            command.addAll(List.of("-cp", System.getProperty("java.class.path"), "Benchmarks",
+                    "--filter", "^" + Pattern.quote(name) + "$", "--warmup", Integer.toString(warmup),
+                    "--iterations", Integer.toString(iterations), "--time", Long.toString(timeMillis),
+                    "--fork", "false", "--result", result.toString()));
+            Process process = new ProcessBuilder(command).inheritIO().start();
+            int exit;
+            try {
+                exit = process.waitFor();
+            } catch (InterruptedException e) {
+                process.destroy();
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted running " + name, e);
+            }
+            if (exit != 0) throw new IOException("Benchmark " + name + " failed with exit code " + exit);
+            return Files.readString(result);
+        } finally {
+            Files.delete(result);
+        }
+    }
+
+    /**
+     * Builds every benchmark over its own copy of the corpus
+     * @return list of benchmarks
+     */
+    private static List<Benchmark> benchmarks() {
+        List<Benchmark> benchmarks = new ArrayList<>();
+        PieceLogic logic = new PieceLogic();
+
+        for (PieceType pieceType : PieceType.values()) {
+            Corpus corpus = new Corpus(logic);
+            List<Piece> pieces = new ArrayList<>();
+            List<Board> owners = new ArrayList<>();
+            for (Board board : corpus.boards) {
+                for (Piece piece : board.getPieces()) {
+                    if (piece.pieceType != pieceType) continue;
+                    pieces.add(piece);
+                    owners.add(board);
+                }
+            }
+            benchmarks.add(new Benchmark("calculatePossibleMoves." + pieceType, new Cycle(pieces.size(), i -> {
+                logic.calculatePossibleMoves(pieces.get(i), owners.get(i));
+                return pieces.get(i).getMoves().size();
+            })));
+        }
+
+        Corpus pinned = new Corpus(logic);
+        List<Piece> pinPieces = new ArrayList<>();
+        List<Board> pinOwners = new ArrayList<>();
+        for (Board board : pinned.boards) {
+            for (Piece piece : board.getPieces()) {
+                pinPieces.add(piece);
+                pinOwners.add(board);
+            }
+        }
+        benchmarks.add(new Benchmark("isPinned", new Cycle(pinPieces.size(),
+                i -> logic.isPinned(pinPieces.get(i), pinOwners.get(i)) ? 1 : 0)));
+
+        //moveIntoCheck prunes the king's list, so each call first restores the list it was given
+        Corpus moveIntoCheck = new Corpus(logic);
+        List<Piece> kings = new ArrayList<>();
+        List<List<Position>> kingMoves = new ArrayList<>();
+        for (Board board : moveIntoCheck.boards) {
+            for (Color color : Color.values()) {
+                Piece king = board.getColorKing(color);
+                logic.calculatePossibleMoves(king, board);
+                kings.add(king);
+                kingMoves.add(new ArrayList<>(king.getMoves()));
+            }
+        }
+        benchmarks.add(new Benchmark("moveIntoCheck", new Cycle(kings.size(), i -> {
+            Piece king = kings.get(i);
+            restore(king.getMoves(), kingMoves.get(i));
+            logic.moveIntoCheck(moveIntoCheck.boards.get(i / 2), king);
+            return king.getMoves().size();
+        })));
+
+        Corpus checkmate = new Corpus(logic);
+        List<Board> checked = checkmate.boardsInCheck(logic);
+        benchmarks.add(new Benchmark("inCheckmate", new Cycle(checked.size(), i -> {
+            Board board = checked.get(i);
+            return logic.inCheckmate(board, board.getColorKing(board.getTurnColor())) ? 1 : 0;
+        })));
+
+        //removeIllegalMoves prunes every defender's list, so each call first restores the lists it was given
+        Corpus illegal = new Corpus(logic);
+        List<Board> illegalBoards = illegal.boardsInCheck(logic);
+        List<List<List<Position>>> savedMoves = new ArrayList<>();
+        for (Board board : illegalBoards) {
+            List<List<Position>> saved = new ArrayList<>();
+            for (Piece piece : board.getPieces()) saved.add(new ArrayList<>(piece.getMoves()));
+            savedMoves.add(saved);
+        }
+        benchmarks.add(new Benchmark("removeIllegalMoves", new Cycle(illegalBoards.size(), i -> {
+            Board board = illegalBoards.get(i);
+            List<Piece> pieces = board.getPieces();
+            for (int p = 0; p < pieces.size(); p++) {
+                restore(pieces.get(p).getMoves(), savedMoves.get(i).get(p));
+            }
+            logic.removeIllegalMoves(board, board.getColorKing(board.getTurnColor()));
+            return pieces.size();
+        })));
+
+        Corpus generation = new Corpus(logic);
+        int[] moveBuffer = new int[Move.MAX_MOVES];
+        benchmarks.add(new Benchmark("generatePseudoLegalMoves", new Cycle(generation.boards.size(),
+                i -> logic.generatePseudoLegalMoves(generation.boards.get(i), moveBuffer))));
+        benchmarks.add(new Benchmark("generateLegalMoves", new Cycle(generation.boards.size(), i -> {
+            Board board = generation.boards.get(i);
+            return logic.generateLegalMoves(board, board.getTurnColor(), moveBuffer);
+        })));
+
+        //Plays and takes back every pseudo-legal move of each position, the moves are generated once up front
+        Corpus makeUnmake = new Corpus(logic);
+        List<int[]> positionMoves = new ArrayList<>();
+        for (Board board : makeUnmake.boards) {
+            int[] moves = new int[Move.MAX_MOVES];
+            positionMoves.add(Arrays.copyOf(moves, logic.generatePseudoLegalMoves(board, moves)));
+        }
+        benchmarks.add(new Benchmark("makeUnmakeMove", new Cycle(makeUnmake.boards.size(), i -> {
+            Board board = makeUnmake.boards.get(i);
+            long keys = 0;
+            for (int move : positionMoves.get(i)) {
+                board.makeMove(move);
+                keys += board.getZobristKey();
+                board.unmakeMove();
+            }
+            return keys;
+        })));
+
+        //The running scores against the recompute they replace
+        Corpus evaluation = new Corpus(logic);
+        benchmarks.add(new Benchmark("evaluate", new Cycle(evaluation.boards.size(),
+                i -> Evaluation.evaluate(evaluation.boards.get(i)))));
+        benchmarks.add(new Benchmark("evaluateFully", new Cycle(evaluation.boards.size(),
+                i -> Evaluation.evaluateFully(evaluation.boards.get(i)))));
+
+        Corpus lookups = new Corpus(logic);
+        int lookupCount = lookups.boards.size() * 2;
+        benchmarks.add(new Benchmark("getColorPieces", new Cycle(lookupCount,
+                i -> lookups.boards.get(i / 2).getColorPieces(COLORS[i % 2]).size())));
+        benchmarks.add(new Benchmark("getColorKing", new Cycle(lookupCount,
+                i -> lookups.boards.get(i / 2).getColorKing(COLORS[i % 2]).getRank())));
+        return benchmarks;
+    }
+
+    /**
+     * Replaces the contents of a moves list with a saved copy. Copies one at a time because addAll
+     * goes through toArray, which would be counted against the benchmark as allocation
+     * @param moves list to restore
+     * @param saved moves to restore it to
+     */
+    private static void restore(List<Position> moves, List<Position> saved) {
+        moves.clear();
+        for (int i = 0; i < saved.size(); i++) moves.add(saved.get(i));
+    }
+
+    /**
+     * Runs warmup and measurement iterations of a benchmark, prints a summary line and returns a JSON result
+     * @param benchmark benchmark to run
+     * @param warmup number of warmup iterations
+     * @param iterations number of measurement iterations
+     * @param timeMillis length of each iteration
+     * @return JSON object describing the result
+     */
+    private static String run(Benchmark benchmark, int warmup, int iterations, long timeMillis) {
+        for (int i = 0; i < warmup; i++) iterate(benchmark.op, timeMillis);
+        double[] nanosPerOp = new double[iterations];
+        double[] bytesPerOp = new double[iterations];
+        for (int i = 0; i < iterations; i++) {
+            double[] result = iterate(benchmark.op, timeMillis);
+            nanosPerOp[i] = result[0];
+            bytesPerOp[i] = result[1];
+        }
+        double score = mean(nanosPerOp);
+        double error = standardDeviation(nanosPerOp, score);
+        double allocation = mean(bytesPerOp);
+        double allocationRate = (score > 0) ? allocation / score * 1e9 / (1024 * 1024) : 0;
+        System.out.printf(Locale.ROOT, "%-36s %12.2f +- %8.2f ns/op  %10.1f B/op  %9.1f MB/sec%n",
+                benchmark.name, score, error, allocation, allocationRate);
+
+        StringBuilder raw = new StringBuilder();
+        for (int i = 0; i < iterations; i++) raw.append(i > 0 ? ", " : "").append(format(nanosPerOp[i]));
+        return "  {\n"
+             + "    \"benchmark\": \"" + benchmark.name + "\",\n"
+             + "    \"mode\": \"avgt\",\n"
+             + "    \"warmupIterations\": " + warmup + ",\n"
+             + "    \"measurementIterations\": " + iterations + ",\n"
+             + "    \"measurementTime\": \"" + timeMillis + " ms\",\n"
+             + "    \"primaryMetric\": {\"score\": " + format(score) + ", \"scoreError\": " + format(error)
+             + ", \"scoreUnit\": \"ns/op\", \"rawData\": [" + raw + "]},\n"
+             + "    \"secondaryMetrics\": {\n"
+             + "      \"gc.alloc.rate.norm\": {\"score\": " + format(allocation) + ", \"scoreUnit\": \"B/op\"},\n"
+             + "      \"gc.alloc.rate\": {\"score\": " + format(allocationRate) + ", \"scoreUnit\": \"MB/sec\"}\n"
+             + "    }\n"
+             + "  }";
+    }
+
+    /**
+     * Calls op repeatedly for about timeMillis, checking the clock every batch of calls
+     * @param op operation to call
+     * @param timeMillis length of the iteration
+     * @return {nanoseconds per call, bytes allocated per call}
+     */
+    private static double[] iterate(LongSupplier op, long timeMillis) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long deadline = System.nanoTime() + timeMillis * 1_000_000L;
+        long calls = 0;
+        long result = 0;
+        long bytesBefore = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        long now;
+        do {
+            for (int i = 0; i < 1024; i++) result += op.getAsLong();
+            calls += 1024;
+            now = System.nanoTime();
+        } while (now < deadline);
+        long bytes = threads.getThreadAllocatedBytes(thread) - bytesBefore;
+        sink += result;
+        return new double[]{(double) (now - start) / calls, (double) bytes / calls};
+    }
+
+    private static double mean(double[] values) {
+        double sum = 0;
+        for (double value : values) sum += value;
+        return sum / values.length;
+    }
+
+    private static double standardDeviation(double[] values, double mean) {
+        if (values.length < 2) return 0;
+        double sum = 0;
+        for (double value : values) sum += (value - mean) * (value - mean);
+        return Math.sqrt(sum / (values.length - 1));
+    }
+
+    private static String format(double value) { return String.format(Locale.ROOT, "%.3f", value); }
+
+    /**
+     * A named operation to measure
+     */
+    private static class Benchmark {
+        final String name;
+        final LongSupplier op;
+
+        Benchmark(String name, LongSupplier op) {
+            this.name = name;
+            this.op = op;
+        }
+    }
+
+    /**
+     * Operation over a list of inputs that moves to the next input on every call
+     */
+    private static class Cycle implements LongSupplier {
+        private final int size;
+        private final IntToLongFunction call;
+        private int index;
+
+        Cycle(int size, IntToLongFunction call) {
+            this.size = size;
+            this.call = call;
+        }
+
+        @Override
+        public long getAsLong() {
+            if (++index == size) index = 0;
+            return call.applyAsLong(index);
+        }
+    }
+
+    /**
+     * The corpus positions with every move list calculated the way Chess.main does after a move
+     */
+    private static class Corpus {
+        final List<Board> boards = new ArrayList<>();
+
+        Corpus(PieceLogic logic) {
+            for (String fen : CORPUS) {
+                Board board = new Board(fen);
+                for (Piece piece : board.getPieces()) logic.calculatePossibleMoves(piece, board);
+                logic.moveIntoCheck(board, board.getColorKing(Color.WHITE));
+                logic.moveIntoCheck(board, board.getColorKing(Color.BLACK));
+                boards.add(board);
+            }
+        }
+
+        /**
+         * Returns the boards where the side to move is in check
+         * @param logic rules to check with
+         * @return boards in check
+         */
+        List<Board> boardsInCheck(PieceLogic logic) {
+            List<Board> checked = new ArrayList<>();
+            for (Board board : boards) {
+                if (logic.inCheck(board, board.getColorKing(board.getTurnColor()))) checked.add(board);
+            }
+            return checked;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+import java.util.Locale;
+
+/**
+ * Move ordering benchmark. Searches a fixed suite of positions to a fixed depth, each with a fresh transposition
+ * table, first with only the hash move and MVV-LVA capture order and then adding the other MoveOrdering heuristics
+ * one at a time, and reports the nodes and time to reach the depth. Better ordering gets cutoffs sooner, so the node
+ * count falls as heuristics are added, the time also pays for the work the heuristics do. There is no step without
+ * capture ordering, since quiescence search in tactical positions blows up into millions of nodes without it
+ *
+ * Usage:
+ *   java OrderingBenchmark [--depth N] [--hash MB]
+ */
+public class OrderingBenchmark {
+    private static final String[] POSITIONS = {
+        "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+        "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+        "r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10",
+        "r1bq1rk1/pp2bppp/2n1pn2/3p4/2PP4/2N1PN2/PP1B1PPP/R2QKB1R w KQ - 0 8",
+        "r2q1rk1/pb1nbppp/1p2pn2/2pp4/3P4/1PNBPN2/PBQ2PPP/R4RK1 b - - 3 11",
+        "r1bqk2r/pppp1ppp/2n2n2/2b1p3/2B1P3/3P1N2/PPP2PPP/RNBQK2R w KQkq - 1 5",
+        "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+        "8/5pk1/6p1/8/3R4/6P1/5PK1/1r6 w - - 0 40",
+    };
+    //Heuristics switched on at each step, each adding one to the step before
+    private static final String[] STEP_NAMES = { "hash + MVV-LVA", "+ SEE", "+ killers", "+ counter moves", "+ history" };
+    private static final int[] STEPS = {
+        MoveOrdering.HASH_MOVE | MoveOrdering.MVV_LVA,
+        MoveOrdering.HASH_MOVE | MoveOrdering.MVV_LVA | MoveOrdering.STATIC_EXCHANGE,
+        MoveOrdering.HASH_MOVE | MoveOrdering.MVV_LVA | MoveOrdering.STATIC_EXCHANGE | MoveOrdering.KILLERS,
+        MoveOrdering.ALL & ~MoveOrdering.HISTORY,
+        MoveOrdering.ALL,
+    };
+
+    public static void main(String[] args) {
+        int depth = 6;
+        int hash = 64;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--depth": depth = Integer.parseInt(args[i + 1]); break;
+                case "--hash": hash = Integer.parseInt(args[i + 1]); break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        //One untimed pass so the first step isn't paying for JIT compilation
+        run(MoveOrdering.ALL, Math.min(depth, 5), hash);
+        System.out.printf("%d positions to depth %d%n%n", POSITIONS.length, depth);
+        System.out.printf("%-16s %14s %10s %12s %10s%n", "ordering", "nodes", "time s", "vs previous", "vs first");
+        long baseNodes = 0;
+        long previousNodes = 0;
+        for (int step = 0; step < STEPS.length; step++) {
+            long[] totals = run(STEPS[step], depth, hash);
+            if (step == 0) {
+                baseNodes = totals[0];
+                previousNodes = totals[0];
+            }
+            System.out.printf(Locale.ROOT, "%-16s %,14d %10.3f %11.1f%% %9.1f%%%n", STEP_NAMES[step], totals[0], totals[1] / 1e9,
+                    100.0 * (totals[0] - previousNodes) / previousNodes, 100.0 * (totals[0] - baseNodes) / baseNodes);
+            previousNodes = totals[0];
+        }
+    }
+
+    /**
+     * Searches every position to depth with a fresh table
+     * @param features MoveOrdering features to search with
+     * @param depth depth to search to
+     * @param hash transposition table size in megabytes
+     * @return total nodes and total nanoseconds
+     */
+    private static long[] run(int features, int depth, int hash) {
+        long nodes = 0;
+        long nanos = 0;
+        for (String fen : POSITIONS) {
+            Search search = new Search(new TranspositionTable(hash));
+            search.setOrderingFeatures(features);
+            Board board = new Board(fen);
+            long start = System.nanoTime();
+            Search.Result result = search.search(board, depth, 0);
+            nanos += System.nanoTime() - start;
+            nodes += result.getNodes();
+        }
+        return new long[]{nodes, nanos};
+    }
+}
@@ -0,0 +1,163 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Compares game record files with PGN. Converts a PGN file to both move encodings, checks that every decoded move
+ * matches the move PgnReplay read and that every game ends in the same position, then reports bytes per game and
+ * decode speed of each format. Decoding replays every move through a Board in all three cases, so the moves/s
+ * figures are comparable. Games PgnReplay finds illegal are left out of all three
+ *
+ * Usage:
+ *   java RecordBenchmark games.pgn [--iterations N]
+ */
+public class RecordBenchmark {
+    private static final String START_FEN = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+    private static volatile long sink; //Results are folded in here so the JIT can't drop the decoding
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: java RecordBenchmark games.pgn [--iterations N]");
+            return;
+        }
+        Path pgn = Paths.get(args[0]);
+        int iterations = 3;
+        for (int i = 1; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--iterations": iterations = Integer.parseInt(args[i + 1]); break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        //Every move of every legal game, in order, and the key of each game's final position, to check the decoders against
+        int[] expected = new int[1 << 16];
+        int total = 0;
+        long[] finalKeys = new long[1 << 10];
+        Board replayed = new Board();
+        long pgnBytes = 0;
+        PgnReplay replayer = new PgnReplay();
+        Path index = Files.createTempFile("games", ".gr");
+        Path codes = Files.createTempFile("games", ".gr");
+        long games = 0;
+        try (GameRecordWriter indexWriter = new GameRecordWriter(index, GameRecordReader.ENCODING_INDEX);
+             GameRecordWriter codeWriter = new GameRecordWriter(codes, GameRecordReader.ENCODING_CODE);
+             PgnReader reader = new PgnReader(pgn)) {
+            int[][] moves = { new int[256] };
+            replayer.setMoveListener((board, move, ply) -> {
+                if (ply == moves[0].length) moves[0] = Arrays.copyOf(moves[0], ply * 2);
+                moves[0][ply] = move;
+            });
+            CharSequence text;
+            while ((text = reader.next()) != null) {
+                if (replayer.replay(text) == PgnReplay.ILLEGAL) continue;
+                int plies = replayer.getPlies();
+                indexWriter.writeGame(replayer.getStartFen(), moves[0], plies, replayer.getResult());
+                codeWriter.writeGame(replayer.getStartFen(), moves[0], plies, replayer.getResult());
+                if (total + plies > expected.length) expected = Arrays.copyOf(expected, Math.max(total + plies, expected.length * 2));
+                System.arraycopy(moves[0], 0, expected, total, plies);
+                total += plies;
+                //Play the moves from the start position again, so a game that starts from the wrong position shows up
+                replayed.setFen((replayer.getStartFen() != null) ? replayer.getStartFen() : START_FEN);
+                for (int ply = 0; ply < plies; ply++) replayed.makeMove(moves[0][ply]);
+                if (games == finalKeys.length) finalKeys = Arrays.copyOf(finalKeys, finalKeys.length * 2);
+                finalKeys[(int) games] = replayed.getZobristKey();
+                pgnBytes += text.length();
+                games++;
+            }
+        }
+        replayer.setMoveListener(null);
+
+        try {
+            check(index, expected, total, finalKeys);
+            check(codes, expected, total, finalKeys);
+            System.out.printf(Locale.ROOT, "%,d games, %,d moves, all decoded moves match%n%n", games, total);
+            System.out.printf(Locale.ROOT, "%-8s %12s %14s%n", "format", "bytes/game", "moves/s");
+            print("pgn", (double) pgnBytes / games, best(iterations, () -> decodePgn(pgn, replayer)), total);
+            print("index", (double) Files.size(index) / games, best(iterations, () -> decode(index)), total);
+            print("code", (double) Files.size(codes) / games, best(iterations, () -> decode(codes)), total);
+        } finally {
+            Files.delete(index);
+            Files.delete(codes);
+        }
+    }
+
+    /**
+     * Decodes every game of a record file and compares its moves, flags included, and its final position with the
+     * expected ones
+     */
+    private static void check(Path path, int[] expected, int total, long[] finalKeys) throws IOException {
+        Board board = new Board();
+        int next = 0;
+        long game = 0;
+        try (GameRecordReader reader = new GameRecordReader(path)) {
+            while (reader.next(board)) {
+                for (int ply = 0; ply < reader.getPlies(); ply++) {
+                    if (next == total || reader.getMove(ply) != expected[next]) {
+                        throw new IllegalStateException(path + ": game " + game + " ply " + ply + " decoded as "
+                                + Move.toString(reader.getMove(ply)) + ", expected " + ((next == total) ? "no move" : Move.toString(expected[next])));
+                    }
+                    next++;
+                }
+                if (board.getZobristKey() != finalKeys[(int) game]) {
+                    throw new IllegalStateException(path + ": game " + game + " ends in " + board.toFen() + ", the wrong position");
+                }
+                game++;
+            }
+        }
+        if (next != total) throw new IllegalStateException(path + ": " + (total - next) + " moves missing");
+    }
+
+    /**
+     * Reads and replays every game of a PGN file
+     * @return moves replayed
+     */
+    private static long decodePgn(Path path, PgnReplay replayer) throws IOException {
+        long plies = 0;
+        try (PgnReader reader = new PgnReader(path)) {
+            CharSequence text;
+            while ((text = reader.next()) != null) {
+                if (replayer.replay(text) != PgnReplay.ILLEGAL) plies += replayer.getPlies();
+            }
+        }
+        return plies;
+    }
+
+    /**
+     * Reads and replays every game of a record file
+     * @return moves replayed
+     */
+    private static long decode(Path path) throws IOException {
+        Board board = new Board();
+        long plies = 0;
+        try (GameRecordReader reader = new GameRecordReader(path)) {
+            while (reader.next(board)) plies += reader.getPlies();
+            sink += board.getZobristKey();
+        }
+        return plies;
+    }
+
+    private interface Decoder {
+        long run() throws IOException;
+    }
+
+    /**
+     * Runs a decoder several times and returns the fastest time, the first runs include JIT compilation
+     * @return seconds of the fastest run
+     */
+    private static double best(int iterations, Decoder decoder) throws IOException {
+        double best = Double.MAX_VALUE;
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            sink += decoder.run();
+            best = Math.min(best, (System.nanoTime() - start) / 1e9);
+        }
+        return best;
+    }
+
+    private static void print(String format, double bytesPerGame, double seconds, long moves) {
+        System.out.printf(Locale.ROOT, "%-8s %12.1f %,14.0f%n", format, bytesPerGame, moves / seconds);
+    }
+}
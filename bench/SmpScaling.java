@@ -0,0 +1,77 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Thread scaling benchmark for ParallelSearch. Searches a fixed set of middlegame positions to a fixed depth with
+ * 1, 2, 4, ... threads up to the number of cores, each position with an empty transposition table, and reports total
+ * nodes per second and the time-to-depth speedup over one thread. Lazy SMP threads search overlapping trees,
+ * so nodes per second scales better than time to depth, the speedup is the figure that matters
+ *
+ * Usage:
+ *   java SmpScaling [--depth N] [--threads N] [--hash MB]
+ */
+public class SmpScaling {
+    private static final String[] POSITIONS = {
+        "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+        "r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10",
+        "r1bq1rk1/pp2bppp/2n1pn2/3p4/2PP4/2N1PN2/PP1B1PPP/R2QKB1R w KQ - 0 8",
+        "r2q1rk1/pb1nbppp/1p2pn2/2pp4/3P4/1PNBPN2/PBQ2PPP/R4RK1 b - - 3 11",
+    };
+
+    public static void main(String[] args) {
+        int depth = 7;
+        int maxThreads = Runtime.getRuntime().availableProcessors();
+        int hash = 64;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--depth": depth = Integer.parseInt(args[i + 1]); break;
+                case "--threads": maxThreads = Integer.parseInt(args[i + 1]); break;
+                case "--hash": hash = Integer.parseInt(args[i + 1]); break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        List<Integer> threadCounts = new ArrayList<>();
+        for (int threads = 1; threads < maxThreads; threads *= 2) threadCounts.add(threads);
+        threadCounts.add(maxThreads);
+
+        //One untimed pass so the single thread figure isn't paying for JIT compilation
+        run(1, depth, hash);
+        System.out.printf("%s positions to depth %d, %d cores%n%n", POSITIONS.length, depth, Runtime.getRuntime().availableProcessors());
+        System.out.printf("%7s %14s %10s %14s %12s %12s%n", "threads", "nodes", "time s", "nps", "nps scaling", "speedup");
+        double baseNanos = 0;
+        double baseNps = 0;
+        for (int threads : threadCounts) {
+            long[] totals = run(threads, depth, hash);
+            double nps = totals[0] / (totals[1] / 1e9);
+            if (threads == 1) {
+                baseNanos = totals[1];
+                baseNps = nps;
+            }
+            System.out.printf(Locale.ROOT, "%7d %,14d %10.3f %,14.0f %11.2fx %11.2fx%n",
+                    threads, totals[0], totals[1] / 1e9, nps, nps / baseNps, baseNanos / totals[1]);
+        }
+    }
+
+    /**
+     * Searches every position to depth with a fresh table
+     * @param threads number of threads to search with
+     * @param depth depth to search to
+     * @param hash transposition table size in megabytes
+     * @return total nodes and total nanoseconds
+     */
+    private static long[] run(int threads, int depth, int hash) {
+        long nodes = 0;
+        long nanos = 0;
+        for (String fen : POSITIONS) {
+            try (ParallelSearch search = new ParallelSearch(new TranspositionTable(hash), threads)) {
+                Board board = new Board(fen);
+                long start = System.nanoTime();
+                Search.Result result = search.search(board, depth, 0);
+                nanos += System.nanoTime() - start;
+                nodes += result.getNodes();
+            }
+        }
+        return new long[]{nodes, nanos};
+    }
+}
@@ -0,0 +1,281 @@
+/**
+ * Static helpers for 64-bit bitboards. Squares are numbered rank * 8 + file, so bit 0 is a1 and bit 63 is h8.
+ * Attack sets come from tables built once when the class loads, sliding pieces use magic bitboards:
+ * the blockers on a square's relevant rays are multiplied by a magic number whose top bits index that square's table
+ */
+public class Bitboards {
+    public static final long FILE_A = 0x0101010101010101L;
+    public static final long FILE_H = FILE_A << 7;
+    public static final long RANK_1 = 0xFFL;
+    public static final long RANK_2 = RANK_1 << 8;
+    public static final long RANK_7 = RANK_1 << 48;
+    public static final long RANK_8 = RANK_1 << 56;
+    private static final long NOT_FILE_A = ~FILE_A;
+    private static final long NOT_FILE_H = ~FILE_H;
+    private static final long NOT_FILE_AB = ~(FILE_A | FILE_A << 1);
+    private static final long NOT_FILE_GH = ~(FILE_H | FILE_H >>> 1);
+
+    //Ray directions as {rank step, file step}, the first four move toward higher square numbers
+    private static final int[][] DIRECTIONS = {{1, 0}, {0, 1}, {1, 1}, {1, -1}, {-1, 0}, {0, -1}, {-1, -1}, {-1, 1}};
+    private static final long[][] RAYS = new long[8][64]; //Squares seen from a square in each direction on an empty board
+    private static final long[][] BETWEEN = new long[64][64]; //Squares strictly between two squares on a shared line, 0 otherwise
+
+    private static final long[] KNIGHT_ATTACKS = new long[64];
+    private static final long[] KING_ATTACKS = new long[64];
+    private static final long[][] PAWN_ATTACKS = new long[2][64]; //Indexed by color ordinal, then square
+
+    //Magic bitboard lookup data for each square, a square's table entries start at its offset
+    private static final long[] ROOK_MASKS = new long[64];
+    private static final long[] ROOK_MAGICS = new long[64];
+    private static final int[] ROOK_SHIFTS = new int[64];
+    private static final int[] ROOK_OFFSETS = new int[64];
+    private static final long[] ROOK_TABLE = new long[102400];
+    private static final long[] BISHOP_MASKS = new long[64];
+    private static final long[] BISHOP_MAGICS = new long[64];
+    private static final int[] BISHOP_SHIFTS = new int[64];
+    private static final int[] BISHOP_OFFSETS = new int[64];
+    private static final long[] BISHOP_TABLE = new long[5248];
+
+    private static final long[] MAGIC_SEEDS = {728, 10316, 55013, 32803, 12281, 15100, 16645, 255};
+    private static final long TABLE_BUILD_NANOS; //Time taken to build every table in this class
+
+    static {
+        long start = System.nanoTime();
+        for (int square = 0; square < 64; square++) {
+            for (int dir = 0; dir < 8; dir++) {
+                long ray = 0L;
+                for (int r = rankOf(square) + DIRECTIONS[dir][0], f = fileOf(square) + DIRECTIONS[dir][1];
+                     r >= 0 && r < 8 && f >= 0 && f < 8; r += DIRECTIONS[dir][0], f += DIRECTIONS[dir][1]) {
+                    BETWEEN[square][square(r, f)] = ray;
+                    ray |= bit(square(r, f));
+                }
+                RAYS[dir][square] = ray;
+            }
+            long b = bit(square);
+            KNIGHT_ATTACKS[square] = ((b << 17) & NOT_FILE_A) | ((b << 15) & NOT_FILE_H)
+                                   | ((b << 10) & NOT_FILE_AB) | ((b << 6) & NOT_FILE_GH)
+                                   | ((b >>> 17) & NOT_FILE_H) | ((b >>> 15) & NOT_FILE_A)
+                                   | ((b >>> 10) & NOT_FILE_GH) | ((b >>> 6) & NOT_FILE_AB);
+            long sides = ((b << 1) & NOT_FILE_A) | ((b >>> 1) & NOT_FILE_H);
+            KING_ATTACKS[square] = sides | ((b | sides) << 8) | ((b | sides) >>> 8);
+            PAWN_ATTACKS[Color.WHITE.ordinal()][square] = ((b << 9) & NOT_FILE_A) | ((b << 7) & NOT_FILE_H);
+            PAWN_ATTACKS[Color.BLACK.ordinal()][square] = ((b >>> 7) & NOT_FILE_A) | ((b >>> 9) & NOT_FILE_H);
+        }
+        int rookOffset = 0;
+        int bishopOffset = 0;
+        for (int square = 0; square < 64; square++) {
+            ROOK_MASKS[square] = relevantBlockers(square, 0) | relevantBlockers(square, 1)
+                               | relevantBlockers(square, 4) | relevantBlockers(square, 5);
+            ROOK_SHIFTS[square] = 64 - Long.bitCount(ROOK_MASKS[square]);
+            ROOK_OFFSETS[square] = rookOffset;
+            ROOK_MAGICS[square] = findMagic(square, ROOK_MASKS[square], true, ROOK_TABLE, rookOffset);
+            rookOffset += 1 << Long.bitCount(ROOK_MASKS[square]);
+
+            BISHOP_MASKS[square] = relevantBlockers(square, 2) | relevantBlockers(square, 3)
+                                 | relevantBlockers(square, 6) | relevantBlockers(square, 7);
+            BISHOP_SHIFTS[square] = 64 - Long.bitCount(BISHOP_MASKS[square]);
+            BISHOP_OFFSETS[square] = bishopOffset;
+            BISHOP_MAGICS[square] = findMagic(square, BISHOP_MASKS[square], false, BISHOP_TABLE, bishopOffset);
+            bishopOffset += 1 << Long.bitCount(BISHOP_MASKS[square]);
+        }
+        TABLE_BUILD_NANOS = System.nanoTime() - start;
+    }
+
+    /**
+     * Returns the square index of a rank and file
+     * @param rank rank of square
+     * @param file file of square
+     * @return square index from 0 (a1) to 63 (h8)
+     */
+    public static int square(int rank, int file) { return rank * 8 + file; }
+
+    /**
+     * Returns the rank of a square index
+     * @param square square index
+     * @return rank of square
+     */
+    public static int rankOf(int square) { return square >>> 3; }
+
+    /**
+     * Returns the file of a square index
+     * @param square square index
+     * @return file of square
+     */
+    public static int fileOf(int square) { return square & 7; }
+
+    /**
+     * Returns a bitboard with only the given square set
+     * @param square square index
+     * @return single bit bitboard
+     */
+    public static long bit(int square) { return 1L << square; }
+
+    /**
+     * Returns the lowest set square of a non-empty bitboard
+     * @param bitboard bitboard to scan
+     * @return index of lowest set bit
+     */
+    public static int lowestSquare(long bitboard) { return Long.numberOfTrailingZeros(bitboard); }
+
+    /**
+     * Returns the squares strictly between two squares if they share a rank, file or diagonal
+     * @param from first square
+     * @param to second square
+     * @return bitboard of squares in between, 0 if the squares are not aligned or adjacent
+     */
+    public static long between(int from, int to) { return BETWEEN[from][to]; }
+
+    /**
+     * Returns the squares a rook on square attacks given the occupied squares
+     * @param square square of rook
+     * @param occupied bitboard of all occupied squares
+     * @return bitboard of attacked squares, including the first blocker in each direction
+     */
+    public static long rookAttacks(int square, long occupied) {
+        return ROOK_TABLE[ROOK_OFFSETS[square] + (int) (((occupied & ROOK_MASKS[square]) * ROOK_MAGICS[square]) >>> ROOK_SHIFTS[square])];
+    }
+
+    /**
+     * Returns the squares a bishop on square attacks given the occupied squares
+     * @param square square of bishop
+     * @param occupied bitboard of all occupied squares
+     * @return bitboard of attacked squares, including the first blocker in each direction
+     */
+    public static long bishopAttacks(int square, long occupied) {
+        return BISHOP_TABLE[BISHOP_OFFSETS[square] + (int) (((occupied & BISHOP_MASKS[square]) * BISHOP_MAGICS[square]) >>> BISHOP_SHIFTS[square])];
+    }
+
+    /**
+     * Returns the squares a queen on square attacks given the occupied squares
+     * @param square square of queen
+     * @param occupied bitboard of all occupied squares
+     * @return bitboard of attacked squares
+     */
+    public static long queenAttacks(int square, long occupied) {
+        return rookAttacks(square, occupied) | bishopAttacks(square, occupied);
+    }
+
+    /**
+     * Returns the squares a knight on square attacks
+     * @param square square of knight
+     * @return bitboard of attacked squares
+     */
+    public static long knightAttacks(int square) { return KNIGHT_ATTACKS[square]; }
+
+    /**
+     * Returns the squares a king on square attacks, not including castling
+     * @param square square of king
+     * @return bitboard of attacked squares
+     */
+    public static long kingAttacks(int square) { return KING_ATTACKS[square]; }
+
+    /**
+     * Returns the squares a pawn of color on square attacks diagonally
+     * @param color color of pawn
+     * @param square square of pawn
+     * @return bitboard of attacked squares
+     */
+    public static long pawnAttacks(Color color, int square) { return PAWN_ATTACKS[color.ordinal()][square]; }
+
+    /**
+     * Returns how long the attack tables took to build and how much memory they hold
+     * @return one line summary of the attack tables
+     */
+    public static String tableReport() {
+        long longs = ROOK_TABLE.length + BISHOP_TABLE.length + 4 * 64 + 3 * 64 + 2 * 64 + 8 * 64 + 64 * 64;
+        long ints = 4 * 64;
+        return String.format("Attack tables built in %.2f ms, %d KB (rook %d entries, bishop %d entries)",
+                TABLE_BUILD_NANOS / 1e6, (longs * 8 + ints * 4) / 1024, ROOK_TABLE.length, BISHOP_TABLE.length);
+    }
+
+    /**
+     * Prints the attack table report
+     * @param args unused
+     */
+    public static void main(String[] args) {
+        System.out.println(tableReport());
+    }
+
+    /**
+     * Returns the squares on one ray whose occupancy changes the attack set, which excludes the last square on the ray
+     * @param square square the ray starts from
+     * @param dir index into DIRECTIONS
+     * @return bitboard of relevant blocker squares
+     */
+    private static long relevantBlockers(int square, int dir) {
+        long ray = RAYS[dir][square];
+        if (ray == 0) return 0L;
+        int last = (dir < 4) ? 63 - Long.numberOfLeadingZeros(ray) : Long.numberOfTrailingZeros(ray);
+        return ray & ~bit(last);
+    }
+
+    /**
+     * Searches for a magic number that maps every blocker subset of mask to a table index without destructive
+     * collisions, and fills the square's section of the table with the matching attack sets
+     * @param square square being indexed
+     * @param mask relevant blocker squares for this square
+     * @param rook true for rook rays, false for bishop rays
+     * @param table attack table to fill
+     * @param offset start of this square's section of table
+     * @return magic number for this square
+     */
+    private static long findMagic(int square, long mask, boolean rook, long[] table, int offset) {
+        int bits = Long.bitCount(mask);
+        int size = 1 << bits;
+        long[] occupancies = new long[size];
+        long[] attacks = new long[size];
+        //Enumerate every subset of mask, computing its attack set by walking the rays
+        long subset = 0L;
+        for (int i = 0; i < size; i++) {
+            occupancies[i] = subset;
+            attacks[i] = rook
+                    ? rayAttacks(0, square, subset) | rayAttacks(1, square, subset) | rayAttacks(4, square, subset) | rayAttacks(5, square, subset)
+                    : rayAttacks(2, square, subset) | rayAttacks(3, square, subset) | rayAttacks(6, square, subset) | rayAttacks(7, square, subset);
+            subset = (subset - mask) & mask;
+        }
+        //Table slots are stamped with the attempt that filled them so failed attempts don't need to clear the table
+        int[] used = new int[size];
+        //Fixed per-rank seeds so every run builds identical tables quickly
+        long seed = MAGIC_SEEDS[rankOf(square)];
+        for (int attempt = 1; ; attempt++) {
+            //Candidates with few bits set work best, draw three xorshift numbers and keep their common bits
+            long magic = -1L;
+            for (int i = 0; i < 3; i++) {
+                seed ^= seed >>> 12;
+                seed ^= seed << 25;
+                seed ^= seed >>> 27;
+                magic &= seed * 2685821657736338717L;
+            }
+            if (Long.bitCount((mask * magic) & 0xFF00000000000000L) < 6) continue;
+            boolean collision = false;
+            for (int i = 0; i < size && !collision; i++) {
+                int index = (int) ((occupancies[i] * magic) >>> (64 - bits));
+                if (used[index] != attempt) {
+                    used[index] = attempt;
+                    table[offset + index] = attacks[i];
+                }
+                //Two subsets may share a slot only if they produce the same attacks
+                else if (table[offset + index] != attacks[i]) collision = true;
+            }
+            if (!collision) return magic;
+        }
+    }
+
+    /**
+     * Returns the squares seen along one ray, stopping at and including the first occupied square
+     * @param dir index into DIRECTIONS
+     * @param square square the ray starts from
+     * @param occupied bitboard of all occupied squares
+     * @return bitboard of squares on the ray up to the first blocker
+     */
+    private static long rayAttacks(int dir, int square, long occupied) {
+        long attacks = RAYS[dir][square];
+        long blockers = attacks & occupied;
+        if (blockers != 0) {
+            //Rays 0-3 increase in square number so the nearest blocker is the lowest bit, rays 4-7 the highest
+            int blocker = (dir < 4) ? Long.numberOfTrailingZeros(blockers) : 63 - Long.numberOfLeadingZeros(blockers);
+            attacks ^= RAYS[dir][blocker];
+        }
+        return attacks;
+    }
+}
@@ -1,27 +1,463 @@
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.stream.Collectors;
 
 public class Board {
     Piece[][] board; //Array of pieces representing board, [0][0] is bottom left corner
     List<Piece> pieces; //List of pieces on the board
+    List<Piece>[] colorPieces; //Pieces on the board of each color, indexed by color ordinal
+    Piece[] kings; //King of each color, indexed by color ordinal
+    Piece[] piecePool; //Piece objects reused by setFen, so loading positions doesn't allocate
     List<Piece> capturedPieces; //List of captured pieces
+    long[] bitboards; //One bitboard per color and piece type, indexed by bitboardIndex(color, pieceType)
+    long[] colorOccupancy; //Squares occupied by each color, indexed by color ordinal
+    long occupancy; //Squares occupied by any piece
+    int castlingRights; //Bitmask of the CASTLE_ flags still available
+    int enPassantSquare; //Square a pawn may capture onto en passant, -1 if none
+    Color turnColor; //Color whose turn it is to move
+    int halfmoveClock; //Moves since the last capture or pawn move, for the fifty move rule
+    int fullmoveNumber; //Number of the current full move, starting at 1 and counted up after black moves
+    long[] undoRecords; //Packed undo record for each move on the undo stack, see the UNDO_ constants
+    Piece[] undoCaptured; //Piece captured by each move on the undo stack, null if none
+    long[] undoKeys; //Zobrist key of the position before each move on the undo stack, for repetition checks
+    int undoCount; //Number of moves on the undo stack
+    long zobristKey; //Zobrist hash of the position, kept up to date move by move
+    int[] scores; //Material and piece-square score of each color, middlegame and endgame packed by Evaluation.pack
+    int phase; //Sum of Evaluation.phase over the pieces on the board, scores and phase are kept up to date move by move
+    long[] attackedSquares; //Squares attacked by each color, indexed by color ordinal, see computeAttacks
+    byte[] attackerCounts; //Number of pieces of each color attacking each square, indexed by color ordinal * 64 + square
+    boolean attacksValid; //False once a move has changed the position since the attack maps were computed
+
+    public static final int CASTLE_WHITE_KINGSIDE = 1;
+    public static final int CASTLE_WHITE_QUEENSIDE = 2;
+    public static final int CASTLE_BLACK_KINGSIDE = 4;
+    public static final int CASTLE_BLACK_QUEENSIDE = 8;
+    //Layout of an undo record: from square in the low 6 bits, then the fields below
+    private static final int UNDO_TO_SHIFT = 6;
+    private static final int UNDO_CAPTURED_SQUARE_SHIFT = 12;
+    private static final int UNDO_CASTLING_SHIFT = 18;
+    private static final int UNDO_EN_PASSANT_SHIFT = 22; //Stored plus one so that no square is 0
+    private static final long UNDO_CAPTURE = 1L << 29;
+    private static final long UNDO_PROMOTION = 1L << 30;
+    private static final int UNDO_HALFMOVE_SHIFT = 31; //10 bits, halfmove clocks above 1023 are stored as 1023
+    private static final PieceType[] PIECE_TYPES = PieceType.values(); //Cached because values() copies the array
+    //Castling rights kept when a piece moves from or to each square, so king and rook moves and rook captures clear them
+    static final int[] CASTLE_MASK = new int[64];
+
+    static {
+        Arrays.fill(CASTLE_MASK, 15);
+        CASTLE_MASK[0] = 15 & ~CASTLE_WHITE_QUEENSIDE;
+        CASTLE_MASK[4] = 15 & ~(CASTLE_WHITE_KINGSIDE | CASTLE_WHITE_QUEENSIDE);
+        CASTLE_MASK[7] = 15 & ~CASTLE_WHITE_KINGSIDE;
+        CASTLE_MASK[56] = 15 & ~CASTLE_BLACK_QUEENSIDE;
+        CASTLE_MASK[60] = 15 & ~(CASTLE_BLACK_KINGSIDE | CASTLE_BLACK_QUEENSIDE);
+        CASTLE_MASK[63] = 15 & ~CASTLE_BLACK_KINGSIDE;
+    }
+
     /**
      * Constructor for Board class, instantiates array and places pieces in starting positions
      */
     public Board() {
+        init();
+        for (int i = 0; i < 8; i++) {
+            addPiece(new Piece(0, i));
+            addPiece(new Piece(1, i));
+            addPiece(new Piece(6, i));
+            addPiece(new Piece(7, i));
+        }
+        for (Piece piece : pieces) toggleBitboards(piece, Bitboards.square(piece.getRank(), piece.getFile()));
+        castlingRights = CASTLE_WHITE_KINGSIDE | CASTLE_WHITE_QUEENSIDE | CASTLE_BLACK_KINGSIDE | CASTLE_BLACK_QUEENSIDE;
+        enPassantSquare = -1;
+        turnColor = Color.WHITE;
+        fullmoveNumber = 1;
+        zobristKey = computeZobristKey();
+    }
+
+    /**
+     * Constructor for Board class from a FEN string, ex. "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1".
+     * Fields after the piece placement are optional, see setFen
+     * @param fen position in Forsyth-Edwards Notation
+     * @throws IllegalArgumentException if fen is not a valid position
+     */
+    public Board(CharSequence fen) {
+        init();
+        setFen(fen);
+    }
+
+    /**
+     * Returns a new board set up from a FEN string
+     * @param fen position in Forsyth-Edwards Notation
+     * @return board holding the position
+     * @throws IllegalArgumentException if fen is not a valid position
+     */
+    public static Board fromFen(CharSequence fen) { return new Board(fen); }
+
+    /**
+     * Copy constructor, copies every piece so the two boards can be updated independently.
+     * The copy starts with an empty undo stack
+     * @param other board to copy
+     */
+    public Board(Board other) {
+        init();
+        for (Piece piece : other.pieces) addPiece(new Piece(piece));
+        for (Piece piece : other.capturedPieces) capturedPieces.add(new Piece(piece));
+        System.arraycopy(other.bitboards, 0, bitboards, 0, bitboards.length);
+        System.arraycopy(other.colorOccupancy, 0, colorOccupancy, 0, colorOccupancy.length);
+        occupancy = other.occupancy;
+        castlingRights = other.castlingRights;
+        enPassantSquare = other.enPassantSquare;
+        turnColor = other.turnColor;
+        halfmoveClock = other.halfmoveClock;
+        fullmoveNumber = other.fullmoveNumber;
+        zobristKey = other.zobristKey;
+        System.arraycopy(other.scores, 0, scores, 0, scores.length);
+        phase = other.phase;
+    }
+
+    /**
+     * Creates the empty board array, piece lists and state arrays for a constructor to fill
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private void init() {
         board = new Piece[8][8];
         pieces = new ArrayList<>(32);
         capturedPieces = new ArrayList<>(32);
-        for (int i = 0; i < 8; i++) {
-            board[0][i] = new Piece(0, i);
-            pieces.add(board[0][i]);
-            board[1][i] = new Piece(1, i);
-            pieces.add(board[1][i]);
-            board[6][i] = new Piece(6, i);
-            pieces.add(board[6][i]);
-            board[7][i] = new Piece(7, i);
-            pieces.add(board[7][i]);
+        colorPieces = new List[]{ new ArrayList<Piece>(16), new ArrayList<Piece>(16) };
+        kings = new Piece[2];
+        piecePool = new Piece[0];
+        bitboards = new long[12];
+        colorOccupancy = new long[2];
+        scores = new int[2];
+        attackedSquares = new long[2];
+        attackerCounts = new byte[128];
+        undoRecords = new long[256];
+        undoCaptured = new Piece[256];
+        undoKeys = new long[256];
+    }
+
+    /**
+     * Sets up a position from FEN, reusing this board's arrays and piece objects so that loading positions
+     * one after another allocates nothing. Pieces of the previous position are reused, so references to them
+     * must not be kept, and the undo stack is cleared. Every field after the piece placement is optional:
+     * missing fields mean white to move, no castling rights, no en passant square and move counters 0 and 1.
+     * Castling rights are dropped when the king or rook they need is not on its home square
+     * @param fen position in Forsyth-Edwards Notation
+     * @throws IllegalArgumentException if fen is not a valid position
+     */
+    public void setFen(CharSequence fen) { setFen(fen, 0, fen.length()); }
+
+    /**
+     * Sets up a position from the FEN fields in part of a character sequence, see setFen(CharSequence).
+     * Reading stops after the move counters, or after the en passant field if no counters follow, as in EPD
+     * @param fen characters holding the position
+     * @param start index of the first character
+     * @param end index just past the last character
+     * @return index just past the last field read
+     * @throws IllegalArgumentException if the fields are not a valid position
+     */
+    int setFen(CharSequence fen, int start, int end) {
+        clear();
+        //Place pieces, ranks are listed from 8 down to 1
+        int i = skipSpaces(fen, start, end);
+        int rank = 7;
+        int file = 0;
+        for (; i < end && !isSpace(fen.charAt(i)); i++) {
+            char c = fen.charAt(i);
+            if (c == '/') {
+                if (file != 8 || rank == 0) throw invalidFen("bad piece placement", fen, start, end);
+                rank--;
+                file = 0;
+            }
+            else if (c >= '1' && c <= '8') {
+                file += c - '0';
+                if (file > 8) throw invalidFen("bad piece placement", fen, start, end);
+            }
+            else {
+                PieceType pieceType = pieceTypeOf(Character.toLowerCase(c));
+                if (pieceType == null || file > 7) throw invalidFen("bad piece placement", fen, start, end);
+                Piece piece = pooledPiece(pieces.size());
+                piece.reset(rank, file, Character.isUpperCase(c) ? Color.WHITE : Color.BLACK, pieceType);
+                addPiece(piece);
+                toggleBitboards(piece, Bitboards.square(rank, file));
+                file++;
+            }
+        }
+        //Every rank must be listed and filled to the h file
+        if (rank != 0 || file != 8) throw invalidFen("bad piece placement", fen, start, end);
+        if (Long.bitCount(getBitboard(Color.WHITE, PieceType.KING)) != 1 || Long.bitCount(getBitboard(Color.BLACK, PieceType.KING)) != 1) {
+            throw invalidFen("each side needs exactly one king", fen, start, end);
+        }
+        if (((getBitboard(Color.WHITE, PieceType.PAWN) | getBitboard(Color.BLACK, PieceType.PAWN)) & 0xFF000000000000FFL) != 0) {
+            throw invalidFen("pawn on the first or last rank", fen, start, end);
+        }
+        //Side to move
+        i = skipSpaces(fen, i, end);
+        int fieldEnd = tokenEnd(fen, i, end);
+        if (fieldEnd - i > 1 || (fieldEnd > i && fen.charAt(i) != 'w' && fen.charAt(i) != 'b')) {
+            throw invalidFen("side to move must be w or b", fen, start, end);
+        }
+        if (fieldEnd > i && fen.charAt(i) == 'b') turnColor = Color.BLACK;
+        //The side that just moved can't have left its king attacked, the king would be taken next
+        Color waiting = (turnColor == Color.WHITE) ? Color.BLACK : Color.WHITE;
+        if ((getAttackedSquares(turnColor) & getBitboard(waiting, PieceType.KING)) != 0) {
+            throw invalidFen("side not to move is in check", fen, start, end);
+        }
+        i = skipSpaces(fen, fieldEnd, end);
+        //Castling rights
+        fieldEnd = tokenEnd(fen, i, end);
+        if (!(fieldEnd - i == 1 && fen.charAt(i) == '-')) {
+            for (; i < fieldEnd; i++) {
+                char c = fen.charAt(i);
+                if (c == 'K') castlingRights |= CASTLE_WHITE_KINGSIDE;
+                else if (c == 'Q') castlingRights |= CASTLE_WHITE_QUEENSIDE;
+                else if (c == 'k') castlingRights |= CASTLE_BLACK_KINGSIDE;
+                else if (c == 'q') castlingRights |= CASTLE_BLACK_QUEENSIDE;
+                else throw invalidFen("bad castling rights", fen, start, end);
+            }
+        }
+        i = fieldEnd;
+        //Drop rights whose king or rook is off its home square, they can't be used and castling would move the wrong pieces
+        if ((getBitboard(Color.WHITE, PieceType.KING) & Bitboards.bit(4)) == 0) castlingRights &= CASTLE_MASK[4];
+        if ((getBitboard(Color.WHITE, PieceType.ROOK) & Bitboards.bit(0)) == 0) castlingRights &= CASTLE_MASK[0];
+        if ((getBitboard(Color.WHITE, PieceType.ROOK) & Bitboards.bit(7)) == 0) castlingRights &= CASTLE_MASK[7];
+        if ((getBitboard(Color.BLACK, PieceType.KING) & Bitboards.bit(60)) == 0) castlingRights &= CASTLE_MASK[60];
+        if ((getBitboard(Color.BLACK, PieceType.ROOK) & Bitboards.bit(56)) == 0) castlingRights &= CASTLE_MASK[56];
+        if ((getBitboard(Color.BLACK, PieceType.ROOK) & Bitboards.bit(63)) == 0) castlingRights &= CASTLE_MASK[63];
+        //En passant square
+        i = skipSpaces(fen, i, end);
+        fieldEnd = tokenEnd(fen, i, end);
+        if (fieldEnd - i == 2) {
+            int epFile = fen.charAt(i) - 'a';
+            int epRank = fen.charAt(i + 1) - '1';
+            //The square a pawn just skipped: empty, behind the pawn of the side that moved, on the side to move's sixth rank
+            int pawnRank = (turnColor == Color.WHITE) ? 4 : 3;
+            if (epFile < 0 || epFile > 7 || epRank != ((turnColor == Color.WHITE) ? 5 : 2)
+                    || (occupancy & Bitboards.bit(Bitboards.square(epRank, epFile))) != 0
+                    || (getBitboard(waiting, PieceType.PAWN) & Bitboards.bit(Bitboards.square(pawnRank, epFile))) == 0) {
+                throw invalidFen("bad en passant square", fen, start, end);
+            }
+            enPassantSquare = Bitboards.square(epRank, epFile);
+        }
+        else if (fieldEnd > i && !(fieldEnd - i == 1 && fen.charAt(i) == '-')) throw invalidFen("bad en passant square", fen, start, end);
+        i = fieldEnd;
+        //Move counters, only read if present so EPD operations are left alone
+        int next = skipSpaces(fen, i, end);
+        if (isNumber(fen, next, tokenEnd(fen, next, end))) {
+            halfmoveClock = parseNumber(fen, next, tokenEnd(fen, next, end));
+            i = tokenEnd(fen, next, end);
+            next = skipSpaces(fen, i, end);
+            if (isNumber(fen, next, tokenEnd(fen, next, end))) {
+                fullmoveNumber = Math.max(1, parseNumber(fen, next, tokenEnd(fen, next, end)));
+                i = tokenEnd(fen, next, end);
+            }
+        }
+        zobristKey = computeZobristKey();
+        return i;
+    }
+
+    /**
+     * Sets up a position from a list of pieces, reusing this board's arrays and piece objects as setFen does.
+     * The position has no castling rights and no en passant square
+     * @param colors color of each piece
+     * @param pieceTypes type of each piece
+     * @param squares square of each piece
+     * @param count number of pieces
+     * @param turnColor color to move
+     */
+    void setPieces(Color[] colors, PieceType[] pieceTypes, int[] squares, int count, Color turnColor) {
+        clear();
+        for (int i = 0; i < count; i++) {
+            Piece piece = pooledPiece(i);
+            piece.reset(Bitboards.rankOf(squares[i]), Bitboards.fileOf(squares[i]), colors[i], pieceTypes[i]);
+            addPiece(piece);
+            toggleBitboards(piece, squares[i]);
+        }
+        this.turnColor = turnColor;
+        zobristKey = computeZobristKey();
+    }
+
+    /**
+     * Empties the board and resets all state, keeping every array for reuse
+     */
+    private void clear() {
+        for (Piece[] rank : board) Arrays.fill(rank, null);
+        pieces.clear();
+        capturedPieces.clear();
+        colorPieces[0].clear();
+        colorPieces[1].clear();
+        kings[0] = null;
+        kings[1] = null;
+        Arrays.fill(bitboards, 0L);
+        Arrays.fill(colorOccupancy, 0L);
+        occupancy = 0L;
+        Arrays.fill(scores, 0);
+        phase = 0;
+        Arrays.fill(undoCaptured, 0, undoCount, null);
+        undoCount = 0;
+        attacksValid = false;
+        castlingRights = 0;
+        enPassantSquare = -1;
+        turnColor = Color.WHITE;
+        halfmoveClock = 0;
+        fullmoveNumber = 1;
+    }
+
+    /**
+     * Returns a reusable piece object, creating it the first time an index is asked for
+     * @param index index into the pool, the number of pieces placed so far
+     * @return piece to reset and place
+     */
+    private Piece pooledPiece(int index) {
+        if (index == piecePool.length) piecePool = Arrays.copyOf(piecePool, Math.max(32, index * 2));
+        if (piecePool[index] == null) piecePool[index] = new Piece(0, 0, Color.WHITE, PieceType.PAWN);
+        return piecePool[index];
+    }
+
+    /**
+     * Returns the position in Forsyth-Edwards Notation
+     * @return FEN string, ex. "rnbqkbnr/pppppppp/8/8/4P3/8/PPPP1PPP/RNBQKBNR b KQkq e3 0 1"
+     */
+    public String toFen() { return snapshot().toFen(); }
+
+    /**
+     * Returns an immutable copy of the position, in constant time. The copy can be read from any thread while this
+     * board goes on changing, see PositionSnapshot
+     * @return snapshot of the position as it is now
+     */
+    public PositionSnapshot snapshot() { return PositionSnapshot.of(this); }
+
+    /**
+     * Creates a board from a snapshot, with no moves to take back
+     * @param snapshot position to set up
+     * @return new board in the snapshot's position
+     */
+    public static Board fromSnapshot(PositionSnapshot snapshot) { return new Board(snapshot); }
+
+    /**
+     * Constructor for Board class from a snapshot, see fromSnapshot
+     * @param snapshot position to set up
+     */
+    private Board(PositionSnapshot snapshot) {
+        init();
+        setSnapshot(snapshot);
+    }
+
+    /**
+     * Sets up the position of a snapshot, reusing this board's arrays and piece objects as setFen does
+     * @param snapshot position to set up
+     */
+    public void setSnapshot(PositionSnapshot snapshot) {
+        clear();
+        for (long occupied = snapshot.getOccupancy(); occupied != 0; occupied &= occupied - 1) {
+            int square = Bitboards.lowestSquare(occupied);
+            Piece piece = pooledPiece(pieces.size());
+            piece.reset(Bitboards.rankOf(square), Bitboards.fileOf(square), snapshot.getColorAt(square), snapshot.getPieceTypeAt(square));
+            addPiece(piece);
+            toggleBitboards(piece, square);
+        }
+        turnColor = snapshot.getTurnColor();
+        castlingRights = snapshot.getCastlingRights();
+        enPassantSquare = snapshot.getEnPassantSquare();
+        halfmoveClock = snapshot.getHalfmoveClock();
+        fullmoveNumber = snapshot.getFullmoveNumber();
+        zobristKey = computeZobristKey();
+        assert zobristKey == snapshot.getZobristKey() : "Snapshot key differs from the key of its position";
+    }
+
+    private static boolean isSpace(char c) { return c == ' ' || c == '\t'; }
+
+    /**
+     * Returns the index of the first character at or after i that isn't a space or tab
+     * @param s characters to scan
+     * @param i index to start at
+     * @param end index to stop at
+     * @return index of the next field, end if there is none
+     */
+    private static int skipSpaces(CharSequence s, int i, int end) {
+        while (i < end && isSpace(s.charAt(i))) i++;
+        return i;
+    }
+
+    /**
+     * Returns the index just past the field starting at i
+     * @param s characters to scan
+     * @param i index of the start of the field
+     * @param end index to stop at
+     * @return index of the first space or tab at or after i, end if there is none
+     */
+    private static int tokenEnd(CharSequence s, int i, int end) {
+        while (i < end && !isSpace(s.charAt(i))) i++;
+        return i;
+    }
+
+    /**
+     * Returns true if a field is a non-empty run of digits
+     * @param s characters holding the field
+     * @param start index of the first character
+     * @param end index just past the last character
+     * @return true if the field is a number
+     */
+    private static boolean isNumber(CharSequence s, int start, int end) {
+        if (start == end || end - start > 9) return false;
+        for (int i = start; i < end; i++) {
+            if (s.charAt(i) < '0' || s.charAt(i) > '9') return false;
+        }
+        return true;
+    }
+
+    /**
+     * Parses a field that isNumber accepted
+     * @param s characters holding the field
+     * @param start index of the first character
+     * @param end index just past the last character
+     * @return value of the field
+     */
+    private static int parseNumber(CharSequence s, int start, int end) {
+        int value = 0;
+        for (int i = start; i < end; i++) value = value * 10 + (s.charAt(i) - '0');
+        return value;
+    }
+
+    /**
+     * Builds the exception thrown for an invalid FEN, the only place FEN parsing allocates
+     * @param reason what is wrong
+     * @param fen characters holding the position
+     * @param start index of the first character
+     * @param end index just past the last character
+     * @return exception to throw
+     */
+    private static IllegalArgumentException invalidFen(String reason, CharSequence fen, int start, int end) {
+        return new IllegalArgumentException("Invalid FEN, " + reason + ": " + fen.subSequence(start, end));
+    }
+
+    /**
+     * Places a new piece on its square and appends it to the piece lists, used while setting up a position
+     * @param piece piece to add
+     */
+    private void addPiece(Piece piece) {
+        board[piece.getRank()][piece.getFile()] = piece;
+        List<Piece> sameColor = colorPieces[piece.color.ordinal()];
+        piece.index = pieces.size();
+        piece.colorIndex = sameColor.size();
+        pieces.add(piece);
+        sameColor.add(piece);
+        if (piece.pieceType == PieceType.KING) kings[piece.color.ordinal()] = piece;
+    }
+
+    /**
+     * Returns the piece type for a lowercase FEN letter
+     * @param c piece letter
+     * @return matching piece type, null if c is not a piece letter
+     */
+    private static PieceType pieceTypeOf(char c) {
+        switch (c) {
+            case 'p': return PieceType.PAWN;
+            case 'r': return PieceType.ROOK;
+            case 'n': return PieceType.KNIGHT;
+            case 'b': return PieceType.BISHOP;
+            case 'q': return PieceType.QUEEN;
+            case 'k': return PieceType.KING;
+            default: return null;
         }
     }
 
@@ -31,37 +467,319 @@ public class Board {
      * @param newPos new position of piece
      */
     public void updateBoard(Position currPos, Position newPos) {
+        makeMove(Bitboards.square(currPos.rank, currPos.file), Bitboards.square(newPos.rank, newPos.file), null);
+    }
+
+    /**
+     * Plays a packed move, see makeMove(int, int, PieceType)
+     * @param move packed move from PieceLogic.generatePseudoLegalMoves
+     */
+    public void makeMove(int move) { makeMove(Move.from(move), Move.to(move), Move.promotion(move)); }
+
+    /**
+     * Plays a move and pushes an undo record so unmakeMove can take it back. Handles captures, en passant,
+     * castling and promotion, the move is not checked for legality
+     * @param from square of piece to move
+     * @param to square to move to
+     * @param promotion piece type a pawn promotes to, null if not a promotion
+     */
+    public void makeMove(int from, int to, PieceType promotion) {
+        Piece piece = board[Bitboards.rankOf(from)][Bitboards.fileOf(from)];
+        int capturedSquare = to;
+        //If move is an en passant capture, the captured pawn is beside the moving pawn rather than on the target square
+        if (piece.pieceType == PieceType.PAWN && to == enPassantSquare) capturedSquare = Bitboards.square(Bitboards.rankOf(from), Bitboards.fileOf(to));
+        Piece captured = board[Bitboards.rankOf(capturedSquare)][Bitboards.fileOf(capturedSquare)];
+
+        //Save everything unmakeMove can't work out from the position after the move
+        if (undoCount == undoRecords.length) {
+            undoRecords = Arrays.copyOf(undoRecords, undoCount * 2);
+            undoCaptured = Arrays.copyOf(undoCaptured, undoCount * 2);
+            undoKeys = Arrays.copyOf(undoKeys, undoCount * 2);
+        }
+        long record = from | (long) to << UNDO_TO_SHIFT | (long) capturedSquare << UNDO_CAPTURED_SQUARE_SHIFT
+                    | (long) castlingRights << UNDO_CASTLING_SHIFT | (long) (enPassantSquare + 1) << UNDO_EN_PASSANT_SHIFT
+                    | (long) Math.min(halfmoveClock, 1023) << UNDO_HALFMOVE_SHIFT;
         //If move is a capture, move captured piece to captured pieces list
-        if (board[newPos.rank][newPos.file] != null) {
-            pieces.remove(board[newPos.rank][newPos.file]);
-            capturedPieces.add(board[newPos.rank][newPos.file]);
-        }
-        //Update piece position in piece object
-        board[currPos.rank][currPos.file].updatePosition(newPos);
-        board[newPos.rank][newPos.file] = board[currPos.rank][currPos.file];
-        board[currPos.rank][currPos.file] = null;
+        if (captured != null) {
+            capturePiece(captured, capturedSquare);
+            record |= UNDO_CAPTURE;
+        }
+        if (promotion != null) record |= UNDO_PROMOTION;
+        undoCaptured[undoCount] = captured;
+        undoKeys[undoCount] = zobristKey;
+        undoRecords[undoCount++] = record;
+
+        attacksValid = false;
+        movePiece(piece, from, to);
+        //Piece moves update the key as they toggle bitboards, the rest of the state is swapped out of the key here
+        zobristKey ^= Zobrist.castling(castlingRights) ^ Zobrist.enPassant(enPassantSquare) ^ Zobrist.side();
+        castlingRights &= CASTLE_MASK[from] & CASTLE_MASK[to];
+        //A double pawn push leaves the skipped square open to en passant for one move
+        enPassantSquare = (piece.pieceType == PieceType.PAWN && Math.abs(to - from) == 16) ? (from + to) / 2 : -1;
+        zobristKey ^= Zobrist.castling(castlingRights) ^ Zobrist.enPassant(enPassantSquare);
         //If move was a castle, update rook position
-        if (board[newPos.rank][newPos.file].pieceType == PieceType.KING) updateCastlePosition(currPos, newPos);
+        if (piece.pieceType == PieceType.KING) updateCastlePosition(from, to);
+        //Reset the clock before a promotion changes the pawn's type, promoting is a pawn move
+        halfmoveClock = (piece.pieceType == PieceType.PAWN || captured != null) ? 0 : halfmoveClock + 1;
+        if (promotion != null) changePieceType(piece, to, promotion);
+        if (turnColor == Color.BLACK) fullmoveNumber++;
+        turnColor = (turnColor == Color.WHITE) ? Color.BLACK : Color.WHITE;
+        assert zobristKey == computeZobristKey() : "Incremental Zobrist key differs from full recompute after makeMove";
+        assert Evaluation.scoresMatch(this) : "Incremental evaluation differs from full recompute after makeMove";
+    }
+
+    /**
+     * Takes back the last move played by makeMove or updateBoard, restoring the exact prior position
+     * including move counts, castling rights, the en passant square and the pieces and captured pieces lists
+     */
+    public void unmakeMove() {
+        long record = undoRecords[--undoCount];
+        int from = (int) (record & 63);
+        int to = (int) (record >>> UNDO_TO_SHIFT & 63);
+        Piece piece = board[Bitboards.rankOf(to)][Bitboards.fileOf(to)];
+        turnColor = (turnColor == Color.WHITE) ? Color.BLACK : Color.WHITE;
+        if (turnColor == Color.BLACK) fullmoveNumber--;
+        halfmoveClock = (int) (record >>> UNDO_HALFMOVE_SHIFT & 1023);
+        attacksValid = false;
+        if ((record & UNDO_PROMOTION) != 0) changePieceType(piece, to, PieceType.PAWN);
+        //If move was a castle, put the rook back in its corner
+        if (piece.pieceType == PieceType.KING && Math.abs(to - from) == 2) {
+            int rookFrom = (to > from) ? from + 3 : from - 4;
+            int rookTo = (from + to) / 2;
+            unmovePiece(board[Bitboards.rankOf(rookTo)][Bitboards.fileOf(rookTo)], rookTo, rookFrom);
+        }
+        unmovePiece(piece, to, from);
+        //Put a captured piece back on its square and in its old place in the piece lists
+        if ((record & UNDO_CAPTURE) != 0) {
+            Piece captured = undoCaptured[undoCount];
+            undoCaptured[undoCount] = null;
+            int capturedSquare = (int) (record >>> UNDO_CAPTURED_SQUARE_SHIFT & 63);
+            capturedPieces.remove(capturedPieces.size() - 1);
+            reinsert(pieces, captured, captured.index, false);
+            reinsert(colorPieces[captured.color.ordinal()], captured, captured.colorIndex, true);
+            board[Bitboards.rankOf(capturedSquare)][Bitboards.fileOf(capturedSquare)] = captured;
+            toggleBitboards(captured, capturedSquare);
+        }
+        zobristKey ^= Zobrist.castling(castlingRights) ^ Zobrist.enPassant(enPassantSquare) ^ Zobrist.side();
+        castlingRights = (int) (record >>> UNDO_CASTLING_SHIFT & 15);
+        enPassantSquare = (int) (record >>> UNDO_EN_PASSANT_SHIFT & 127) - 1;
+        zobristKey ^= Zobrist.castling(castlingRights) ^ Zobrist.enPassant(enPassantSquare);
+        assert zobristKey == computeZobristKey() : "Incremental Zobrist key differs from full recompute after unmakeMove";
+        assert Evaluation.scoresMatch(this) : "Incremental evaluation differs from full recompute after unmakeMove";
+    }
+
+    /**
+     * Returns the Zobrist hash of the current position, covering piece placement, side to move,
+     * castling rights and en passant file
+     * @return 64-bit position key
+     */
+    public long getZobristKey() { return zobristKey; }
+
+    /**
+     * Returns every square whose contents the last move changed: the squares moved from and to,
+     * the square of a piece captured en passant, and the rook's squares if the move was a castle
+     * @return bitboard of changed squares, 0 if no move has been played
+     */
+    public long getLastMoveSquares() {
+        if (undoCount == 0) return 0L;
+        long record = undoRecords[undoCount - 1];
+        int from = (int) (record & 63);
+        int to = (int) (record >>> UNDO_TO_SHIFT & 63);
+        long squares = Bitboards.bit(from) | Bitboards.bit(to) | Bitboards.bit((int) (record >>> UNDO_CAPTURED_SQUARE_SHIFT & 63));
+        //A castled king moved two squares, its rook moved from the corner to the square the king crossed
+        if (board[Bitboards.rankOf(to)][Bitboards.fileOf(to)].pieceType == PieceType.KING && Math.abs(to - from) == 2) {
+            squares |= Bitboards.bit((to > from) ? from + 3 : from - 4) | Bitboards.bit((from + to) / 2);
+        }
+        return squares;
+    }
+
+    /**
+     * Returns the en passant square as it was before the last move
+     * @return previous en passant square, -1 if there was none or no move has been played
+     */
+    public int getPreviousEnPassantSquare() {
+        if (undoCount == 0) return -1;
+        return (int) (undoRecords[undoCount - 1] >>> UNDO_EN_PASSANT_SHIFT & 127) - 1;
+    }
+
+    /**
+     * Returns true if the current position already occurred with the same side to move since the last capture
+     * played on this board. Moves made before a copy was taken are not seen by the copy
+     * @return true if the position is a repetition
+     */
+    public boolean isRepetition() {
+        for (int i = undoCount - 1; i >= 0; i--) {
+            if (((undoCount - i) & 1) == 0 && undoKeys[i] == zobristKey) return true;
+            //Positions before a capture had more pieces, so they can't match
+            if ((undoRecords[i] & UNDO_CAPTURE) != 0) return false;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of moves since the last capture or pawn move
+     * @return halfmove clock
+     */
+    public int getHalfmoveClock() { return halfmoveClock; }
+
+    /**
+     * Returns the number of the current full move, which starts at 1 and goes up after each black move
+     * @return fullmove number
+     */
+    public int getFullmoveNumber() { return fullmoveNumber; }
+
+    /**
+     * Returns the number of moves that can currently be taken back with unmakeMove
+     * @return number of undo records on the stack
+     */
+    public int getUndoCount() { return undoCount; }
+
+    /**
+     * Changes the type of a pawn that reached the last rank
+     * @param pawn pawn to promote
+     * @param pieceType piece type to promote to
+     */
+    public void promotePawn(Piece pawn, PieceType pieceType) {
+        int square = Bitboards.square(pawn.getRank(), pawn.getFile());
+        //If the pawn just moved, note the promotion so unmakeMove turns it back into a pawn
+        if (undoCount > 0 && (undoRecords[undoCount - 1] >>> UNDO_TO_SHIFT & 63) == square) undoRecords[undoCount - 1] |= UNDO_PROMOTION;
+        changePieceType(pawn, square, pieceType);
+        assert zobristKey == computeZobristKey() : "Incremental Zobrist key differs from full recompute after promotePawn";
+        assert Evaluation.scoresMatch(this) : "Incremental evaluation differs from full recompute after promotePawn";
+    }
+
+    /**
+     * Changes a piece's type and moves it to the matching bitboard
+     * @param piece piece to change
+     * @param square square of piece
+     * @param pieceType new type of piece
+     */
+    private void changePieceType(Piece piece, int square, PieceType pieceType) {
+        toggleBitboards(piece, square);
+        piece.pieceType = pieceType;
+        toggleBitboards(piece, square);
+        attacksValid = false;
+    }
+
+    /**
+     * Moves a piece between two squares and counts the move
+     * @param piece piece to move
+     * @param from square piece is on
+     * @param to empty square to move to
+     */
+    private void movePiece(Piece piece, int from, int to) {
+        board[Bitboards.rankOf(to)][Bitboards.fileOf(to)] = piece;
+        board[Bitboards.rankOf(from)][Bitboards.fileOf(from)] = null;
+        toggleBitboards(piece, from);
+        toggleBitboards(piece, to);
+        piece.updatePosition(Position.of(to));
+    }
+
+    /**
+     * Moves a piece back between two squares and uncounts the move
+     * @param piece piece to move
+     * @param from square piece is on
+     * @param to empty square it came from
+     */
+    private void unmovePiece(Piece piece, int from, int to) {
+        board[Bitboards.rankOf(to)][Bitboards.fileOf(to)] = piece;
+        board[Bitboards.rankOf(from)][Bitboards.fileOf(from)] = null;
+        toggleBitboards(piece, from);
+        toggleBitboards(piece, to);
+        piece.restorePosition(Position.of(to));
+    }
+
+    /**
+     * Removes a captured piece from the board and moves it to the captured pieces list
+     * @param captured piece being captured
+     * @param square square the captured piece is on
+     */
+    private void capturePiece(Piece captured, int square) {
+        swapRemove(pieces, captured.index, false);
+        swapRemove(colorPieces[captured.color.ordinal()], captured.colorIndex, true);
+        capturedPieces.add(captured);
+        board[Bitboards.rankOf(square)][Bitboards.fileOf(square)] = null;
+        toggleBitboards(captured, square);
+    }
+
+    /**
+     * Removes a piece from a list in constant time by moving the last piece into its slot.
+     * The removed piece keeps its index so reinsert can undo the removal exactly
+     * @param list pieces list or one of the colorPieces lists
+     * @param index index of the piece to remove
+     * @param colorList true if list is a colorPieces list, so colorIndex is updated rather than index
+     */
+    private static void swapRemove(List<Piece> list, int index, boolean colorList) {
+        Piece last = list.remove(list.size() - 1);
+        if (index == list.size()) return;
+        list.set(index, last);
+        if (colorList) last.colorIndex = index;
+        else last.index = index;
+    }
+
+    /**
+     * Undoes swapRemove, moving the piece now in the slot back to the end and putting piece in its old slot
+     * @param list list the piece was removed from
+     * @param piece piece to put back
+     * @param index index the piece had before removal
+     * @param colorList true if list is a colorPieces list
+     */
+    private static void reinsert(List<Piece> list, Piece piece, int index, boolean colorList) {
+        if (index == list.size()) {
+            list.add(piece);
+            return;
+        }
+        Piece moved = list.set(index, piece);
+        if (colorList) moved.colorIndex = list.size();
+        else moved.index = list.size();
+        list.add(moved);
+    }
+
+    /**
+     * Flips a piece's square in its bitboard and the occupancy masks, adding it if absent and removing it if present.
+     * The Zobrist key and the evaluation scores are updated along with them
+     * @param piece piece to add or remove
+     * @param square square of piece
+     */
+    private void toggleBitboards(Piece piece, int square) {
+        long bit = Bitboards.bit(square);
+        int color = piece.color.ordinal();
+        int index = bitboardIndex(piece.color, piece.pieceType);
+        bitboards[index] ^= bit;
+        colorOccupancy[color] ^= bit;
+        occupancy ^= bit;
+        zobristKey ^= Zobrist.piece(index, square);
+        //1 if the piece was just added, -1 if it was just removed
+        int sign = (int) (bitboards[index] >>> square & 1) * 2 - 1;
+        scores[color] += sign * Evaluation.score(index, square);
+        phase += sign * Evaluation.phase(index);
+    }
+
+    /**
+     * Computes the Zobrist key of the position from scratch, used to set up a board and to check the incremental key
+     * @return Zobrist key of the current position
+     */
+    long computeZobristKey() {
+        long key = Zobrist.castling(castlingRights) ^ Zobrist.enPassant(enPassantSquare);
+        if (turnColor == Color.BLACK) key ^= Zobrist.side();
+        for (int index = 0; index < 12; index++) {
+            for (long pieces = bitboards[index]; pieces != 0; pieces &= pieces - 1) {
+                key ^= Zobrist.piece(index, Bitboards.lowestSquare(pieces));
+            }
+        }
+        return key;
     }
 
     /**
      * Updates rook position on board if move was a castle
-     * @param currPos current position of king
-     * @param newPos newPosition of king
+     * @param from square the king moved from
+     * @param to square the king moved to
      */
-    private void updateCastlePosition(Position currPos, Position newPos) {
+    private void updateCastlePosition(int from, int to) {
         //If right castle, move right rook
-        if (newPos.file == currPos.file + 2) {
-            board[currPos.rank][7].updatePosition(new Position(currPos.rank, 5));
-            board[currPos.rank][5] = board[currPos.rank][7];
-            board[currPos.rank][7] = null;    
-        }
+        if (to == from + 2) movePiece(board[Bitboards.rankOf(from)][7], from + 3, from + 1);
         //If left castle, move left rook
-        if (newPos.file == currPos.file - 2) {
-            board[currPos.rank][0].updatePosition(new Position(currPos.rank, 3));
-            board[currPos.rank][3] = board[currPos.rank][0];
-            board[currPos.rank][0] = null;
-        }
+        if (to == from - 2) movePiece(board[Bitboards.rankOf(from)][0], from - 4, from - 1);
     }
 
     /**
@@ -75,6 +793,133 @@ public class Board {
         return board[rank][file];
     }
 
+    /**
+     * Returns piece on a square
+     * @param square square index, rank * 8 + file
+     * @return piece on square, null if empty
+     */
+    public Piece getPieceAt(int square) { return board[square >>> 3][square & 7]; }
+
+    /**
+     * Returns every square attacked by a color, whether empty or occupied by either side. Pawns attack only their
+     * capture squares, never the squares they push to. Sliders see through the opposing king, so a king can't
+     * escape a check by stepping back along the checking ray
+     * @param color attacking color
+     * @return bitboard of attacked squares
+     */
+    public long getAttackedSquares(Color color) {
+        if (!attacksValid) computeAttacks();
+        return attackedSquares[color.ordinal()];
+    }
+
+    /**
+     * Returns the number of pieces of a color attacking a square, counted the same way as getAttackedSquares
+     * @param color attacking color
+     * @param square square attacked
+     * @return number of attackers
+     */
+    public int getAttackerCount(Color color, int square) {
+        if (!attacksValid) computeAttacks();
+        return attackerCounts[color.ordinal() * 64 + square];
+    }
+
+    /**
+     * Recomputes both colors' attack maps and attacker counts from the bitboards. Called lazily on the first
+     * attack query after a move, so positions that are never asked about cost nothing
+     */
+    private void computeAttacks() {
+        Arrays.fill(attackerCounts, (byte) 0);
+        for (int color = 0; color < 2; color++) {
+            Color attacker = (color == 0) ? Color.WHITE : Color.BLACK;
+            long occupied = occupancy & ~bitboards[bitboardIndex((color == 0) ? Color.BLACK : Color.WHITE, PieceType.KING)];
+            long attacked = 0L;
+            for (int type = 0; type < 6; type++) {
+                for (long pieceSquares = bitboards[color * 6 + type]; pieceSquares != 0; pieceSquares &= pieceSquares - 1) {
+                    int square = Bitboards.lowestSquare(pieceSquares);
+                    long targets = pieceAttacks(attacker, type, square, occupied);
+                    attacked |= targets;
+                    for (; targets != 0; targets &= targets - 1) attackerCounts[color * 64 + Bitboards.lowestSquare(targets)]++;
+                }
+            }
+            attackedSquares[color] = attacked;
+        }
+        attacksValid = true;
+    }
+
+    /**
+     * Returns the squares a piece attacks
+     * @param color color of the piece
+     * @param type piece type ordinal
+     * @param square square of the piece
+     * @param occupied occupancy used for sliding pieces
+     * @return bitboard of attacked squares
+     */
+    private static long pieceAttacks(Color color, int type, int square, long occupied) {
+        switch (PIECE_TYPES[type]) {
+            case PAWN: return Bitboards.pawnAttacks(color, square);
+            case KNIGHT: return Bitboards.knightAttacks(square);
+            case BISHOP: return Bitboards.bishopAttacks(square, occupied);
+            case ROOK: return Bitboards.rookAttacks(square, occupied);
+            case QUEEN: return Bitboards.queenAttacks(square, occupied);
+            default: return Bitboards.kingAttacks(square);
+        }
+    }
+
+    /**
+     * Returns the bitboard of pieces with the given color and type. Iterating its squares with getPieceAt(int)
+     * visits every piece of that color and type without scanning the pieces list
+     * @param color color of pieces
+     * @param pieceType type of pieces
+     * @return bitboard with a bit set on each square holding a matching piece
+     */
+    public long getBitboard(Color color, PieceType pieceType) { return bitboards[bitboardIndex(color, pieceType)]; }
+
+    /**
+     * Returns the squares occupied by pieces of the input color
+     * @param color color of pieces
+     * @return occupancy bitboard of color
+     */
+    public long getColorOccupancy(Color color) { return colorOccupancy[color.ordinal()]; }
+
+    /**
+     * Returns the squares occupied by any piece
+     * @return occupancy bitboard of the whole board
+     */
+    public long getOccupancy() { return occupancy; }
+
+    /**
+     * Returns the castling rights still available as a bitmask of the CASTLE_ flags
+     * @return castling rights
+     */
+    public int getCastlingRights() { return castlingRights; }
+
+    /**
+     * Returns the square a pawn can capture onto en passant this move
+     * @return en passant target square, -1 if none
+     */
+    public int getEnPassantSquare() { return enPassantSquare; }
+
+    /**
+     * Returns the color whose turn it is to move
+     * @return color to move
+     */
+    public Color getTurnColor() { return turnColor; }
+
+    /**
+     * Returns the square the king of input color stands on
+     * @param color color of king
+     * @return square index of king
+     */
+    public int getKingSquare(Color color) { return Bitboards.lowestSquare(getBitboard(color, PieceType.KING)); }
+
+    /**
+     * Returns the index of the bitboard for a color and piece type
+     * @param color color of piece
+     * @param pieceType type of piece
+     * @return index into bitboards
+     */
+    static int bitboardIndex(Color color, PieceType pieceType) { return color.ordinal() * 6 + pieceType.ordinal(); }
+
     /**
      * Gets the list of pieces on the board
      * @return list of pieces on the board
@@ -92,24 +937,15 @@ public class Board {
      * @param color color of king to return
      * @return reference to king of input color
      */
-    public Piece getColorKing(Color color) {
-        return pieces.stream()
-                .filter(e -> e.color == color)
-                .filter(e -> e.pieceType == PieceType.KING)
-                .findFirst()
-                .orElse(null); //King should always be in pieces
-    }
+    public Piece getColorKing(Color color) { return kings[color.ordinal()]; }
 
     /**
-     * Returns a list of all pieces of input color
+     * Returns a list of all pieces of input color. The list is kept up to date by the board,
+     * so it must not be modified and its order changes when pieces are captured
      * @param color color of pieces to return
      * @return list of pieces on the board with matching color
      */
-    public List<Piece> getColorPieces(Color color) {
-        return pieces.stream()
-                .filter(e -> e.color == color)
-                .collect(Collectors.toList());
-    }
+    public List<Piece> getColorPieces(Color color) { return colorPieces[color.ordinal()]; }
 
     /**
      * Prints current board position. If currPiece is not null, prints possible moves of currPiece
@@ -120,7 +956,7 @@ public class Board {
             System.out.printf("%d  ", i+1);
             for (int j = 0; j < 8; j++) {
                 //If selected piece can move to this position, print 1 or C if capture
-                if (currPiece != null && currPiece.moves.contains(new Position(i, j))) {
+                if (currPiece != null && currPiece.moves.contains(Position.of(i, j))) {
                     String string = (board[i][j] == null) ? "1 " : "C ";
                     System.out.print(string);
                 }
@@ -1,113 +1,179 @@
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.Scanner;
 
+/**
+ * Command line game for two players or against the computer
+ *
+ * Usage:
+ *   java Chess [--book file] [--tb dir]
+ *       play, the computer uses the opening book and endgame tables if given, and the tables' verdict on each
+ *       position in them is printed
+ *   java Chess --uci [--hash MB] [--threads N] [--book file] [--tb dir]
+ *       run as a UCI engine for a GUI instead, see Uci
+ */
 public class Chess {
-    public static void main(String[] args) {
-        //int turnCount = 1; //Number of turns completed, where each move made is a turn
-        Color turnColor = Color.WHITE; //Which players turn it is
-        String stringColor = "";
-        boolean check = false;  //True if player whose turn it is in check
-        boolean checkmate = false; //True if a checkmate position is reached
-        
+    private static final long COMPUTER_MILLIS = 3000; //Time the computer spends on each move
+
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0 && args[0].equals("--uci")) {
+            Uci.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
         //Instantiate game
-        Board board = new Board();
+        Game game = new Game();
+        Board board = game.getBoard();
         PieceLogic logic = new PieceLogic();
         Scanner scanner = new Scanner(System.in);
         System.out.println("Welcome to Chess!\n");
-        //Calculate all possible first moves
-        for (Piece piece : board.getPieces()) logic.calculatePossibleMoves(piece, board);
+        //Ask which side, if any, the computer plays
+        Color computerColor = getComputerColor(scanner);
+        Search search = new Search(new TranspositionTable(64));
+        OpeningBook book = null;
+        Tablebases tablebases = null;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (args[i].equals("--book")) book = openBook(args[i + 1]);
+            else if (args[i].equals("--tb")) tablebases = Search.openTablebases(Paths.get(args[i + 1]));
+        }
+        search.setTablebases(tablebases);
 
-        while (!checkmate) {
+        while (!game.isOver()) {
             //Print board
             board.printPosition(null);
             System.out.println();
 
             //Get piece to check
-            stringColor = (turnColor == Color.WHITE) ? "White" : "Black";
+            Color turnColor = game.getTurnColor();
+            String stringColor = colorName(turnColor);
             System.out.println("It's " + stringColor + "'s Turn!");
             //If player is in check, print warning message
-            if (check) System.out.println("You're in check");
-            System.out.print("Select a piece to move (ex. b2): ");
-            Position selectedPosition = getInputPosition(scanner);
-            if (selectedPosition == null) {
-                System.out.println("Invalid selection");
-                continue;
-            }
+            if (game.isCheck()) System.out.println("You're in check");
+            //If the position is in the endgame tables, print how it ends with best play
+            if (tablebases != null) printTablebaseResult(tablebases.probe(board), stringColor);
 
-            //Get piece at input position
-            Piece selectedPiece = board.getPieceAt(selectedPosition.rank, selectedPosition.file);
-            //If no piece at position or piece is wrong color, print error message
-            if (selectedPiece == null || selectedPiece.color != turnColor) {
-                System.out.println("Invalid piece selected");
-                continue;
+            if (turnColor == computerColor) {
+                int move = (book != null) ? book.probe(board) : Move.NONE;
+                if (move == Move.NONE) move = search.search(board, Search.MAX_PLY, COMPUTER_MILLIS).getBestMove();
+                System.out.println("Computer plays " + Move.toString(move) + "\n");
+                game.makeMove(move);
             }
+            else {
+                System.out.print("Select a piece to move (ex. b2): ");
+                Position selectedPosition = getInputPosition(scanner);
+                if (selectedPosition == null) {
+                    System.out.println("Invalid selection");
+                    continue;
+                }
 
-            //If piece cannot move, print error message
-            if (selectedPiece.getMoves().isEmpty()) {
-                System.out.println("This piece has no moves!");
-                continue;
-            }
-            //If piece is pinned, print error message
-            else if (logic.isPinned(selectedPiece, board)) {
-                System.out.println("Selected piece is pinned! Choose a different piece to move.\n");
-                continue;
-            }
+                //Get piece at input position
+                Piece selectedPiece = board.getPieceAt(selectedPosition.rank, selectedPosition.file);
+                //If no piece at position or piece is wrong color, print error message
+                if (selectedPiece == null || selectedPiece.color != turnColor) {
+                    System.out.println("Invalid piece selected");
+                    continue;
+                }
+
+                //If piece cannot move, print error message
+                if (selectedPiece.getMoves().isEmpty()) {
+                    System.out.println("This piece has no moves!");
+                    continue;
+                }
+                //If piece is pinned, print error message
+                else if (logic.isPinned(selectedPiece, board)) {
+                    System.out.println("Selected piece is pinned! Choose a different piece to move.\n");
+                    continue;
+                }
 
-            //Print possible moves
-            System.out.println("Possible Moves:\n");
-            board.printPosition(selectedPiece);
+                //Print possible moves
+                System.out.println("Possible Moves:\n");
+                board.printPosition(selectedPiece);
             
-            //Get move
-            System.out.print("Select where to move this piece (ex. b3): ");
-            selectedPosition = getInputPosition(scanner);
-            System.out.println();
+                //Get move
+                System.out.print("Select where to move this piece (ex. b3): ");
+                selectedPosition = getInputPosition(scanner);
+                System.out.println();
             
-            //Check if input move is valid
-            if (selectedPosition == null || !isValidMove(selectedPiece, selectedPosition)) {
-                System.out.println("Selected piece can't move there!");
-                continue;
-            }
-            //If input was valid, move piece
-            board.updateBoard(selectedPiece.getPosition(), selectedPosition);
-            //If player could move, they are no longer in check
-            check = false;
-
-            //Check if piece is a pawn and can promote
-            if (selectedPiece.pieceType == PieceType.PAWN && (selectedPiece.getRank() == 0 || selectedPiece.getRank() == 7)) {
-                pawnPromotion(scanner, selectedPiece);
-            }
-
-            //After piece is moved recalculate all possible moves
-            for (Piece piece : board.getPieces()) logic.calculatePossibleMoves(piece, board);
-            //Remove move into check squares for both kings
-            logic.moveIntoCheck(board, board.getColorKing(Color.WHITE));
-            logic.moveIntoCheck(board, board.getColorKing(Color.BLACK));
-
-            //Check for checks and checkmate
-            Piece otherKing = board.getColorKing(otherColor(turnColor));
-            if (logic.inCheck(board.getColorPieces(turnColor), otherKing)) {
-                if (logic.inCheckmate(board.getColorPieces(turnColor), board.getColorPieces(otherColor(turnColor)), otherKing)) {
-                    checkmate = true;
+                //Check if input move is valid
+                if (selectedPosition == null || !isValidMove(selectedPiece, selectedPosition)) {
+                    System.out.println("Selected piece can't move there!");
+                    continue;
                 }
-                else {
-                    check = true;
+                //Check if piece is a pawn and can promote
+                PieceType promotion = null;
+                if (selectedPiece.pieceType == PieceType.PAWN && (selectedPosition.rank == 0 || selectedPosition.rank == 7)) {
+                    promotion = getPromotion(scanner);
                 }
+                //If input was valid, move piece
+                int move = game.findMove(Bitboards.square(selectedPiece.getRank(), selectedPiece.getFile()),
+                        Bitboards.square(selectedPosition.rank, selectedPosition.file), promotion);
+                if (move == Move.NONE) {
+                    System.out.println("Selected piece can't move there!");
+                    continue;
+                }
+                game.makeMove(move);
             }
-
-            //If a check was made, remove moves from pieces that don't cover check
-            if (check) logic.removeIllegalMoves(board.getColorPieces(turnColor),
-                                                board.getColorPieces(otherColor(turnColor)),
-                                                board.getColorKing(otherColor(turnColor)));
-
-            //Increment turn count and switch turn color
-            //++turnCount;
-            turnColor = (turnColor == Color.WHITE) ? Color.BLACK : Color.WHITE;
         }
-        System.out.println("Checkmate! " + stringColor + " wins!\n");
+        if (game.isStalemate()) System.out.println("Stalemate! It's a draw.\n");
+        else System.out.println("Checkmate! " + colorName(otherColor(game.getTurnColor())) + " wins!\n");
         board.printPosition(null);
 
         scanner.close();
     }
 
+    /**
+     * Returns the name of a color as shown to the players
+     * @param color color to name
+     * @return "White" or "Black"
+     */
+    private static String colorName(Color color) {
+        return (color == Color.WHITE) ? "White" : "Black";
+    }
+
+    /**
+     * Prints the endgame tables' verdict on a position
+     * @param result probe result for the side to move
+     * @param stringColor name of the side to move
+     */
+    private static void printTablebaseResult(int result, String stringColor) {
+        if (result == Tablebase.UNKNOWN) return;
+        String other = stringColor.equals("White") ? "Black" : "White";
+        int moves = (Tablebase.dtm(result) + 1) / 2;
+        if (Tablebase.wdl(result) == Tablebase.DRAW) System.out.println("Tablebase: drawn with best play");
+        else if (Tablebase.wdl(result) == Tablebase.WIN) System.out.println("Tablebase: " + stringColor + " mates in " + moves);
+        else if (moves > 0) System.out.println("Tablebase: " + other + " mates in " + moves);
+    }
+
+    /**
+     * Opens the computer's opening book
+     * @param file book file
+     * @return opened book, null if it can't be read
+     */
+    private static OpeningBook openBook(String file) {
+        try {
+            return new OpeningBook(Paths.get(file));
+        } catch (IOException e) {
+            System.out.println("Couldn't read opening book, playing without it: " + e.getMessage() + "\n");
+            return null;
+        }
+    }
+
+    /**
+     * Asks whether to play against the computer and which side it should take
+     * @param scanner scanner object
+     * @return color the computer plays, null for two players
+     */
+    private static Color getComputerColor(Scanner scanner) {
+        while (true) {
+            System.out.print("Play against the computer? Enter w to play White, b to play Black, or n for two players: ");
+            String input = scanner.nextLine().trim().toLowerCase();
+            System.out.println();
+            if (input.equals("w")) return Color.BLACK;
+            if (input.equals("b")) return Color.WHITE;
+            if (input.equals("n")) return null;
+        }
+    }
+
     /**
      * Returns the opposite color to input color
      * @param color input color
@@ -142,35 +208,31 @@ public class Chess {
         int rank = Character.getNumericValue(input.toLowerCase().charAt(1)) - 1;
         //If position is invalid, print error message
         if (file < 0 || file > 7 || rank < 0 || rank > 7) { return null; }
-        return new Position(rank, file);
+        return Position.of(rank, file);
     }
     
     /**
-     * Handles pawn promotion user interaction
+     * Asks which piece a pawn promotes to
      * @param scanner scanner object
-     * @param pawn pawn to promote
+     * @return piece type chosen
      */
-    private static void pawnPromotion(Scanner scanner, Piece pawn) {
+    private static PieceType getPromotion(Scanner scanner) {
         System.out.println("Which piece would you like to promote to: (Q)ueen, (B)ishop, K(n)ight, or (R)ook?");
         while (true) {
-            String input = scanner.nextLine();
-            switch (input.toUpperCase().charAt(0)) {
+            String input = scanner.nextLine().trim();
+            switch (input.isEmpty() ? ' ' : input.toUpperCase().charAt(0)) {
                 case 'Q':
                     System.out.println("Promoted to Queen!");
-                    pawn.pieceType = PieceType.QUEEN;
-                    return;
+                    return PieceType.QUEEN;
                 case 'B':
                     System.out.println("Promoted to Bishop!");
-                    pawn.pieceType = PieceType.BISHOP;
-                    return;
+                    return PieceType.BISHOP;
                 case 'N':
                     System.out.println("Promoted to Knight!");
-                    pawn.pieceType = PieceType.KNIGHT;
-                    return;
+                    return PieceType.KNIGHT;
                 case 'R':
                     System.out.println("Promoted to Rook!");
-                    pawn.pieceType = PieceType.ROOK;
-                    return;
+                    return PieceType.ROOK;
             }
             System.out.println("Invalid input, please enter a valid character (Q, B, N, R)");
         }
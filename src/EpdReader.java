@@ -0,0 +1,183 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+
+/**
+ * Streams positions out of an EPD or FEN file, one position per line, into a reusable Board.
+ * The file is memory mapped a window at a time, so files of any size can be read, and lines are parsed straight
+ * from the mapped bytes without creating a String per line. Blank lines and lines starting with # are skipped.
+ * Lines hold the four EPD fields, optionally followed by FEN move counters, EPD operations or both
+ *
+ * Usage:
+ *   java EpdReader file.epd             load every position in the file and report positions per second
+ */
+public class EpdReader implements AutoCloseable {
+    private static final long WINDOW_BYTES = 256L << 20; //Bytes mapped at once, lines longer than this are rejected
+
+    private final FileChannel channel;
+    private final long size; //Length of the file in bytes
+    private MappedByteBuffer window; //Mapped part of the file, starts at windowStart
+    private long windowStart; //File offset of the first byte of window
+    private final Line line = new Line(); //View of the current line, reused for every line
+    private int operationsStart; //Index in line where the EPD operations start
+    private long lineNumber; //Line number of the current line, starting at 1
+    private int nextStart; //Index in window of the start of the next line
+
+    /**
+     * Opens a file for reading
+     * @param path file to read
+     * @throws IOException if the file can't be opened
+     */
+    public EpdReader(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        size = channel.size();
+        map(0);
+    }
+
+    /**
+     * Reads the next position into a board, replacing whatever the board held
+     * @param board board to set up, its pieces are reused as described in Board.setFen
+     * @return true if a position was read, false at the end of the file
+     * @throws IOException if the file can't be read
+     * @throws IllegalArgumentException if a line isn't a valid position, the message gives the line number
+     */
+    public boolean next(Board board) throws IOException {
+        while (nextLine()) {
+            int start = 0;
+            while (start < line.length && isSpace(line.charAt(start))) start++;
+            if (start == line.length || line.charAt(start) == '#') continue;
+            try {
+                operationsStart = board.setFen(line, start, line.length);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Line " + lineNumber + ": " + e.getMessage(), e);
+            }
+            while (operationsStart < line.length && isSpace(line.charAt(operationsStart))) operationsStart++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the EPD operations after the position read by the last call to next, ex. "bm Nf3; id \"pos 1\";".
+     * The returned sequence is a view of the mapped file and is only valid until next is called again
+     * @return operations of the current line, empty if there are none
+     */
+    public CharSequence operations() { return line.subSequence(operationsStart, line.length); }
+
+    /**
+     * Returns the line number of the position read by the last call to next
+     * @return line number, starting at 1
+     */
+    public long getLineNumber() { return lineNumber; }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        channel.close();
+    }
+
+    /**
+     * Points line at the next line of the file, mapping the next window when the line runs past the current one
+     * @return false at the end of the file
+     * @throws IOException if the file can't be mapped
+     */
+    private boolean nextLine() throws IOException {
+        int start = nextStart;
+        if (windowStart + start >= size) return false;
+        int end = findNewline(start);
+        if (end == window.limit() && windowStart + end < size) {
+            //Line crosses the end of the window, map a new window starting at the line
+            map(windowStart + start);
+            start = 0;
+            end = findNewline(0);
+            if (end == window.limit() && windowStart + end < size) {
+                throw new IOException("Line " + (lineNumber + 1) + " is longer than " + WINDOW_BYTES + " bytes");
+            }
+        }
+        nextStart = end + 1;
+        line.offset = start;
+        line.length = (end > start && window.get(end - 1) == '\r') ? end - start - 1 : end - start;
+        lineNumber++;
+        return true;
+    }
+
+    /**
+     * Returns the index of the next newline in the window
+     * @param from index to start looking at
+     * @return index of the newline, the window limit if there is none
+     */
+    private int findNewline(int from) {
+        int limit = window.limit();
+        for (int i = from; i < limit; i++) {
+            if (window.get(i) == '\n') return i;
+        }
+        return limit;
+    }
+
+    /**
+     * Maps the window starting at a file offset
+     * @param start file offset of the first byte to map
+     * @throws IOException if the file can't be mapped
+     */
+    private void map(long start) throws IOException {
+        windowStart = start;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW_BYTES, size - start));
+    }
+
+    private static boolean isSpace(char c) { return c == ' ' || c == '\t'; }
+
+    /**
+     * Characters of part of the mapped window, each byte read as one character since EPD is ASCII
+     */
+    private class Line implements CharSequence {
+        int offset; //Index in window of the first character
+        int length; //Number of characters
+
+        @Override
+        public int length() { return length; }
+
+        @Override
+        public char charAt(int index) { return (char) (window.get(offset + index) & 0xff); }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            Line sub = new Line();
+            sub.offset = offset + start;
+            sub.length = end - start;
+            return sub;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder s = new StringBuilder(length);
+            for (int i = 0; i < length; i++) s.append(charAt(i));
+            return s.toString();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.out.println("Usage: java EpdReader file.epd");
+            return;
+        }
+        PieceLogic logic = new PieceLogic();
+        int[] moves = new int[Move.MAX_MOVES];
+        Board board = new Board();
+        long positions = 0;
+        long legalMoves = 0;
+        long start = System.nanoTime();
+        try (EpdReader reader = new EpdReader(Paths.get(args[0]))) {
+            while (reader.next(board)) {
+                positions++;
+                legalMoves += logic.generateLegalMoves(board, board.getTurnColor(), moves);
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf(Locale.ROOT, "%,d positions, %,d legal moves in %.3f s (%,.0f positions/s)%n",
+                positions, legalMoves, seconds, positions / seconds);
+    }
+}
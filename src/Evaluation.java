@@ -0,0 +1,300 @@
+/**
+ * Static evaluation of a position for the search, in centipawns from the point of view of the side to move.
+ * Material and piece-square scores are kept up to date by Board as pieces are added, moved and removed, one score
+ * for the middlegame and one for the endgame per color, and evaluate blends the two by how much material is left.
+ * Mobility comes from the sizes of legal move lists the search generates anyway
+ *
+ * Usage:
+ *   java Evaluation [fen]  print the evaluation of a position, the start position by default, and check the
+ *                          incremental scores against a full recompute
+ */
+public class Evaluation {
+    //Value of each piece type for move ordering, indexed by PieceType ordinal
+    private static final int[] VALUES = new int[6];
+    public static final int MAX_PHASE = 24; //Phase with every piece but pawns and kings still on the board
+    public static final int MOBILITY = 3; //Score per legal move the side to move has over its opponent
+
+    //Material, phase and piece-square values from Ronald Friederich's PeSTO. Tables are indexed by PieceType ordinal,
+    //and each table is laid out as a white player sees the board, a8 first, so white pieces look up square ^ 56
+    private static final int[] MIDDLEGAME_VALUES = { 82, 477, 337, 365, 1025, 0 };
+    private static final int[] ENDGAME_VALUES = { 94, 512, 281, 297, 936, 0 };
+    private static final int[] PHASES = { 0, 2, 1, 1, 4, 0 };
+    private static final int[][] MIDDLEGAME_TABLES = {
+        { //Pawn
+              0,   0,   0,   0,   0,   0,   0,   0,
+             98, 134,  61,  95,  68, 126,  34, -11,
+             -6,   7,  26,  31,  65,  56,  25, -20,
+            -14,  13,   6,  21,  23,  12,  17, -23,
+            -27,  -2,  -5,  12,  17,   6,  10, -25,
+            -26,  -4,  -4, -10,   3,   3,  33, -12,
+            -35,  -1, -20, -23, -15,  24,  38, -22,
+              0,   0,   0,   0,   0,   0,   0,   0,
+        },
+        { //Rook
+             32,  42,  32,  51,  63,   9,  31,  43,
+             27,  32,  58,  62,  80,  67,  26,  44,
+             -5,  19,  26,  36,  17,  45,  61,  16,
+            -24, -11,   7,  26,  24,  35,  -8, -20,
+            -36, -26, -12,  -1,   9,  -7,   6, -23,
+            -45, -25, -16, -17,   3,   0,  -5, -33,
+            -44, -16, -20,  -9,  -1,  11,  -6, -71,
+            -19, -13,   1,  17,  16,   7, -37, -26,
+        },
+        { //Knight
+           -167, -89, -34, -49,  61, -97, -15,-107,
+            -73, -41,  72,  36,  23,  62,   7, -17,
+            -47,  60,  37,  65,  84, 129,  73,  44,
+             -9,  17,  19,  53,  37,  69,  18,  22,
+            -13,   4,  16,  13,  28,  19,  21,  -8,
+            -23,  -9,  12,  10,  19,  17,  25, -16,
+            -29, -53, -12,  -3,  -1,  18, -14, -19,
+           -105, -21, -58, -33, -17, -28, -19, -23,
+        },
+        { //Bishop
+            -29,   4, -82, -37, -25, -42,   7,  -8,
+            -26,  16, -18, -13,  30,  59,  18, -47,
+            -16,  37,  43,  40,  35,  50,  37,  -2,
+             -4,   5,  19,  50,  37,  37,   7,  -2,
+             -6,  13,  13,  26,  34,  12,  10,   4,
+              0,  15,  15,  15,  14,  27,  18,  10,
+              4,  15,  16,   0,   7,  21,  33,   1,
+            -33,  -3, -14, -21, -13, -12, -39, -21,
+        },
+        { //Queen
+            -28,   0,  29,  12,  59,  44,  43,  45,
+            -24, -39,  -5,   1, -16,  57,  28,  54,
+            -13, -17,   7,   8,  29,  56,  47,  57,
+            -27, -27, -16, -16,  -1,  17,  -2,   1,
+             -9, -26,  -9, -10,  -2,  -4,   3,  -3,
+            -14,   2, -11,  -2,  -5,   2,  14,   5,
+            -35,  -8,  11,   2,   8,  15,  -3,   1,
+             -1, -18,  -9,  10, -15, -25, -31, -50,
+        },
+        { //King
+            -65,  23,  16, -15, -56, -34,   2,  13,
+             29,  -1, -20,  -7,  -8,  -4, -38, -29,
+             -9,  24,   2, -16, -20,   6,  22, -22,
+            -17, -20, -12, -27, -30, -25, -14, -36,
+            -49,  -1, -27, -39, -46, -44, -33, -51,
+            -14, -14, -22, -46, -44, -30, -15, -27,
+              1,   7,  -8, -64, -43, -16,   9,   8,
+            -15,  36,  12, -54,   8, -28,  24,  14,
+        },
+    };
+    private static final int[][] ENDGAME_TABLES = {
+        { //Pawn
+              0,   0,   0,   0,   0,   0,   0,   0,
+            178, 173, 158, 134, 147, 132, 165, 187,
+             94, 100,  85,  67,  56,  53,  82,  84,
+             32,  24,  13,   5,  -2,   4,  17,  17,
+             13,   9,  -3,  -7,  -7,  -8,   3,  -1,
+              4,   7,  -6,   1,   0,  -5,  -1,  -8,
+             13,   8,   8,  10,  13,   0,   2,  -7,
+              0,   0,   0,   0,   0,   0,   0,   0,
+        },
+        { //Rook
+             13,  10,  18,  15,  12,  12,   8,   5,
+             11,  13,  13,  11,  -3,   3,   8,   3,
+              7,   7,   7,   5,   4,  -3,  -5,  -3,
+              4,   3,  13,   1,   2,   1,  -1,   2,
+              3,   5,   8,   4,  -5,  -6,  -8, -11,
+             -4,   0,  -5,  -1,  -7, -12,  -8, -16,
+             -6,  -6,   0,   2,  -9,  -9, -11,  -3,
+             -9,   2,   3,  -1,  -5, -13,   4, -20,
+        },
+        { //Knight
+            -58, -38, -13, -28, -31, -27, -63, -99,
+            -25,  -8, -25,  -2,  -9, -25, -24, -52,
+            -24, -20,  10,   9,  -1,  -9, -19, -41,
+            -17,   3,  22,  22,  22,  11,   8, -18,
+            -18,  -6,  16,  25,  16,  17,   4, -18,
+            -23,  -3,  -1,  15,  10,  -3, -20, -22,
+            -42, -20, -10,  -5,  -2, -20, -23, -44,
+            -29, -51, -23, -15, -22, -18, -50, -64,
+        },
+        { //Bishop
+            -14, -21, -11,  -8,  -7,  -9, -17, -24,
+             -8,  -4,   7, -12,  -3, -13,  -4, -14,
+              2,  -8,   0,  -1,  -2,   6,   0,   4,
+             -3,   9,  12,   9,  14,  10,   3,   2,
+             -6,   3,  13,  19,   7,  10,  -3,  -9,
+            -12,  -3,   8,  10,  13,   3,  -7, -15,
+            -14, -18,  -7,  -1,   4,  -9, -15, -27,
+            -23,  -9, -23,  -5,  -9, -16,  -5, -17,
+        },
+        { //Queen
+             -9,  22,  22,  27,  27,  19,  10,  20,
+            -17,  20,  32,  41,  58,  25,  30,   0,
+            -20,   6,   9,  49,  47,  35,  19,   9,
+              3,  22,  24,  45,  57,  40,  57,  36,
+            -18,  28,  19,  47,  31,  34,  39,  23,
+            -16, -27,  15,   6,   9,  17,  10,   5,
+            -22, -23, -30, -16, -16, -23, -36, -32,
+            -33, -28, -22, -43,  -5, -32, -20, -41,
+        },
+        { //King
+            -74, -35, -18, -18, -11,  15,   4, -17,
+            -12,  17,  14,  17,  17,  38,  23,  11,
+             10,  17,  23,  15,  20,  45,  44,  13,
+             -8,  22,  24,  27,  26,  33,  26,   3,
+            -18,  -4,  21,  24,  27,  23,   9, -11,
+            -19,  -3,  11,  21,  23,  16,   7,  -9,
+            -27, -11,   4,  13,  14,   4,  -5, -17,
+            -53, -34, -21, -11, -28, -14, -24, -43,
+        },
+    };
+    //Material plus piece-square value of a piece on a square, middlegame and endgame packed by pack, indexed by
+    //Board.bitboardIndex * 64 + square. Packed values add and subtract as pairs, so Board keeps one sum per color
+    private static final int[] SCORES = new int[12 * 64];
+    private static final int[] INDEX_PHASES = new int[12]; //PHASES indexed by Board.bitboardIndex
+
+    static {
+        VALUES[PieceType.PAWN.ordinal()] = 100;
+        VALUES[PieceType.KNIGHT.ordinal()] = 320;
+        VALUES[PieceType.BISHOP.ordinal()] = 330;
+        VALUES[PieceType.ROOK.ordinal()] = 500;
+        VALUES[PieceType.QUEEN.ordinal()] = 900;
+        for (int type = 0; type < 6; type++) {
+            INDEX_PHASES[type] = PHASES[type];
+            INDEX_PHASES[6 + type] = PHASES[type];
+            for (int square = 0; square < 64; square++) {
+                //Black pieces look up the square mirrored top to bottom, which undoes the table's a8 first layout
+                SCORES[type * 64 + square] = pack(MIDDLEGAME_VALUES[type] + MIDDLEGAME_TABLES[type][square ^ 56],
+                                                  ENDGAME_VALUES[type] + ENDGAME_TABLES[type][square ^ 56]);
+                SCORES[(6 + type) * 64 + square] = pack(MIDDLEGAME_VALUES[type] + MIDDLEGAME_TABLES[type][square],
+                                                        ENDGAME_VALUES[type] + ENDGAME_TABLES[type][square]);
+            }
+        }
+    }
+
+    /**
+     * Returns the material and piece-square balance of a position from the board's running scores, a few additions
+     * @param board position to evaluate
+     * @return score in centipawns, positive if the side to move is ahead
+     */
+    public static int evaluate(Board board) {
+        int balance = board.scores[Color.WHITE.ordinal()] - board.scores[Color.BLACK.ordinal()];
+        int score = taper(middlegame(balance), endgame(balance), board.phase);
+        return (board.getTurnColor() == Color.WHITE) ? score : -score;
+    }
+
+    /**
+     * Returns the evaluation with mobility added
+     * @param board position to evaluate
+     * @param moves number of legal moves of the side to move
+     * @param opponentMoves number of legal moves of its opponent
+     * @return score in centipawns, positive if the side to move is ahead
+     */
+    public static int evaluate(Board board, int moves, int opponentMoves) {
+        return evaluate(board) + MOBILITY * (moves - opponentMoves);
+    }
+
+    /**
+     * Returns the material and piece-square balance recomputed from the bitboards, to check evaluate against
+     * @param board position to evaluate
+     * @return score in centipawns, positive if the side to move is ahead
+     */
+    public static int evaluateFully(Board board) {
+        int[] scores = computeScores(board);
+        int balance = scores[0] - scores[1];
+        int score = taper(middlegame(balance), endgame(balance), scores[2]);
+        return (board.getTurnColor() == Color.WHITE) ? score : -score;
+    }
+
+    /**
+     * Returns true if the board's running scores and phase equal a full recompute, for assertions
+     * @param board board to check
+     * @return true if every running score is right
+     */
+    static boolean scoresMatch(Board board) {
+        int[] scores = computeScores(board);
+        return board.scores[0] == scores[0] && board.scores[1] == scores[1] && board.phase == scores[2];
+    }
+
+    /**
+     * Sums the values of every piece on the board
+     * @return white and black packed scores, then the phase
+     */
+    private static int[] computeScores(Board board) {
+        int[] scores = new int[3];
+        for (int index = 0; index < 12; index++) {
+            for (long pieces = board.bitboards[index]; pieces != 0; pieces &= pieces - 1) {
+                scores[index / 6] += score(index, Bitboards.lowestSquare(pieces));
+                scores[2] += phase(index);
+            }
+        }
+        return scores;
+    }
+
+    /**
+     * Blends middlegame and endgame scores, all middlegame at MAX_PHASE and all endgame at 0
+     */
+    private static int taper(int middlegame, int endgame, int phase) {
+        //Promotions can take the phase past its starting value
+        phase = Math.min(phase, MAX_PHASE);
+        return (middlegame * phase + endgame * (MAX_PHASE - phase)) / MAX_PHASE;
+    }
+
+    /**
+     * Returns the material and piece-square value of a piece on a square
+     * @param index Board.bitboardIndex of the piece
+     * @param square square of the piece
+     * @return packed middlegame and endgame value for the piece's own side
+     */
+    static int score(int index, int square) { return SCORES[index << 6 | square]; }
+
+    /**
+     * Returns how much a piece counts towards the game phase
+     * @param index Board.bitboardIndex of the piece
+     * @return 0 for pawns and kings, up to 4 for a queen
+     */
+    static int phase(int index) { return INDEX_PHASES[index]; }
+
+    /**
+     * Packs a middlegame and an endgame score into one int, the endgame half in the high 16 bits. Sums and
+     * differences of packed scores are the packed sums and differences, as long as each half stays within a short
+     * @param middlegame middlegame score
+     * @param endgame endgame score
+     * @return packed score
+     */
+    static int pack(int middlegame, int endgame) { return (endgame << 16) + middlegame; }
+
+    /**
+     * Returns the middlegame half of a packed score
+     * @param packed packed score
+     * @return middlegame score
+     */
+    static int middlegame(int packed) { return (short) packed; }
+
+    /**
+     * Returns the endgame half of a packed score, rounding up for the borrow a negative middlegame half takes
+     * @param packed packed score
+     * @return endgame score
+     */
+    static int endgame(int packed) { return (packed + 0x8000) >> 16; }
+
+    /**
+     * Returns the value of a piece type
+     * @param pieceType piece type
+     * @return value in centipawns, 0 for the king
+     */
+    public static int value(PieceType pieceType) { return VALUES[pieceType.ordinal()]; }
+
+    public static void main(String[] args) {
+        Board board = (args.length > 0) ? Board.fromFen(String.join(" ", args)) : new Board();
+        PieceLogic logic = new PieceLogic();
+        int[] moves = new int[Move.MAX_MOVES];
+        int count = logic.generateLegalMoves(board, board.getTurnColor(), moves);
+        Color opponent = (board.getTurnColor() == Color.WHITE) ? Color.BLACK : Color.WHITE;
+        int opponentCount = logic.generateLegalMoves(board, opponent, moves);
+        int white = Color.WHITE.ordinal();
+        int black = Color.BLACK.ordinal();
+        System.out.println("Middlegame   " + middlegame(board.scores[white]) + " - " + middlegame(board.scores[black]));
+        System.out.println("Endgame      " + endgame(board.scores[white]) + " - " + endgame(board.scores[black]));
+        System.out.println("Phase        " + board.phase + " of " + MAX_PHASE);
+        System.out.println("Pieces       " + evaluate(board) + ", recomputed " + evaluateFully(board)
+                           + (scoresMatch(board) ? ", matches" : ", DIFFERS"));
+        System.out.println("Mobility     " + count + " - " + opponentCount + " moves");
+        System.out.println("Evaluation   " + evaluate(board, count, opponentCount) + " for " + board.getTurnColor());
+    }
+}
@@ -0,0 +1,197 @@
+/**
+ * State of one game: the board, whose turn it is and whether the side to move is in check, checkmated or
+ * stalemated. Front ends only read and play moves through it, the terminal game in Chess and the connections
+ * of GameServer alike. The legal moves of the side to move are generated once after every move and kept, and so
+ * are the per piece move lists the terminal game shows. A game is played by one thread at a time, other threads
+ * read its position through getSnapshot
+ */
+public class Game {
+    private final Board board;
+    private final PieceLogic logic = new PieceLogic();
+    private final int[] legalMoves = new int[Move.MAX_MOVES]; //Legal moves of the side to move
+    private int legalMoveCount;
+    private boolean check; //True if the side to move is in check
+    private boolean checkmate; //True if the side to move is in check and has no legal move
+    private boolean stalemate; //True if the side to move is not in check and has no legal move
+    private volatile PositionSnapshot snapshot; //Position after the last move, for readers on other threads
+
+    /**
+     * Constructor for a game from the starting position
+     */
+    public Game() { this(new Board()); }
+
+    /**
+     * Constructor for a game from a position
+     * @param board position to start from, played on by the game from then on
+     */
+    public Game(Board board) {
+        this.board = board;
+        reset();
+    }
+
+    /**
+     * Starts over from the starting position
+     */
+    public void newGame() { setFen("rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1"); }
+
+    /**
+     * Starts over from a position
+     * @param fen position in Forsyth-Edwards Notation
+     * @throws IllegalArgumentException if fen is not a valid position, the game is unchanged
+     */
+    public void setFen(CharSequence fen) {
+        try {
+            board.setFen(fen);
+        } catch (IllegalArgumentException e) {
+            //Put back the position after the last move, so a bad FEN leaves the game as it was
+            board.setSnapshot(snapshot);
+            reset();
+            throw e;
+        }
+        reset();
+    }
+
+    /**
+     * Recalculates every piece's moves and the status after the board was set up
+     */
+    private void reset() {
+        for (Piece piece : board.getPieces()) logic.calculatePossibleMoves(piece, board);
+        updateStatus();
+    }
+
+    /**
+     * Plays a legal move and works out the new status
+     * @param move packed move, one of the legal moves of the side to move
+     * @throws IllegalArgumentException if move is not legal or the game is over
+     */
+    public void makeMove(int move) {
+        if (!isLegal(move)) throw new IllegalArgumentException("Illegal move " + Move.toString(move));
+        board.makeMove(move);
+        //After piece is moved recalculate the possible moves the move could have changed
+        logic.updatePossibleMoves(board, check);
+        updateStatus();
+    }
+
+    /**
+     * Works out check, checkmate and stalemate for the side to move and prunes the piece move lists to match
+     */
+    private void updateStatus() {
+        Color turnColor = board.getTurnColor();
+        //Remove move into check squares for both kings
+        logic.moveIntoCheck(board, board.getColorKing(Color.WHITE));
+        logic.moveIntoCheck(board, board.getColorKing(Color.BLACK));
+        check = logic.inCheck(board, turnColor);
+        //If in check, remove moves from pieces that don't cover check
+        if (check) logic.removeIllegalMoves(board, board.getColorKing(turnColor));
+        legalMoveCount = logic.generateLegalMoves(board, turnColor, legalMoves);
+        checkmate = check && legalMoveCount == 0;
+        stalemate = !check && legalMoveCount == 0;
+        snapshot = board.snapshot();
+    }
+
+    /**
+     * Returns true if a move is one of the legal moves of the side to move
+     * @param move packed move
+     * @return true if move is legal
+     */
+    public boolean isLegal(int move) {
+        for (int i = 0; i < legalMoveCount; i++) {
+            if (legalMoves[i] == move) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Finds the legal move between two squares
+     * @param from square moved from
+     * @param to square moved to
+     * @param promotion piece type a pawn promotes to, null if not a promotion
+     * @return packed move, Move.NONE if no legal move matches
+     */
+    public int findMove(int from, int to, PieceType promotion) {
+        for (int i = 0; i < legalMoveCount; i++) {
+            int move = legalMoves[i];
+            if (Move.from(move) == from && Move.to(move) == to && Move.promotion(move) == promotion) return move;
+        }
+        return Move.NONE;
+    }
+
+    /**
+     * Finds the legal move written in coordinate notation
+     * @param text move, ex. e2e4 or e7e8q
+     * @return packed move, Move.NONE if text is not a legal move
+     */
+    public int findMove(CharSequence text) {
+        for (int i = 0; i < legalMoveCount; i++) {
+            if (Move.matches(legalMoves[i], text, 0, text.length())) return legalMoves[i];
+        }
+        return Move.NONE;
+    }
+
+    /**
+     * Returns one of the legal moves of the side to move
+     * @param index index of the move, below getLegalMoveCount
+     * @return packed move
+     */
+    public int getLegalMove(int index) { return legalMoves[index]; }
+
+    /**
+     * Returns the number of legal moves of the side to move
+     * @return number of legal moves, 0 if the game is over
+     */
+    public int getLegalMoveCount() { return legalMoveCount; }
+
+    /**
+     * Returns the board the game is played on. It must only be changed through the game, though a search may
+     * play moves on it as long as it takes them back
+     * @return board
+     */
+    public Board getBoard() { return board; }
+
+    /**
+     * Returns the position after the last move. Unlike the board, it can be read from any thread while the game
+     * goes on, without locking
+     * @return immutable snapshot of the position
+     */
+    public PositionSnapshot getSnapshot() { return snapshot; }
+
+    /**
+     * Returns the color whose turn it is
+     * @return color of the side to move
+     */
+    public Color getTurnColor() { return board.getTurnColor(); }
+
+    /**
+     * Returns true if the side to move is in check
+     * @return true if in check, checkmate included
+     */
+    public boolean isCheck() { return check; }
+
+    /**
+     * Returns true if the side to move is checkmated
+     * @return true if checkmate
+     */
+    public boolean isCheckmate() { return checkmate; }
+
+    /**
+     * Returns true if the side to move has no legal move and is not in check
+     * @return true if stalemate
+     */
+    public boolean isStalemate() { return stalemate; }
+
+    /**
+     * Returns true if the side to move has no legal move
+     * @return true if checkmate or stalemate
+     */
+    public boolean isOver() { return legalMoveCount == 0; }
+
+    /**
+     * Returns the status of the side to move as one word
+     * @return "checkmate", "stalemate", "check" or "playing"
+     */
+    public String getStatus() {
+        if (checkmate) return "checkmate";
+        if (stalemate) return "stalemate";
+        return check ? "check" : "playing";
+    }
+}
@@ -0,0 +1,325 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Reads game record files written by GameRecordWriter, one game at a time in order or any game by number.
+ * Each game is replayed through a Board as it is decoded.
+ *
+ * File layout, all numbers big-endian:
+ *   header     MAGIC, then the move encoding as an int and 4 reserved bytes
+ *   blocks     int byte length of the rest of the block, int game count (BLOCK_GAMES except in the last block),
+ *              an int offset per game from the end of the offsets, then the games
+ *   index      long file offset of each block
+ *   footer     long file offset of the index, long number of games
+ * Each game is a flags byte (result in bits 0-1 as in PgnReplay, START_POSITION in bit 2), the number of plies as
+ * a varint, the starting FEN as a varint length and ASCII characters if the flag is set, then the moves:
+ *   ENCODING_INDEX  each move's index in PieceLogic.generateLegalMoves, in just enough bits to count the legal
+ *                   moves (none if there is only one), packed high bit first and padded to a byte at the end.
+ *                   Smallest, but tied to the order the move generator lists moves in
+ *   ENCODING_CODE   two bytes per move: from square, to square << 6 and promotion piece type ordinal plus one << 12.
+ *                   Decoded without generating moves, so the moves are trusted to be legal
+ *
+ * Usage:
+ *   java GameRecordReader file [game]  decode every game and report the speed, or print the moves of one game
+ */
+public class GameRecordReader implements AutoCloseable {
+    public static final int ENCODING_INDEX = 0;
+    public static final int ENCODING_CODE = 1;
+    static final byte[] MAGIC = "CHESSGR1".getBytes(StandardCharsets.US_ASCII);
+    static final int HEADER_BYTES = 16;
+    static final int FOOTER_BYTES = 16;
+    static final int BLOCK_GAMES = 256; //Games in every block but the last
+    static final int RESULT_MASK = 3;
+    static final int START_POSITION = 4; //Flag set when the game has a starting FEN
+    private static final String START_FEN = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+    private static final PieceType[] PIECE_TYPES = PieceType.values(); //Cached because values() copies the array
+
+    private final FileChannel channel;
+    private final int encoding;
+    private final long gameCount;
+    private final long[] blockOffsets;
+    private final PieceLogic logic = new PieceLogic();
+    private final int[] legalMoves = new int[Move.MAX_MOVES];
+    private ByteBuffer block = ByteBuffer.allocate(1 << 16); //Block being read, grown for larger blocks
+    private int loadedBlock = -1; //Index of the block in block, -1 if none
+    private int blockGames; //Games in the loaded block
+    private long nextGame; //Game next returns
+    private int[] moves = new int[256]; //Moves of the last game read
+    private int plies;
+    private int result;
+    private PgnReplay.MoveListener listener; //Told about each move before it is played, null if none
+
+    /**
+     * Constructor for GameRecordReader class, reads the header and the block index
+     * @param path file written by GameRecordWriter
+     * @throws IOException if the file can't be read or isn't a game record file
+     */
+    public GameRecordReader(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = read(0, HEADER_BYTES);
+            byte[] magic = new byte[MAGIC.length];
+            header.get(magic);
+            if (!Arrays.equals(magic, MAGIC)) throw new IOException(path + " is not a game record file");
+            encoding = header.getInt();
+            ByteBuffer footer = read(channel.size() - FOOTER_BYTES, FOOTER_BYTES);
+            long indexOffset = footer.getLong();
+            gameCount = footer.getLong();
+            int blocks = (int) ((gameCount + BLOCK_GAMES - 1) / BLOCK_GAMES);
+            ByteBuffer index = read(indexOffset, blocks * 8);
+            blockOffsets = new long[blocks];
+            for (int i = 0; i < blocks; i++) blockOffsets[i] = index.getLong();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads bytes at an offset into a new buffer
+     */
+    private ByteBuffer read(long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        readFully(buffer, offset);
+        return buffer.flip();
+    }
+
+    /**
+     * Fills a buffer from the channel starting at an offset
+     */
+    private void readFully(ByteBuffer buffer, long offset) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) throw new EOFException("Game record file is truncated");
+        }
+    }
+
+    /**
+     * Reads the next game in the file and replays it on a board
+     * @param board board to replay on, left in the game's final position
+     * @return false if every game has been read
+     * @throws IOException if the file can't be read
+     */
+    public boolean next(Board board) throws IOException {
+        if (nextGame >= gameCount) return false;
+        int blockIndex = (int) (nextGame / BLOCK_GAMES);
+        int slot = (int) (nextGame % BLOCK_GAMES);
+        if (blockIndex != loadedBlock) loadBlock(blockIndex);
+        block.position(8 + blockGames * 4 + block.getInt(8 + slot * 4));
+        decode(board);
+        nextGame++;
+        return true;
+    }
+
+    /**
+     * Reads one game by number and replays it on a board, next then goes on from the game after it
+     * @param game number of the game, from 0
+     * @param board board to replay on, left in the game's final position
+     * @throws IOException if the file can't be read
+     */
+    public void read(long game, Board board) throws IOException {
+        if (game < 0 || game >= gameCount) throw new IndexOutOfBoundsException("No game " + game + " in " + gameCount);
+        nextGame = game;
+        next(board);
+    }
+
+    /**
+     * Reads a whole block into the block buffer
+     * @param blockIndex index of the block
+     */
+    private void loadBlock(int blockIndex) throws IOException {
+        ByteBuffer length = read(blockOffsets[blockIndex], 4);
+        int bytes = length.getInt() + 4;
+        if (block.capacity() < bytes) block = ByteBuffer.allocate(Math.max(bytes, block.capacity() * 2));
+        block.clear().limit(bytes);
+        readFully(block, blockOffsets[blockIndex]);
+        blockGames = block.getInt(4);
+        loadedBlock = blockIndex;
+    }
+
+    /**
+     * Decodes the game at the block buffer's position
+     * @param board board to replay on
+     */
+    private void decode(Board board) {
+        int flags = block.get() & 0xFF;
+        result = flags & RESULT_MASK;
+        plies = readVarint();
+        if ((flags & START_POSITION) != 0) {
+            int length = readVarint();
+            board.setFen(new AsciiView(block, block.position(), length));
+            block.position(block.position() + length);
+        }
+        else board.setFen(START_FEN);
+        if (moves.length < plies) moves = new int[Math.max(plies, moves.length * 2)];
+        if (encoding == ENCODING_CODE) decodeCodes(board);
+        else decodeIndexes(board);
+    }
+
+    /**
+     * Decodes moves stored as indexes into the legal move list
+     */
+    private void decodeIndexes(Board board) {
+        int bits = 0; //Bits of the current byte not yet used
+        int current = 0;
+        for (int ply = 0; ply < plies; ply++) {
+            int count = logic.generateLegalMoves(board, board.getTurnColor(), legalMoves);
+            int width = 32 - Integer.numberOfLeadingZeros(count - 1);
+            int index = 0;
+            for (int i = 0; i < width; i++) {
+                if (bits == 0) {
+                    current = block.get() & 0xFF;
+                    bits = 8;
+                }
+                index = index << 1 | (current >>> --bits & 1);
+            }
+            int move = legalMoves[index];
+            if (listener != null) listener.onMove(board, move, ply);
+            board.makeMove(move);
+            moves[ply] = move;
+        }
+    }
+
+    /**
+     * Decodes moves stored as 16 bit codes, adding the flags a generated move would have
+     */
+    private void decodeCodes(Board board) {
+        for (int ply = 0; ply < plies; ply++) {
+            int code = block.getShort() & 0xFFFF;
+            int from = code & 63;
+            int to = code >>> 6 & 63;
+            PieceType promotion = (code >>> 12 == 0) ? null : PIECE_TYPES[(code >>> 12) - 1];
+            int move = Move.of(from, to, flags(board, from, to), promotion);
+            if (listener != null) listener.onMove(board, move, ply);
+            board.makeMove(from, to, promotion);
+            moves[ply] = move;
+        }
+    }
+
+    /**
+     * Works out the flags PieceLogic gives a move
+     * @param board position the move is played in
+     * @param from square moved from
+     * @param to square moved to
+     * @return any of Move.CAPTURE, EN_PASSANT, CASTLE and DOUBLE_PUSH
+     */
+    private static int flags(Board board, int from, int to) {
+        Piece piece = board.getPieceAt(from);
+        if ((board.getOccupancy() & Bitboards.bit(to)) != 0) return Move.CAPTURE;
+        if (piece.pieceType == PieceType.PAWN) {
+            if (to == board.getEnPassantSquare()) return Move.CAPTURE | Move.EN_PASSANT;
+            if (Math.abs(to - from) == 16) return Move.DOUBLE_PUSH;
+        }
+        if (piece.pieceType == PieceType.KING && Math.abs(to - from) == 2) return Move.CASTLE;
+        return 0;
+    }
+
+    /**
+     * Reads an unsigned varint, seven bits per byte low bits first, high bit set on every byte but the last
+     */
+    private int readVarint() {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = block.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+    }
+
+    /**
+     * Sets a listener told about every move as it is decoded
+     * @param listener listener to call, null for none
+     */
+    void setMoveListener(PgnReplay.MoveListener listener) { this.listener = listener; }
+
+    /**
+     * Returns the number of games in the file
+     * @return game count
+     */
+    public long getGameCount() { return gameCount; }
+
+    /**
+     * Returns how moves are stored in the file
+     * @return ENCODING_INDEX or ENCODING_CODE
+     */
+    public int getEncoding() { return encoding; }
+
+    /**
+     * Returns the number of moves in the last game read
+     * @return ply count
+     */
+    public int getPlies() { return plies; }
+
+    /**
+     * Returns a move of the last game read
+     * @param ply index of the move, below getPlies
+     * @return packed move
+     */
+    public int getMove(int ply) { return moves[ply]; }
+
+    /**
+     * Returns the result of the last game read
+     * @return one of PgnReplay's RESULT_ constants
+     */
+    public int getResult() { return result; }
+
+    @Override
+    public void close() throws IOException { channel.close(); }
+
+    /**
+     * Read only view of ASCII bytes in a buffer, so a starting FEN is parsed without copying it into a String
+     */
+    private static class AsciiView implements CharSequence {
+        private final ByteBuffer buffer;
+        private final int start;
+        private final int length;
+
+        AsciiView(ByteBuffer buffer, int start, int length) {
+            this.buffer = buffer;
+            this.start = start;
+            this.length = length;
+        }
+
+        @Override
+        public int length() { return length; }
+
+        @Override
+        public char charAt(int index) { return (char) (buffer.get(start + index) & 0xFF); }
+
+        @Override
+        public CharSequence subSequence(int from, int to) { return new AsciiView(buffer, start + from, to - from); }
+
+        @Override
+        public String toString() { return new StringBuilder(this).toString(); }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: java GameRecordReader file [game]");
+            return;
+        }
+        Board board = new Board();
+        try (GameRecordReader reader = new GameRecordReader(Paths.get(args[0]))) {
+            if (args.length > 1) {
+                reader.read(Long.parseLong(args[1]), board);
+                StringBuilder line = new StringBuilder();
+                for (int ply = 0; ply < reader.getPlies(); ply++) line.append(Move.toString(reader.getMove(ply))).append(' ');
+                System.out.println(line.append(PgnReplay.RESULT_NAMES[reader.getResult()]));
+                return;
+            }
+            long start = System.nanoTime();
+            long plies = 0;
+            while (reader.next(board)) plies += reader.getPlies();
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf(Locale.ROOT, "%,d games, %,d moves in %.2f s, %,.0f moves/s%n",
+                    reader.getGameCount(), plies, seconds, plies / seconds);
+        }
+    }
+}
@@ -0,0 +1,249 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Writes games to a game record file, see GameRecordReader for the layout. Games are streamed in one move at a
+ * time and replayed through a Board as they are encoded, so every move is checked to be legal. Games are
+ * gathered into blocks in memory, and the block index is written when the writer is closed
+ *
+ * Usage:
+ *   java GameRecordWriter [--codes] out games.pgn...   convert PGN games, stored as legal move indexes unless
+ *                                                      --codes asks for 16 bit move codes
+ */
+public class GameRecordWriter implements AutoCloseable {
+    private static final String START_FEN = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+
+    private final DataOutputStream out;
+    private final int encoding;
+    private final Board board = new Board(); //Position of the game being written
+    private final PieceLogic logic = new PieceLogic();
+    private final int[] legalMoves = new int[Move.MAX_MOVES];
+    private final Bytes game = new Bytes(); //Moves of the game being written
+    private final Bytes blockGames = new Bytes(); //Games of the block being filled
+    private int[] gameOffsets = new int[GameRecordReader.BLOCK_GAMES]; //Offset of each game in blockGames
+    private int blockCount; //Games in the block being filled
+    private long[] blockOffsets = new long[64]; //File offset of each block written
+    private int blocks;
+    private long offset; //Bytes written to the file
+    private long gameCount;
+    private String startFen; //Starting position of the game being written, null for the standard one
+    private int plies; //Moves in the game being written
+    private int bits; //Bits of the last byte of game not yet used, for ENCODING_INDEX
+    private boolean inGame; //True between startGame and endGame
+
+    /**
+     * Constructor for GameRecordWriter class, creates or replaces the file
+     * @param path file to write
+     * @param encoding GameRecordReader.ENCODING_INDEX or ENCODING_CODE
+     * @throws IOException if the file can't be written
+     */
+    public GameRecordWriter(Path path, int encoding) throws IOException {
+        if (encoding != GameRecordReader.ENCODING_INDEX && encoding != GameRecordReader.ENCODING_CODE) {
+            throw new IllegalArgumentException("Unknown move encoding " + encoding);
+        }
+        this.encoding = encoding;
+        out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16));
+        out.write(GameRecordReader.MAGIC);
+        out.writeInt(encoding);
+        out.writeInt(0);
+        offset = GameRecordReader.HEADER_BYTES;
+    }
+
+    /**
+     * Starts a new game
+     * @param fen starting position, null for the standard one
+     * @throws IllegalArgumentException if fen is not a valid position
+     */
+    public void startGame(String fen) {
+        if (inGame) throw new IllegalStateException("The previous game wasn't ended");
+        startFen = (fen == null || fen.equals(START_FEN)) ? null : fen;
+        board.setFen((startFen == null) ? START_FEN : startFen);
+        game.length = 0;
+        plies = 0;
+        bits = 0;
+        inGame = true;
+    }
+
+    /**
+     * Adds the next move of the game and plays it
+     * @param move packed move, legal in the game's current position
+     * @throws IllegalArgumentException if move is not legal
+     */
+    public void addMove(int move) {
+        if (!inGame) throw new IllegalStateException("No game started");
+        int count = logic.generateLegalMoves(board, board.getTurnColor(), legalMoves);
+        int index = 0;
+        while (index < count && !Move.sameSquares(legalMoves[index], move)) index++;
+        if (index == count) throw new IllegalArgumentException("Illegal move " + Move.toString(move) + " in " + board.toFen());
+        if (encoding == GameRecordReader.ENCODING_CODE) {
+            PieceType promotion = Move.promotion(move);
+            int code = Move.from(move) | Move.to(move) << 6 | ((promotion == null) ? 0 : promotion.ordinal() + 1) << 12;
+            game.add(code >>> 8);
+            game.add(code);
+        }
+        else writeBits(index, 32 - Integer.numberOfLeadingZeros(count - 1));
+        board.makeMove(legalMoves[index]);
+        plies++;
+    }
+
+    /**
+     * Appends bits to the game's moves, high bit first
+     * @param value bits to write in the low width bits
+     * @param width number of bits
+     */
+    private void writeBits(int value, int width) {
+        for (int i = width - 1; i >= 0; i--) {
+            if (bits == 0) {
+                game.add(0);
+                bits = 8;
+            }
+            game.bytes[game.length - 1] |= (byte) ((value >>> i & 1) << --bits);
+        }
+    }
+
+    /**
+     * Ends the game and adds it to the block being filled, writing the block out once it is full
+     * @param result one of PgnReplay's RESULT_ constants
+     * @throws IOException if the file can't be written
+     */
+    public void endGame(int result) throws IOException {
+        if (!inGame) throw new IllegalStateException("No game started");
+        inGame = false;
+        gameOffsets[blockCount++] = blockGames.length;
+        blockGames.add((result & GameRecordReader.RESULT_MASK) | ((startFen != null) ? GameRecordReader.START_POSITION : 0));
+        blockGames.addVarint(plies);
+        if (startFen != null) {
+            byte[] fen = startFen.getBytes(StandardCharsets.US_ASCII);
+            blockGames.addVarint(fen.length);
+            blockGames.add(fen, fen.length);
+        }
+        blockGames.add(game.bytes, game.length);
+        gameCount++;
+        if (blockCount == GameRecordReader.BLOCK_GAMES) writeBlock();
+    }
+
+    /**
+     * Writes a whole game
+     * @param fen starting position, null for the standard one
+     * @param moves packed moves of the game
+     * @param count number of moves
+     * @param result one of PgnReplay's RESULT_ constants
+     * @throws IOException if the file can't be written
+     */
+    public void writeGame(String fen, int[] moves, int count, int result) throws IOException {
+        startGame(fen);
+        for (int i = 0; i < count; i++) addMove(moves[i]);
+        endGame(result);
+    }
+
+    /**
+     * Writes the block being filled and starts a new one
+     */
+    private void writeBlock() throws IOException {
+        if (blocks == blockOffsets.length) blockOffsets = Arrays.copyOf(blockOffsets, blocks * 2);
+        blockOffsets[blocks++] = offset;
+        int length = 4 + blockCount * 4 + blockGames.length;
+        out.writeInt(length);
+        out.writeInt(blockCount);
+        for (int i = 0; i < blockCount; i++) out.writeInt(gameOffsets[i]);
+        out.write(blockGames.bytes, 0, blockGames.length);
+        offset += 4 + length;
+        blockGames.length = 0;
+        blockCount = 0;
+    }
+
+    /**
+     * Returns the number of games ended so far
+     * @return game count
+     */
+    public long getGameCount() { return gameCount; }
+
+    /**
+     * Writes the last block, the block index and the footer, and closes the file
+     * @throws IOException if the file can't be written
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (blockCount > 0) writeBlock();
+            long indexOffset = offset;
+            for (int i = 0; i < blocks; i++) out.writeLong(blockOffsets[i]);
+            out.writeLong(indexOffset);
+            out.writeLong(gameCount);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Growable byte array
+     */
+    private static class Bytes {
+        byte[] bytes = new byte[1 << 12];
+        int length;
+
+        void add(int b) {
+            if (length == bytes.length) bytes = Arrays.copyOf(bytes, length * 2);
+            bytes[length++] = (byte) b;
+        }
+
+        void add(byte[] source, int count) {
+            if (length + count > bytes.length) bytes = Arrays.copyOf(bytes, Math.max(length + count, length * 2));
+            System.arraycopy(source, 0, bytes, length, count);
+            length += count;
+        }
+
+        //Seven bits per byte, low bits first, high bit set on every byte but the last
+        void addVarint(int value) {
+            while ((value & ~0x7F) != 0) {
+                add((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            add(value);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int encoding = GameRecordReader.ENCODING_INDEX;
+        int i = 0;
+        if (i < args.length && args[i].equals("--codes")) {
+            encoding = GameRecordReader.ENCODING_CODE;
+            i++;
+        }
+        if (args.length - i < 2) {
+            System.out.println("Usage: java GameRecordWriter [--codes] out games.pgn...");
+            return;
+        }
+        long start = System.nanoTime();
+        long skipped = 0;
+        PgnReplay replayer = new PgnReplay();
+        int[][] moves = { new int[256] };
+        replayer.setMoveListener((board, move, ply) -> {
+            if (ply == moves[0].length) moves[0] = Arrays.copyOf(moves[0], ply * 2);
+            moves[0][ply] = move;
+        });
+        try (GameRecordWriter writer = new GameRecordWriter(Paths.get(args[i]), encoding)) {
+            for (int file = i + 1; file < args.length; file++) {
+                try (PgnReader reader = new PgnReader(Paths.get(args[file]))) {
+                    CharSequence game;
+                    while ((game = reader.next()) != null) {
+                        if (replayer.replay(game) == PgnReplay.ILLEGAL) {
+                            skipped++;
+                            continue;
+                        }
+                        writer.writeGame(replayer.getStartFen(), moves[0], replayer.getPlies(), replayer.getResult());
+                    }
+                }
+            }
+            System.out.printf(Locale.ROOT, "%,d games written, %,d illegal games skipped in %.2f s%n",
+                    writer.getGameCount(), skipped, (System.nanoTime() - start) / 1e9);
+        }
+    }
+}
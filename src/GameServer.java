@@ -0,0 +1,317 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.file.Paths;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Headless server hosting one Game per TCP connection. Each connection is served by its own thread, a virtual
+ * thread on Java 21 and later, so blocking reads cost no platform thread and one server can hold tens of thousands
+ * of games. Computer moves share one transposition table and a fixed set of Search objects, one per core, run on
+ * a pool of platform threads of the same size, so games waiting for a search queue for a searcher instead of all
+ * searching at once and a busy server tells clients so rather than keeping them waiting for good.
+ *
+ * The protocol is one ASCII line per request and exactly one line per reply:
+ *   new                        start over from the starting position            ok playing
+ *   fen [FEN]                  print the position, or start over from FEN       FEN, or ok STATUS
+ *   moves                      list the legal moves                             moves e2e4 d2d4 ...
+ *   move MOVE                  play a move in coordinate notation, ex. e7e8q    ok STATUS, or illegal MOVE
+ *   go [depth N] [movetime M]  let the computer play the side to move           bestmove MOVE STATUS
+ *                              depth is capped at 32 and movetime at 10000 ms, and a search stops after
+ *                              10000 ms whatever the limits. Replies "error server busy" if no searcher
+ *                              is free within 5 s
+ *   quit                       close the connection
+ * where STATUS is playing, check, checkmate or stalemate for the side to move. Anything else gets "error REASON"
+ *
+ * Usage:
+ *   java GameServer [--port N] [--hash MB] [--tb dir]
+ */
+public class GameServer implements AutoCloseable {
+    public static final int DEFAULT_PORT = 7878;
+    private static final int MAX_LINE = 256; //Longest request line, FENs are under 100 characters
+    private static final int DEFAULT_MOVETIME = 1000; //Search time for go without limits, in milliseconds
+    private static final int MAX_DEPTH = 32; //Deepest search a client can ask for
+    private static final int MAX_MOVETIME = 10_000; //Longest search a client can ask for, and the limit of a depth only search
+    private static final int SEARCHER_WAIT = 5_000; //Time go waits for an idle searcher before replying busy, in milliseconds
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService connections = newThreadPerTaskExecutor();
+    private final BlockingQueue<Search> searches; //Idle searchers, taken for the length of one go
+    private final ExecutorService searchThreads; //Platform threads the searches run on, one per searcher
+
+    /**
+     * Constructor for GameServer class, binds the port but doesn't accept connections until serve is called
+     * @param port port to listen on, 0 for any free port
+     * @param hash size of the shared transposition table in megabytes
+     * @param tablebases endgame tables for the computer, null if none
+     * @throws IOException if the port can't be bound
+     */
+    public GameServer(int port, int hash, Tablebases tablebases) throws IOException {
+        //A long backlog so a burst of clients connecting at once isn't refused
+        serverSocket = new ServerSocket(port, 4096, InetAddress.getLoopbackAddress());
+        TranspositionTable table = new TranspositionTable(hash);
+        int threads = Runtime.getRuntime().availableProcessors();
+        searches = new ArrayBlockingQueue<>(threads);
+        //Searching is CPU bound, so it runs on platform threads rather than tying up the carriers of the connections
+        searchThreads = Executors.newFixedThreadPool(threads);
+        for (int i = 0; i < threads; i++) {
+            Search search = new Search(table);
+            search.setTablebases(tablebases);
+            searches.add(search);
+        }
+    }
+
+    /**
+     * Returns an executor that runs each task on a new virtual thread. Looked up by reflection so the rest of the
+     * project still builds on older Java versions, which get a cached pool of platform threads instead
+     * @return executor with a thread per task
+     */
+    static ExecutorService newThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * Returns the port the server listens on
+     * @return local port
+     */
+    public int getPort() { return serverSocket.getLocalPort(); }
+
+    /**
+     * Accepts connections until the server is closed, each one is served on its own thread
+     */
+    public void serve() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                connections.execute(() -> handle(socket));
+            } catch (IOException e) {
+                if (serverSocket.isClosed()) return;
+                System.err.println("Accept failed: " + e.getMessage());
+                //Usually out of file descriptors, give open connections a moment to close instead of spinning
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Plays one game over a connection until the client quits or disconnects
+     * @param socket connection to serve
+     */
+    private void handle(Socket socket) {
+        Game game = new Game();
+        StringBuilder line = new StringBuilder(MAX_LINE);
+        StringBuilder reply = new StringBuilder(MAX_LINE);
+        byte[] buffer = new byte[MAX_LINE];
+        byte[] output = new byte[MAX_LINE * 8]; //Reply bytes, long enough for the moves of any position
+        try (socket) {
+            //Replies are one small write each, so don't hold them back waiting to fill a packet
+            socket.setTcpNoDelay(true);
+            InputStream in = socket.getInputStream();
+            OutputStream out = socket.getOutputStream();
+            int length = 0; //Bytes read into buffer
+            int position = 0; //Next byte of buffer to look at
+            while (true) {
+                //Read up to the next newline, a line longer than MAX_LINE is cut off and gets an error reply
+                line.setLength(0);
+                boolean ended = false;
+                while (!ended) {
+                    if (position == length) {
+                        length = in.read(buffer);
+                        position = 0;
+                        if (length < 0) return;
+                    }
+                    char c = (char) (buffer[position++] & 0xFF);
+                    if (c == '\n') ended = true;
+                    else if (c != '\r' && line.length() <= MAX_LINE) line.append(c);
+                }
+                reply.setLength(0);
+                if (!execute(game, line, reply)) return;
+                reply.append('\n');
+                if (reply.length() > output.length) output = new byte[reply.length()];
+                for (int i = 0; i < reply.length(); i++) output[i] = (byte) reply.charAt(i);
+                out.write(output, 0, reply.length());
+            }
+        } catch (SocketException e) {
+            //Client went away mid-line, nothing to clean up beyond the socket
+        } catch (IOException e) {
+            System.err.println("Connection failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Runs one request against a game
+     * @param game game of the connection
+     * @param line request line without the newline
+     * @param reply builder the reply line is appended to, without the newline
+     * @return false if the client asked to quit
+     */
+    boolean execute(Game game, CharSequence line, StringBuilder reply) {
+        if (line.length() > MAX_LINE) {
+            reply.append("error line too long");
+            return true;
+        }
+        String request = line.toString().trim();
+        int space = request.indexOf(' ');
+        String command = (space < 0) ? request : request.substring(0, space);
+        String argument = (space < 0) ? "" : request.substring(space + 1).trim();
+        int mark = reply.length();
+        try {
+            switch (command) {
+                case "new":
+                    game.newGame();
+                    reply.append("ok ").append(game.getStatus());
+                    break;
+                case "fen":
+                    if (argument.isEmpty()) {
+                        reply.append(game.getBoard().toFen());
+                        break;
+                    }
+                    try {
+                        game.setFen(argument);
+                        reply.append("ok ").append(game.getStatus());
+                    } catch (IllegalArgumentException e) {
+                        reply.append("error ").append(e.getMessage());
+                    }
+                    break;
+                case "moves":
+                    reply.append("moves");
+                    for (int i = 0; i < game.getLegalMoveCount(); i++) reply.append(' ').append(Move.toString(game.getLegalMove(i)));
+                    break;
+                case "move":
+                    int move = game.findMove(argument);
+                    if (move == Move.NONE) {
+                        reply.append("illegal ").append(argument);
+                        break;
+                    }
+                    game.makeMove(move);
+                    reply.append("ok ").append(game.getStatus());
+                    break;
+                case "go":
+                    go(game, argument, reply);
+                    break;
+                case "quit":
+                    return false;
+                case "":
+                    reply.append("error empty request");
+                    break;
+                default:
+                    reply.append("error unknown command ").append(command);
+            }
+        } catch (RuntimeException e) {
+            //A bug in the rules engine costs the client this request, not the connection
+            System.err.println("Request \"" + request + "\" failed: " + e);
+            reply.setLength(mark);
+            reply.append("error internal ").append(e);
+        }
+        return true;
+    }
+
+    /**
+     * Searches the game's position with an idle searcher on a search thread and plays the best move
+     * @param game game of the connection
+     * @param argument limits, "depth N" and "movetime M" in any order
+     * @param reply builder the reply line is appended to
+     */
+    private void go(Game game, String argument, StringBuilder reply) {
+        if (game.isOver()) {
+            reply.append("error game over");
+            return;
+        }
+        int depth = Search.MAX_PLY;
+        long movetime = 0;
+        String[] limits = argument.isEmpty() ? new String[0] : argument.split("\\s+");
+        try {
+            for (int i = 0; i + 1 < limits.length; i += 2) {
+                if (limits[i].equals("depth")) depth = Math.max(1, Math.min(MAX_DEPTH, Integer.parseInt(limits[i + 1])));
+                else if (limits[i].equals("movetime")) movetime = Math.max(1, Math.min(MAX_MOVETIME, Long.parseLong(limits[i + 1])));
+            }
+        } catch (NumberFormatException e) {
+            reply.append("error bad limit ").append(e.getMessage());
+            return;
+        }
+        if (depth == Search.MAX_PLY && movetime == 0) movetime = DEFAULT_MOVETIME;
+        else if (movetime == 0) movetime = MAX_MOVETIME;
+        Search search = null;
+        int move;
+        try {
+            search = searches.poll(SEARCHER_WAIT, TimeUnit.MILLISECONDS);
+            if (search == null) {
+                reply.append("error server busy");
+                return;
+            }
+            Search searcher = search;
+            int maxDepth = depth;
+            long timeMillis = movetime;
+            Future<Search.Result> result = searchThreads.submit(() -> {
+                try {
+                    return searcher.search(game.getBoard(), maxDepth, timeMillis);
+                } finally {
+                    searches.add(searcher);
+                }
+            });
+            move = result.get().getBestMove();
+            if (move == Move.NONE) {
+                reply.append("error no move found");
+                return;
+            }
+        } catch (InterruptedException e) {
+            //The server is closing, stop the search so its thread is free
+            if (search != null) search.stop();
+            Thread.currentThread().interrupt();
+            reply.append("error interrupted");
+            return;
+        } catch (ExecutionException e) {
+            reply.append("error search failed ").append(e.getCause());
+            return;
+        }
+        game.makeMove(move);
+        reply.append("bestmove ").append(Move.toString(move)).append(' ').append(game.getStatus());
+    }
+
+    /**
+     * Stops accepting connections and closes the open ones
+     * @throws IOException if the server socket can't be closed
+     */
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        connections.shutdownNow();
+        searchThreads.shutdownNow();
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = DEFAULT_PORT;
+        int hash = 64;
+        Tablebases tablebases = null;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--port": port = Integer.parseInt(args[i + 1]); break;
+                case "--hash": hash = Integer.parseInt(args[i + 1]); break;
+                case "--tb": tablebases = Search.openTablebases(Paths.get(args[i + 1])); break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        try (GameServer server = new GameServer(port, hash, tablebases)) {
+            System.out.println("Serving games on port " + server.getPort());
+            server.serve();
+        }
+    }
+}
@@ -0,0 +1,237 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Load generator for GameServer. Opens many connections at once, each on its own thread, and has every one play
+ * random legal moves as fast as the server answers, starting a new game when one ends. The round trip of each
+ * request is timed and the percentiles are printed per request type once every client is done, so the figures
+ * include queueing behind the other games as well as the work of the request itself. With --depth the server
+ * plays one side of every game with "go depth N", which puts searches in the mix.
+ * Without --port a server is started in the same JVM on a free port. Every connection holds a file descriptor at
+ * both ends, so tens of thousands of clients need a higher open file limit (ulimit -n)
+ *
+ * Usage:
+ *   java LoadGenerator [--clients N] [--moves N] [--depth N] [--port N] [--seed N]
+ */
+public class LoadGenerator {
+    private static final int MAX_GAME_PLIES = 200; //Games still going after this many plies are started over
+    private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+    private final int port;
+    private final int moves; //Moves each client plays, its own and the server's
+    private final int depth; //Search depth of the server's moves, 0 if the client plays both sides
+    private final CountDownLatch connected; //Counted down by each client once its connection is open
+    private final CountDownLatch start = new CountDownLatch(1); //Released once every client is connected
+    private final AtomicInteger errors = new AtomicInteger();
+
+    /**
+     * Constructor for LoadGenerator class
+     * @param port port of the server on this machine
+     * @param clients number of connections
+     * @param moves moves each client plays
+     * @param depth search depth of the server's moves, 0 for none
+     */
+    LoadGenerator(int port, int clients, int moves, int depth) {
+        this.port = port;
+        this.moves = moves;
+        this.depth = depth;
+        connected = new CountDownLatch(clients);
+    }
+
+    /**
+     * Timings of one request type, filled by one client and merged when all are done
+     */
+    static class Latencies {
+        private long[] nanos = new long[64];
+        private int count;
+
+        /**
+         * Adds a round trip time
+         * @param elapsed time in nanoseconds
+         */
+        void add(long elapsed) {
+            if (count == nanos.length) nanos = Arrays.copyOf(nanos, count * 2);
+            nanos[count++] = elapsed;
+        }
+
+        /**
+         * Adds every time of another set
+         * @param other times to add
+         */
+        void addAll(Latencies other) {
+            if (count + other.count > nanos.length) nanos = Arrays.copyOf(nanos, Math.max(count + other.count, count * 2));
+            System.arraycopy(other.nanos, 0, nanos, count, other.count);
+            count += other.count;
+        }
+
+        /**
+         * Prints the count and percentiles in microseconds on one line
+         * @param name request type
+         */
+        void print(String name) {
+            if (count == 0) return;
+            Arrays.sort(nanos, 0, count);
+            StringBuilder line = new StringBuilder(String.format(Locale.ROOT, "%-8s %,11d", name, count));
+            for (double percentile : PERCENTILES) {
+                int index = (int) Math.ceil(percentile / 100 * count) - 1;
+                line.append(String.format(Locale.ROOT, " %10.1f", nanos[Math.max(0, index)] / 1e3));
+            }
+            line.append(String.format(Locale.ROOT, " %10.1f", nanos[count - 1] / 1e3));
+            System.out.println(line);
+        }
+    }
+
+    /**
+     * Plays one client's moves over its own connection
+     * @param seed seed of the client's random moves
+     * @return timings by request type: moves, move and go
+     * @throws IOException if the connection fails
+     * @throws InterruptedException if interrupted while waiting for the other clients
+     */
+    Latencies[] runClient(long seed) throws IOException, InterruptedException {
+        Latencies[] latencies = { new Latencies(), new Latencies(), new Latencies() };
+        SplittableRandom random = new SplittableRandom(seed);
+        Socket connection;
+        try {
+            connection = new Socket(InetAddress.getLoopbackAddress(), port);
+        } finally {
+            //Counted even if connecting failed, so the run doesn't wait for a client that will never come
+            connected.countDown();
+        }
+        try (Socket socket = connection) {
+            socket.setTcpNoDelay(true);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII), 2048);
+            OutputStream out = socket.getOutputStream();
+            start.await();
+            request(in, out, "new", null);
+            int plies = 0;
+            for (int played = 0; played < moves; played++) {
+                String reply;
+                if (depth > 0 && plies % 2 == 1) {
+                    reply = request(in, out, "go depth " + depth, latencies[2]);
+                    if (!reply.startsWith("bestmove ")) throw unexpected("go", reply);
+                }
+                else {
+                    String[] legal = request(in, out, "moves", latencies[0]).split(" ");
+                    String move = legal[1 + random.nextInt(legal.length - 1)];
+                    reply = request(in, out, "move " + move, latencies[1]);
+                    if (!reply.startsWith("ok ")) throw unexpected("move " + move, reply);
+                }
+                plies++;
+                if (reply.endsWith("mate") || plies == MAX_GAME_PLIES) {
+                    request(in, out, "new", null);
+                    plies = 0;
+                }
+            }
+            request(in, out, "quit", null);
+        }
+        return latencies;
+    }
+
+    /**
+     * Sends a request and waits for its reply
+     * @param in reader of the connection
+     * @param out stream of the connection
+     * @param request request line without the newline
+     * @param latencies timings to add the round trip to, null to not time it
+     * @return reply line, "" after quit
+     * @throws IOException if the connection fails
+     */
+    private static String request(BufferedReader in, OutputStream out, String request, Latencies latencies) throws IOException {
+        long start = System.nanoTime();
+        out.write((request + "\n").getBytes(StandardCharsets.US_ASCII));
+        if (request.equals("quit")) return "";
+        String reply = in.readLine();
+        if (latencies != null) latencies.add(System.nanoTime() - start);
+        if (reply == null) throw new IOException("Server closed the connection");
+        return reply;
+    }
+
+    /**
+     * Returns the error for a reply a client didn't expect
+     */
+    private static IOException unexpected(String request, String reply) {
+        return new IOException("Unexpected reply to " + request + ": " + reply);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int clients = 1000;
+        int moves = 200;
+        int depth = 0;
+        int port = 0;
+        long seed = 1;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--clients": clients = Integer.parseInt(args[i + 1]); break;
+                case "--moves": moves = Integer.parseInt(args[i + 1]); break;
+                case "--depth": depth = Integer.parseInt(args[i + 1]); break;
+                case "--port": port = Integer.parseInt(args[i + 1]); break;
+                case "--seed": seed = Long.parseLong(args[i + 1]); break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        GameServer server = null;
+        if (port == 0) {
+            server = new GameServer(0, 16, null);
+            port = server.getPort();
+            Thread serverThread = new Thread(server::serve, "server");
+            serverThread.setDaemon(true);
+            serverThread.start();
+        }
+
+        LoadGenerator generator = new LoadGenerator(port, clients, moves, depth);
+        ExecutorService executor = GameServer.newThreadPerTaskExecutor();
+        List<Future<Latencies[]>> results = new ArrayList<>(clients);
+        for (int i = 0; i < clients; i++) {
+            long clientSeed = seed * 1_000_003 + i;
+            results.add(executor.submit(() -> generator.runClient(clientSeed)));
+        }
+        if (!generator.connected.await(60, TimeUnit.SECONDS)) {
+            System.out.println("Clients didn't all connect within 60 s, " + generator.connected.getCount() + " left");
+        }
+        long begin = System.nanoTime();
+        generator.start.countDown();
+        Latencies[] totals = { new Latencies(), new Latencies(), new Latencies() };
+        for (Future<Latencies[]> result : results) {
+            try {
+                Latencies[] latencies = result.get();
+                for (int i = 0; i < totals.length; i++) totals[i].addAll(latencies[i]);
+            } catch (ExecutionException e) {
+                if (generator.errors.getAndIncrement() == 0) System.out.println("Client failed: " + e.getCause());
+            }
+        }
+        double seconds = (System.nanoTime() - begin) / 1e9;
+        executor.shutdown();
+        if (server != null) server.close();
+
+        long played = totals[1].count + totals[2].count;
+        System.out.printf(Locale.ROOT, "%,d clients, %,d moves in %.2f s, %,.0f moves/s, %d failed clients%n%n",
+                clients, played, seconds, played / seconds, generator.errors.get());
+        StringBuilder header = new StringBuilder(String.format(Locale.ROOT, "%-8s %11s", "request", "count"));
+        for (double percentile : PERCENTILES) {
+            String label = (percentile == (int) percentile) ? "p" + (int) percentile : "p" + percentile;
+            header.append(String.format(Locale.ROOT, " %10s", label));
+        }
+        header.append(String.format(Locale.ROOT, " %10s", "max"));
+        System.out.println(header + "   (microseconds)");
+        totals[0].print("moves");
+        totals[1].print("move");
+        totals[2].print("go");
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ * Static helpers for moves packed into an int, so move lists can live in reusable int[] buffers.
+ * Bits 0-5 hold the from square, bits 6-11 the to square, bits 12-15 the flags below and bits 16-18 the promotion
+ * piece type ordinal plus one (0 if the move doesn't promote). No legal move is 0, so 0 means "no move"
+ */
+public class Move {
+    public static final int NONE = 0;
+    public static final int MAX_MOVES = 256; //Buffer length that holds the moves of any position, the most known is 218
+    public static final int CAPTURE = 1 << 12; //Move captures a piece, including en passant
+    public static final int EN_PASSANT = 1 << 13; //Pawn captures en passant
+    public static final int CASTLE = 1 << 14; //King castles, the rook moves too
+    public static final int DOUBLE_PUSH = 1 << 15; //Pawn moves two squares forward
+    private static final int PROMOTION_SHIFT = 16;
+    private static final PieceType[] PIECE_TYPES = PieceType.values(); //Cached because values() copies the array
+
+    /**
+     * Packs a move
+     * @param from square moved from
+     * @param to square moved to
+     * @param flags any of CAPTURE, EN_PASSANT, CASTLE and DOUBLE_PUSH
+     * @param promotion piece type a pawn promotes to, null if not a promotion
+     * @return packed move
+     */
+    public static int of(int from, int to, int flags, PieceType promotion) {
+        int move = from | to << 6 | flags;
+        if (promotion != null) move |= (promotion.ordinal() + 1) << PROMOTION_SHIFT;
+        return move;
+    }
+
+    /**
+     * Returns the square a move starts from
+     * @param move packed move
+     * @return from square
+     */
+    public static int from(int move) { return move & 63; }
+
+    /**
+     * Returns the square a move ends on
+     * @param move packed move
+     * @return to square
+     */
+    public static int to(int move) { return move >>> 6 & 63; }
+
+    /**
+     * Returns the piece type a move promotes to
+     * @param move packed move
+     * @return promotion piece type, null if the move doesn't promote
+     */
+    public static PieceType promotion(int move) {
+        int promotion = move >>> PROMOTION_SHIFT & 7;
+        return (promotion == 0) ? null : PIECE_TYPES[promotion - 1];
+    }
+
+    /**
+     * Returns true if a move has a flag set
+     * @param move packed move
+     * @param flag one of CAPTURE, EN_PASSANT, CASTLE and DOUBLE_PUSH
+     * @return true if the flag is set
+     */
+    public static boolean is(int move, int flag) { return (move & flag) != 0; }
+
+    /**
+     * Returns a move in coordinate notation
+     * @param move packed move
+     * @return from and to squares followed by a promotion letter if any, ex. e2e4 or e7e8q
+     */
+    public static String toString(int move) {
+        PieceType promotion = promotion(move);
+        String suffix = (promotion == null) ? "" : String.valueOf(promotionLetter(promotion));
+        return Position.of(from(move)).toString() + Position.of(to(move)) + suffix;
+    }
+
+    /**
+     * Returns true if two moves have the same squares and promotion, whatever their flags, so a move made up from
+     * squares alone matches the generated one
+     * @param move packed move
+     * @param other packed move to compare with
+     * @return true if the moves are the same apart from flags
+     */
+    public static boolean sameSquares(int move, int other) {
+        return from(move) == from(other) && to(move) == to(other) && promotion(move) == promotion(other);
+    }
+
+    /**
+     * Returns true if some characters are a move in coordinate notation, compared without allocating
+     * @param move packed move
+     * @param text characters holding the move, ex. e2e4 or e7e8q
+     * @param start index of the first character
+     * @param end index just past the last character
+     * @return true if the characters name the move's squares and promotion
+     */
+    public static boolean matches(int move, CharSequence text, int start, int end) {
+        PieceType promotion = promotion(move);
+        if (end - start != ((promotion == null) ? 4 : 5)) return false;
+        int from = from(move);
+        int to = to(move);
+        if (text.charAt(start) != 'a' + (from & 7) || text.charAt(start + 1) != '1' + (from >>> 3)) return false;
+        if (text.charAt(start + 2) != 'a' + (to & 7) || text.charAt(start + 3) != '1' + (to >>> 3)) return false;
+        return promotion == null || Character.toLowerCase(text.charAt(start + 4)) == promotionLetter(promotion);
+    }
+
+    /**
+     * Returns the letter coordinate notation writes after a promotion
+     * @param promotion piece type promoted to
+     * @return lower case letter, ex. q for a queen
+     */
+    private static char promotionLetter(PieceType promotion) {
+        switch (promotion) {
+            case ROOK: return 'r';
+            case BISHOP: return 'b';
+            case KNIGHT: return 'n';
+            default: return 'q';
+        }
+    }
+}
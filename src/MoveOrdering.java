@@ -0,0 +1,248 @@
+import java.util.Arrays;
+
+/**
+ * Move ordering for Search. Scores each move of a list from PieceLogic so the moves most likely to cause a cutoff
+ * are tried first: the transposition table move, then captures and promotions that don't lose material by static
+ * exchange evaluation, most valuable victim and least valuable attacker first, then killer moves, the counter move
+ * to the opponent's last move, quiet moves by history, and captures that lose material last. Killers, history and
+ * counter moves are learned from cutoffs as the search goes, so each Search has its own MoveOrdering
+ */
+public class MoveOrdering {
+    //Features, each can be turned off to measure what it saves
+    public static final int HASH_MOVE = 1;
+    public static final int MVV_LVA = 2;
+    public static final int STATIC_EXCHANGE = 4; //Losing captures go after quiet moves and are skipped in quiescence
+    public static final int KILLERS = 8;
+    public static final int COUNTER_MOVES = 16;
+    public static final int HISTORY = 32;
+    public static final int ALL = HASH_MOVE | MVV_LVA | STATIC_EXCHANGE | KILLERS | COUNTER_MOVES | HISTORY;
+
+    //Scores of each kind of move, every band above anything the bands below it can score
+    private static final int HASH_SCORE = 1 << 30;
+    private static final int GOOD_CAPTURE_SCORE = 1 << 28;
+    private static final int KILLER_SCORE = 1 << 26; //Plus one for the most recent killer
+    private static final int COUNTER_SCORE = 1 << 25;
+    private static final int HISTORY_LIMIT = 1 << 24; //History scores are halved once one reaches this
+    private static final int BAD_CAPTURE_SCORE = -(1 << 28);
+    //Piece types in the order static exchange evaluation captures with them, least valuable first
+    private static final PieceType[] ATTACKER_ORDER = { PieceType.PAWN, PieceType.KNIGHT, PieceType.BISHOP,
+                                                        PieceType.ROOK, PieceType.QUEEN, PieceType.KING };
+
+    private final PieceLogic logic;
+    private final int[][] killers = new int[Search.MAX_PLY + 1][2]; //Last two quiet moves that cut off at each ply
+    private final int[] history = new int[12 * 64]; //Cutoffs weighted by depth, by Board.bitboardIndex of the mover * 64 + target square
+    private final int[] counterMoves = new int[64 * 64]; //Quiet move that last cut off after each move, by its from * 64 + to
+    private final int[] gains = new int[33]; //Scratch for static exchange evaluation, one entry per capture
+    private int features = ALL;
+
+    /**
+     * Constructor for MoveOrdering class
+     * @param logic move logic used to find the attackers of a square
+     */
+    public MoveOrdering(PieceLogic logic) {
+        this.logic = logic;
+    }
+
+    /**
+     * Sets which heuristics order moves, for measuring each one
+     * @param features any of the feature constants ORed together, ALL by default
+     */
+    public void setFeatures(int features) { this.features = features; }
+
+    /**
+     * Returns which heuristics order moves
+     * @return feature constants ORed together
+     */
+    public int getFeatures() { return features; }
+
+    /**
+     * Forgets everything learned from earlier cutoffs, called as a search starts
+     */
+    public void clear() {
+        for (int[] plyKillers : killers) Arrays.fill(plyKillers, Move.NONE);
+        Arrays.fill(history, 0);
+        Arrays.fill(counterMoves, Move.NONE);
+    }
+
+    /**
+     * Scores every move of a list, higher for moves to try earlier
+     * @param board position the moves are played in
+     * @param moves moves to score
+     * @param scores filled with the score of each move
+     * @param count number of moves
+     * @param tableMove best move stored for this position, Move.NONE if none
+     * @param ply distance from the root, for killers
+     * @param previousMove move that led to this position, Move.NONE at the root
+     */
+    public void score(Board board, int[] moves, int[] scores, int count, int tableMove, int ply, int previousMove) {
+        int counterMove = ((features & COUNTER_MOVES) != 0 && previousMove != Move.NONE) ? counterMoves[index(previousMove)] : Move.NONE;
+        int killer0 = ((features & KILLERS) != 0) ? killers[ply][0] : Move.NONE;
+        int killer1 = ((features & KILLERS) != 0) ? killers[ply][1] : Move.NONE;
+        for (int i = 0; i < count; i++) {
+            int move = moves[i];
+            int score = 0;
+            if (move == tableMove && (features & HASH_MOVE) != 0) score = HASH_SCORE;
+            else if (isTactical(move) && (features & (MVV_LVA | STATIC_EXCHANGE)) != 0) {
+                int order = ((features & MVV_LVA) != 0) ? captureOrder(board, move) : 0;
+                score = ((features & STATIC_EXCHANGE) != 0 && losesMaterial(board, move)) ? BAD_CAPTURE_SCORE + order : GOOD_CAPTURE_SCORE + order;
+            }
+            else if (move == killer0) score = KILLER_SCORE + 1;
+            else if (move == killer1) score = KILLER_SCORE;
+            else if (move == counterMove) score = COUNTER_SCORE;
+            else if ((features & HISTORY) != 0) score = history[historyIndex(board, move)];
+            scores[i] = score;
+        }
+    }
+
+    /**
+     * Moves the best scored move not tried yet to index and returns it, so a list is only sorted as far as
+     * the search gets before a cutoff
+     * @param moves scored moves
+     * @param scores score of each move
+     * @param index number of moves already tried
+     * @param count number of moves
+     * @return move to try next
+     */
+    public static int pick(int[] moves, int[] scores, int index, int count) {
+        int best = index;
+        for (int i = index + 1; i < count; i++) {
+            if (scores[i] > scores[best]) best = i;
+        }
+        int move = moves[best];
+        moves[best] = moves[index];
+        moves[index] = move;
+        int score = scores[best];
+        scores[best] = scores[index];
+        scores[index] = score;
+        return move;
+    }
+
+    /**
+     * Learns from a quiet move that caused a cutoff, making it a killer at this ply, the counter move to the
+     * previous move, and raising its history score by more the deeper the cutoff
+     * @param board position the move was played in
+     * @param move quiet move that cut off
+     * @param ply distance from the root
+     * @param previousMove move that led to this position, Move.NONE at the root
+     * @param depth remaining depth of the cutoff
+     */
+    public void cutoff(Board board, int move, int ply, int previousMove, int depth) {
+        if (killers[ply][0] != move) {
+            killers[ply][1] = killers[ply][0];
+            killers[ply][0] = move;
+        }
+        if (previousMove != Move.NONE) counterMoves[index(previousMove)] = move;
+        int index = historyIndex(board, move);
+        history[index] += depth * depth;
+        //Halve every score rather than let one grow into the band above, older cutoffs count for less this way
+        if (history[index] >= HISTORY_LIMIT) {
+            for (int i = 0; i < history.length; i++) history[i] >>= 1;
+        }
+    }
+
+    /**
+     * Returns true if a capture or promotion loses material once every exchange on its square is played out.
+     * Skips the exchange when the victim is worth at least the piece taking it, which can't lose. Kings count as
+     * worth nothing here, which is right since a legal king capture can't be answered
+     * @param board position the move is played in
+     * @param move packed tactical move
+     * @return true if the static exchange evaluation is negative
+     */
+    public boolean losesMaterial(Board board, int move) {
+        if (Move.promotion(move) == null && Move.is(move, Move.CAPTURE) && !Move.is(move, Move.EN_PASSANT)
+                && Evaluation.value(board.getPieceAt(Move.to(move)).pieceType) >= Evaluation.value(board.getPieceAt(Move.from(move)).pieceType)) return false;
+        return see(board, move) < 0;
+    }
+
+    /**
+     * Static exchange evaluation. Plays out the captures on a move's target square, each side taking with its least
+     * valuable attacker and free to stop when capturing again would lose, and returns the material the move wins.
+     * Sliders behind a piece that captures join in as it leaves, pins are not taken into account
+     * @param board position the move is played in
+     * @param move packed move, normally a capture or promotion
+     * @return material won in centipawns, negative if the move loses material
+     */
+    public int see(Board board, int move) {
+        int from = Move.from(move);
+        int to = Move.to(move);
+        Piece mover = board.getPieceAt(from);
+        PieceType promotion = Move.promotion(move);
+        long occupied = board.getOccupancy() ^ Bitboards.bit(from);
+        if (Move.is(move, Move.EN_PASSANT)) {
+            gains[0] = Evaluation.value(PieceType.PAWN);
+            occupied ^= Bitboards.bit(Bitboards.square(Bitboards.rankOf(from), Bitboards.fileOf(to)));
+        }
+        else gains[0] = Move.is(move, Move.CAPTURE) ? Evaluation.value(board.getPieceAt(to).pieceType) : 0;
+        if (promotion != null) gains[0] += Evaluation.value(promotion) - Evaluation.value(PieceType.PAWN);
+        //Value of the piece on the target square, the next one taken
+        int onSquare = Evaluation.value((promotion != null) ? promotion : mover.pieceType);
+
+        long diagonal = board.getBitboard(Color.WHITE, PieceType.BISHOP) | board.getBitboard(Color.BLACK, PieceType.BISHOP)
+                      | board.getBitboard(Color.WHITE, PieceType.QUEEN) | board.getBitboard(Color.BLACK, PieceType.QUEEN);
+        long straight = board.getBitboard(Color.WHITE, PieceType.ROOK) | board.getBitboard(Color.BLACK, PieceType.ROOK)
+                      | board.getBitboard(Color.WHITE, PieceType.QUEEN) | board.getBitboard(Color.BLACK, PieceType.QUEEN);
+        long attackers = (logic.attackersTo(board, to, Color.WHITE, occupied) | logic.attackersTo(board, to, Color.BLACK, occupied)) & occupied;
+        Color side = mover.color;
+        int depth = 0;
+        while (true) {
+            side = (side == Color.WHITE) ? Color.BLACK : Color.WHITE;
+            long own = attackers & board.getColorOccupancy(side);
+            if (own == 0) break;
+            PieceType type = null;
+            long attacker = 0;
+            for (PieceType candidate : ATTACKER_ORDER) {
+                attacker = own & board.getBitboard(side, candidate);
+                if (attacker != 0) {
+                    type = candidate;
+                    break;
+                }
+            }
+            //A king can't take on a square the other side still attacks
+            if (type == PieceType.KING && (attackers & ~own) != 0) break;
+            depth++;
+            gains[depth] = onSquare - gains[depth - 1];
+            onSquare = Evaluation.value(type);
+            occupied ^= attacker & -attacker;
+            attackers |= (Bitboards.bishopAttacks(to, occupied) & diagonal) | (Bitboards.rookAttacks(to, occupied) & straight);
+            attackers &= occupied;
+        }
+        //Each side picks the better of capturing and stopping, from the last capture back to the first
+        for (; depth > 0; depth--) gains[depth - 1] = -Math.max(-gains[depth - 1], gains[depth]);
+        return gains[0];
+    }
+
+    /**
+     * Returns the most valuable victim, least valuable attacker order of a capture or promotion
+     * @param board position the move is played in
+     * @param move packed tactical move
+     * @return higher for moves to try earlier
+     */
+    private static int captureOrder(Board board, int move) {
+        int to = Move.to(move);
+        //En passant captures a pawn not standing on the target square
+        int victim = Move.is(move, Move.EN_PASSANT) ? Evaluation.value(PieceType.PAWN)
+                   : Move.is(move, Move.CAPTURE) ? Evaluation.value(board.getPieceAt(to).pieceType) : 0;
+        if (Move.promotion(move) != null) victim += Evaluation.value(Move.promotion(move));
+        return victim * 16 - Evaluation.value(board.getPieceAt(Move.from(move)).pieceType) / 100;
+    }
+
+    /**
+     * Returns the history table index of a move, by the piece moving and where it goes
+     */
+    private static int historyIndex(Board board, int move) {
+        Piece piece = board.getPieceAt(Move.from(move));
+        return Board.bitboardIndex(piece.color, piece.pieceType) << 6 | Move.to(move);
+    }
+
+    /**
+     * Returns the counter move table index of a move, by its squares
+     */
+    private static int index(int move) { return Move.from(move) << 6 | Move.to(move); }
+
+    /**
+     * Returns true if a move captures or promotes
+     * @param move packed move
+     * @return true if the move changes material
+     */
+    static boolean isTactical(int move) { return Move.is(move, Move.CAPTURE) || Move.promotion(move) != null; }
+}
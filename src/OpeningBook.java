@@ -0,0 +1,372 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+/**
+ * Opening book read straight from a memory mapped file of entries sorted by position key, so a probe is a binary
+ * search of the file and opening a book of any size costs nothing up front. The file starts with a 16 byte header of
+ * MAGIC and the number of entries, then each 16 byte entry holds a Zobrist key, a packed move and a weight.
+ * Entries are sorted by key, and entries with the same key by weight with the heaviest first.
+ * A book is not thread safe, probes share a move buffer
+ *
+ * Usage:
+ *   java OpeningBook build book.bin [--plies N] [--min-games N] file.pgn ...
+ *       build a book from the first N plies (default 24) of every legal game, keeping moves played in at least
+ *       --min-games games (default 1). Wins count 2 towards a move's weight, draws and unknown results 1, losses 0
+ *   java OpeningBook probe book.bin [fen]
+ *       list the book moves of a position, from the start position by default, and time probes
+ */
+public class OpeningBook implements AutoCloseable {
+    static final long MAGIC = 0x4348455353424B31L; //"CHESSBK1"
+    private static final int HEADER_BYTES = 16;
+    private static final int ENTRY_BYTES = 16;
+    private static final int CHUNK_SHIFT = 26; //Entries per mapped chunk as a power of two, 1 GB chunks
+    private static final int MAX_BOOK_MOVES = 64; //Most moves read for one position, more than any position has
+
+    private final FileChannel channel;
+    private final MappedByteBuffer[] chunks; //Mapped entries, entry i is in chunk i >>> CHUNK_SHIFT
+    private final long count; //Number of entries
+    private final PieceLogic logic = new PieceLogic();
+    private final int[] legalMoves = new int[Move.MAX_MOVES]; //Legal moves of the probed position
+    private final int[] bookMoves = new int[MAX_BOOK_MOVES];
+    private final int[] bookWeights = new int[MAX_BOOK_MOVES];
+    private final SplittableRandom random = new SplittableRandom();
+
+    /**
+     * Opens a book file
+     * @param path book file written by build
+     * @throws IOException if the file can't be read or isn't a book
+     */
+    public OpeningBook(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        while (header.hasRemaining() && channel.read(header) != -1) { }
+        header.flip();
+        if (header.remaining() < HEADER_BYTES || header.getLong() != MAGIC) {
+            channel.close();
+            throw new IOException(path + " is not an opening book");
+        }
+        count = header.getLong();
+        if (channel.size() != HEADER_BYTES + count * ENTRY_BYTES) {
+            channel.close();
+            throw new IOException(path + " is truncated");
+        }
+        chunks = new MappedByteBuffer[(int) ((count + (1L << CHUNK_SHIFT) - 1) >>> CHUNK_SHIFT)];
+        for (int c = 0; c < chunks.length; c++) {
+            long first = (long) c << CHUNK_SHIFT;
+            long entries = Math.min(1L << CHUNK_SHIFT, count - first);
+            chunks[c] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES + first * ENTRY_BYTES, entries * ENTRY_BYTES);
+        }
+    }
+
+    /**
+     * Picks a book move for a position at random, each move chosen in proportion to its weight.
+     * Moves that aren't legal, which can only happen when two positions share a key, are never returned
+     * @param board position to look up
+     * @return packed legal move, Move.NONE if the position isn't in the book
+     */
+    public int probe(Board board) {
+        int found = getMoves(board.getZobristKey(), bookMoves, bookWeights);
+        if (found == 0) return Move.NONE;
+        long total = 0;
+        for (int i = 0; i < found; i++) total += bookWeights[i];
+        int legalCount = -1; //Legal moves are only generated once a move is picked
+        while (total > 0) {
+            long pick = random.nextLong(total);
+            int i = 0;
+            while (pick >= bookWeights[i]) pick -= bookWeights[i++];
+            if (legalCount == -1) legalCount = logic.generateLegalMoves(board, board.getTurnColor(), legalMoves);
+            if (contains(legalMoves, legalCount, bookMoves[i])) return bookMoves[i];
+            //Key collision, drop the move and pick again
+            total -= bookWeights[i];
+            bookWeights[i] = 0;
+        }
+        return Move.NONE;
+    }
+
+    /**
+     * Reads the book entries of a position key, heaviest first
+     * @param key Zobrist key of the position
+     * @param moves filled with the packed moves
+     * @param weights filled with the weight of each move
+     * @return number of entries read, at most the length of moves
+     */
+    public int getMoves(long key, int[] moves, int[] weights) {
+        //Binary search for the first entry with the key
+        long low = 0;
+        long high = count;
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+            if (key(middle) < key) low = middle + 1;
+            else high = middle;
+        }
+        int found = 0;
+        for (long i = low; i < count && found < moves.length && key(i) == key; i++) {
+            moves[found] = move(i);
+            weights[found] = weight(i);
+            found++;
+        }
+        return found;
+    }
+
+    /**
+     * Returns the number of entries in the book
+     * @return number of entries
+     */
+    public long size() { return count; }
+
+    @Override
+    public void close() throws IOException { channel.close(); }
+
+    private long key(long entry) { return chunk(entry).getLong(offset(entry)); }
+
+    private int move(long entry) { return chunk(entry).getInt(offset(entry) + 8); }
+
+    private int weight(long entry) { return chunk(entry).getInt(offset(entry) + 12); }
+
+    private MappedByteBuffer chunk(long entry) { return chunks[(int) (entry >>> CHUNK_SHIFT)]; }
+
+    private static int offset(long entry) { return (int) (entry & ((1L << CHUNK_SHIFT) - 1)) * ENTRY_BYTES; }
+
+    private static boolean contains(int[] moves, int count, int move) {
+        for (int i = 0; i < count; i++) {
+            if (moves[i] == move) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Builds a book from PGN files. Illegal games are skipped
+     * @param pgns PGN files to read
+     * @param out book file to write
+     * @param maxPlies number of plies to take from the start of each game
+     * @param minGames fewest games a move must be played in to be kept
+     * @return number of entries written
+     * @throws IOException if a file can't be read or written
+     */
+    public static long build(List<Path> pgns, Path out, int maxPlies, int minGames) throws IOException {
+        Builder builder = new Builder(maxPlies);
+        PgnReplay replayer = new PgnReplay();
+        replayer.setMoveListener(builder);
+        for (Path pgn : pgns) {
+            try (PgnReader reader = new PgnReader(pgn)) {
+                CharSequence game;
+                while ((game = reader.next()) != null) {
+                    builder.gamePlies = 0;
+                    if (replayer.replay(game) != PgnReplay.ILLEGAL) builder.addGame(replayer.getResult());
+                }
+            }
+        }
+        return builder.write(out, minGames);
+    }
+
+    /**
+     * Counts games and points for every position and move seen, in an open addressing hash table
+     */
+    private static class Builder implements PgnReplay.MoveListener {
+        private final int maxPlies;
+        private final long[] gameKeys; //Key of each position of the current game
+        private final int[] gameMoves; //Move played in each position of the current game
+        private final boolean[] gameWhite; //True if white played the move
+        int gamePlies; //Plies of the current game recorded
+
+        private long[] keys = new long[1 << 16];
+        private int[] moves = new int[1 << 16]; //Move.NONE marks an empty slot
+        private int[] games = new int[1 << 16]; //Games the move was played in
+        private int[] points = new int[1 << 16]; //2 per win, 1 per draw or unknown result, 0 per loss
+        private int size; //Slots in use
+
+        Builder(int maxPlies) {
+            this.maxPlies = maxPlies;
+            gameKeys = new long[maxPlies];
+            gameMoves = new int[maxPlies];
+            gameWhite = new boolean[maxPlies];
+        }
+
+        @Override
+        public void onMove(Board board, int move, int ply) {
+            if (ply >= maxPlies) return;
+            gameKeys[ply] = board.getZobristKey();
+            gameMoves[ply] = move;
+            gameWhite[ply] = board.getTurnColor() == Color.WHITE;
+            gamePlies = ply + 1;
+        }
+
+        /**
+         * Adds the recorded moves of a game to the table
+         * @param result one of the PgnReplay.RESULT constants
+         */
+        void addGame(int result) {
+            for (int ply = 0; ply < gamePlies; ply++) {
+                int score = 1;
+                if (result == PgnReplay.RESULT_WHITE_WINS) score = gameWhite[ply] ? 2 : 0;
+                else if (result == PgnReplay.RESULT_BLACK_WINS) score = gameWhite[ply] ? 0 : 2;
+                if (size * 2 >= keys.length) grow();
+                int slot = find(keys, moves, gameKeys[ply], gameMoves[ply]);
+                if (moves[slot] == Move.NONE) {
+                    keys[slot] = gameKeys[ply];
+                    moves[slot] = gameMoves[ply];
+                    size++;
+                }
+                games[slot]++;
+                points[slot] += score;
+            }
+        }
+
+        /**
+         * Returns the slot holding a position and move, or the empty slot where it belongs
+         */
+        private static int find(long[] keys, int[] moves, long key, int move) {
+            int mask = keys.length - 1;
+            //Top bits of the hash, as many as the table needs, so large tables spread over every slot
+            int slot = (int) ((key ^ move * 0x9E3779B97F4A7C15L) >>> (64 - Integer.numberOfTrailingZeros(keys.length)));
+            while (moves[slot] != Move.NONE && (keys[slot] != key || moves[slot] != move)) slot = (slot + 1) & mask;
+            return slot;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            int[] oldMoves = moves;
+            int[] oldGames = games;
+            int[] oldPoints = points;
+            keys = new long[oldKeys.length * 2];
+            moves = new int[keys.length];
+            games = new int[keys.length];
+            points = new int[keys.length];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldMoves[i] == Move.NONE) continue;
+                int slot = find(keys, moves, oldKeys[i], oldMoves[i]);
+                keys[slot] = oldKeys[i];
+                moves[slot] = oldMoves[i];
+                games[slot] = oldGames[i];
+                points[slot] = oldPoints[i];
+            }
+        }
+
+        /**
+         * Sorts the kept entries and writes the book file
+         * @param out book file to write
+         * @param minGames fewest games a move must be played in to be kept
+         * @return number of entries written
+         * @throws IOException if the file can't be written
+         */
+        long write(Path out, int minGames) throws IOException {
+            //Gather kept entries as key and weight << 32 | move, so sorting values descending puts heavy moves first
+            long[] entryKeys = new long[size];
+            long[] entryValues = new long[size];
+            int count = 0;
+            for (int i = 0; i < keys.length; i++) {
+                if (moves[i] == Move.NONE || games[i] < minGames || points[i] == 0) continue;
+                entryKeys[count] = keys[i];
+                entryValues[count] = (long) points[i] << 32 | moves[i];
+                count++;
+            }
+            sort(entryKeys, entryValues, 0, count - 1);
+
+            try (FileChannel channel = FileChannel.open(out, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+                buffer.putLong(MAGIC).putLong(count);
+                for (int i = 0; i < count; i++) {
+                    if (buffer.remaining() < ENTRY_BYTES) flush(channel, buffer);
+                    buffer.putLong(entryKeys[i]).putInt((int) entryValues[i]).putInt((int) (entryValues[i] >>> 32));
+                }
+                flush(channel, buffer);
+            }
+            return count;
+        }
+
+        private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) channel.write(buffer);
+            buffer.clear();
+        }
+
+        /**
+         * Sorts entries by key ascending, then value descending, with a quicksort of the two arrays together
+         * @param keys entry keys
+         * @param values entry values
+         * @param low first index to sort
+         * @param high last index to sort
+         */
+        private static void sort(long[] keys, long[] values, int low, int high) {
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                long pivotKey = keys[middle];
+                long pivotValue = values[middle];
+                int i = low;
+                int j = high;
+                while (i <= j) {
+                    while (keys[i] < pivotKey || (keys[i] == pivotKey && values[i] > pivotValue)) i++;
+                    while (keys[j] > pivotKey || (keys[j] == pivotKey && values[j] < pivotValue)) j--;
+                    if (i <= j) {
+                        long key = keys[i];
+                        keys[i] = keys[j];
+                        keys[j] = key;
+                        long value = values[i];
+                        values[i] = values[j];
+                        values[j] = value;
+                        i++;
+                        j--;
+                    }
+                }
+                //Recurse into the smaller part and loop on the larger, so the stack stays shallow
+                if (j - low < high - i) {
+                    sort(keys, values, low, j);
+                    low = i;
+                }
+                else {
+                    sort(keys, values, i, high);
+                    high = j;
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length >= 2 && args[0].equals("build")) {
+            int plies = 24;
+            int minGames = 1;
+            int i = 2;
+            for (; i + 1 < args.length && args[i].startsWith("--"); i += 2) {
+                if (args[i].equals("--plies")) plies = Integer.parseInt(args[i + 1]);
+                else if (args[i].equals("--min-games")) minGames = Integer.parseInt(args[i + 1]);
+                else throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+            List<Path> pgns = new ArrayList<>();
+            for (; i < args.length; i++) pgns.add(Paths.get(args[i]));
+            long start = System.nanoTime();
+            long entries = build(pgns, Paths.get(args[1]), plies, minGames);
+            System.out.printf(Locale.ROOT, "Wrote %,d entries to %s in %.3f s%n", entries, args[1], (System.nanoTime() - start) / 1e9);
+        }
+        else if (args.length >= 2 && args[0].equals("probe")) {
+            Board board = (args.length > 2) ? new Board(String.join(" ", List.of(args).subList(2, args.length))) : new Board();
+            try (OpeningBook book = new OpeningBook(Paths.get(args[1]))) {
+                int[] moves = new int[MAX_BOOK_MOVES];
+                int[] weights = new int[MAX_BOOK_MOVES];
+                int found = book.getMoves(board.getZobristKey(), moves, weights);
+                for (int i = 0; i < found; i++) System.out.println(Move.toString(moves[i]) + " " + weights[i]);
+                if (found == 0) System.out.println("Position not in book");
+                //Time probes once the code is warmed up
+                int probes = 1_000_000;
+                for (int i = 0; i < probes; i++) book.probe(board);
+                long start = System.nanoTime();
+                for (int i = 0; i < probes; i++) book.probe(board);
+                long nanos = System.nanoTime() - start;
+                System.out.printf(Locale.ROOT, "%,d entries, %.0f ns per probe%n", book.size(), (double) nanos / probes);
+            }
+        }
+        else {
+            System.out.println("Usage: java OpeningBook build book.bin [--plies N] [--min-games N] file.pgn ...");
+            System.out.println("       java OpeningBook probe book.bin [fen]");
+        }
+    }
+}
@@ -0,0 +1,158 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Lazy SMP search. Every thread runs its own Search of the same root, and they share nothing but the transposition
+ * table: results one thread stores cut off and order the others' searches. Every other helper starts a ply deeper
+ * than the main thread so the threads spread out over different depths. Each helper searches its own copy of the
+ * board, so no Board or Piece is ever used by two threads. The main thread's result is the one returned, and
+ * the helpers are stopped as soon as it finishes. Helper copies don't carry the game's earlier moves,
+ * so only the main thread sees repetitions of positions from before the search
+ */
+public class ParallelSearch implements AutoCloseable {
+    private final TranspositionTable table;
+    private final Search main; //Search run on the calling thread
+    private final Search[] helpers; //Searches run on the pool, one per helper thread
+    private final ExecutorService pool;
+
+    /**
+     * Constructor for ParallelSearch class
+     * @param table transposition table shared by all threads
+     * @param threads total number of threads to search with, including the calling thread
+     */
+    public ParallelSearch(TranspositionTable table, int threads) {
+        if (threads < 1) throw new IllegalArgumentException("Search needs at least 1 thread");
+        this.table = table;
+        main = new Search(table);
+        helpers = new Search[threads - 1];
+        for (int i = 0; i < helpers.length; i++) helpers[i] = new Search(table);
+        pool = Executors.newFixedThreadPool(Math.max(1, helpers.length), runnable -> {
+            Thread thread = new Thread(runnable, "search-helper");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Sets a listener told about every iteration the main thread completes, with node counts totalled over all threads
+     * @param listener listener to call, null for none
+     */
+    public void setListener(Consumer<Search.Result> listener) {
+        main.setListener((listener == null) ? null : result -> listener.accept(withTotalNodes(result)));
+    }
+
+    /**
+     * Sets the endgame tables every thread probes, see Search.setTablebases
+     * @param tablebases tables to probe, null for none
+     */
+    public void setTablebases(Tablebases tablebases) {
+        main.setTablebases(tablebases);
+        for (Search helper : helpers) helper.setTablebases(tablebases);
+    }
+
+    /**
+     * Sets the number of nodes after which searches stop, see Search.setNodeLimit. Only the main thread's nodes
+     * count towards it
+     * @param nodeLimit node count to stop at, 0 for no limit
+     */
+    public void setNodeLimit(long nodeLimit) { main.setNodeLimit(nodeLimit); }
+
+    /**
+     * Stops a running search. Safe to call from any thread
+     */
+    public void stop() { main.stop(); }
+
+    /**
+     * Finds the best move for the side to move using every thread
+     * @param board position to search, restored to the same position when the search returns
+     * @param maxDepth deepest iteration for the main thread to search
+     * @param timeMillis time limit in milliseconds, 0 for no limit
+     * @return the main thread's result, with node counts totalled over all threads
+     */
+    public Search.Result search(Board board, int maxDepth, long timeMillis) {
+        main.clearStop();
+        return iterate(board, maxDepth, timeMillis);
+    }
+
+    /**
+     * Clears an earlier stop, see Search.clearStop
+     */
+    void clearStop() { main.clearStop(); }
+
+    /**
+     * Runs a search without clearing an earlier stop, so a caller handing the search to another thread can clear
+     * it first with clearStop and a stop sent before that thread starts isn't lost
+     * @param board position to search, restored to the same position when the search returns
+     * @param maxDepth deepest iteration for the main thread to search
+     * @param timeMillis time limit in milliseconds, 0 for no limit
+     * @return the main thread's result, with node counts totalled over all threads
+     */
+    Search.Result iterate(Board board, int maxDepth, long timeMillis) {
+        table.newSearch();
+        List<Future<?>> running = new ArrayList<>(helpers.length);
+        for (int i = 0; i < helpers.length; i++) {
+            Search helper = helpers[i];
+            Board copy = new Board(board);
+            int firstDepth = 1 + (i + 1) % 2;
+            helper.clearStop();
+            running.add(pool.submit(() -> helper.iterate(copy, firstDepth, Search.MAX_PLY, 0)));
+        }
+        Search.Result result;
+        try {
+            result = main.iterate(board, 1, maxDepth, timeMillis);
+        }
+        finally {
+            //Wait for the helpers even if the main thread failed, so they never outlive the search
+            for (Search helper : helpers) helper.stop();
+            for (Future<?> future : running) {
+                try {
+                    future.get();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                catch (ExecutionException e) {
+                    throw new IllegalStateException("Helper search failed", e.getCause());
+                }
+            }
+        }
+        return withTotalNodes(result);
+    }
+
+    /**
+     * Returns the number of nodes visited by all threads in the current or last search
+     * @return node count
+     */
+    public long getNodes() {
+        long nodes = main.getNodes();
+        for (Search helper : helpers) nodes += helper.getNodes();
+        return nodes;
+    }
+
+    /**
+     * Returns the number of threads searching, including the calling thread
+     * @return thread count
+     */
+    public int getThreads() { return helpers.length + 1; }
+
+    /**
+     * Shuts down the helper threads
+     */
+    @Override
+    public void close() { pool.shutdownNow(); }
+
+    /**
+     * Returns a copy of a main thread result with the node count of every thread
+     * @param result main thread result
+     * @return result with the total node count, null if result is null
+     */
+    private Search.Result withTotalNodes(Search.Result result) {
+        if (result == null) return null;
+        return new Search.Result(result.getDepth(), result.getScore(), result.getPv(), getNodes(), result.getNanos());
+    }
+}
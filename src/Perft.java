@@ -0,0 +1,333 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Perft (performance test) counts every leaf node of the legal move tree to a fixed depth. Comparing the counts against
+ * published reference numbers checks the move generator, and the time taken gives a nodes per second figure to track
+ *
+ * Usage:
+ *   java Perft                          run the test suite, each position to the deepest depth under --max-nodes
+ *   java Perft --depth N                run the test suite to depth N, or the deepest published depth if lower
+ *   java Perft --max-nodes N            change the node limit used to pick suite depths (default 1000000)
+ *   java Perft --threads N              count with N fork/join threads (default one per core, 1 counts on the main thread)
+ *   java Perft --hash MB                cache subtree counts in a shared hash table of MB megabytes (default off)
+ *   java Perft divide N [fen]           print the node count below each root move, from the start position by default
+ */
+public class Perft {
+    private static final String START_FEN = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+
+    //Standard positions and their published node counts, the first count is depth 1
+    private static final TestPosition[] SUITE = {
+        new TestPosition("Start position", START_FEN,
+                20L, 400L, 8902L, 197281L, 4865609L, 119060324L),
+        new TestPosition("Kiwipete", "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+                48L, 2039L, 97862L, 4085603L, 193690690L),
+        new TestPosition("Position 3", "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+                14L, 191L, 2812L, 43238L, 674624L, 11030083L),
+        new TestPosition("Position 4", "r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1",
+                6L, 264L, 9467L, 422333L, 15833292L),
+        new TestPosition("Position 5", "rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8",
+                44L, 1486L, 62379L, 2103487L, 89941194L),
+        new TestPosition("Position 6", "r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10",
+                46L, 2079L, 89890L, 3894594L, 164075551L),
+        new TestPosition("En passant discovered check", "8/8/1k6/2b5/2pP4/8/5K2/8 b - d3 0 1",
+                -1L, -1L, -1L, -1L, -1L, 1440467L),
+        new TestPosition("Illegal en passant", "3k4/3p4/8/K1P4r/8/8/8/8 b - - 0 1",
+                -1L, -1L, -1L, -1L, -1L, 1134888L),
+        new TestPosition("En passant capture checks", "8/8/1k6/8/2pP4/8/5BK1/8 b - d3 0 1",
+                -1L, -1L, -1L, -1L, -1L, 824064L),
+        new TestPosition("Short castle gives check", "5k2/8/8/8/8/8/8/4K2R w K - 0 1",
+                -1L, -1L, -1L, -1L, -1L, 661072L),
+        new TestPosition("Long castle gives check", "3k4/8/8/8/8/8/8/R3K3 w Q - 0 1",
+                -1L, -1L, -1L, -1L, -1L, 803711L),
+        new TestPosition("Castling rights", "r3k2r/1b4bq/8/8/8/8/7B/R3K2R w KQkq - 0 1",
+                -1L, -1L, -1L, 1274206L),
+        new TestPosition("Castling prevented", "r3k2r/8/3Q4/8/8/5q2/8/R3K2R b KQkq - 0 1",
+                -1L, -1L, -1L, 1720476L),
+        new TestPosition("Promote out of check", "2K2r2/4P3/8/8/8/8/8/3k4 w - - 0 1",
+                -1L, -1L, -1L, -1L, -1L, 3821001L),
+        new TestPosition("Discovered check", "8/8/1P2K3/8/2n5/1q6/8/5k2 b - - 0 1",
+                -1L, -1L, -1L, -1L, 1004658L),
+        new TestPosition("Promote to give check", "4k3/1P6/8/8/8/8/K7/8 w - - 0 1",
+                -1L, -1L, -1L, -1L, -1L, 217342L),
+        new TestPosition("Under promote to give check", "8/P1k5/K7/8/8/8/8/8 w - - 0 1",
+                -1L, -1L, -1L, -1L, -1L, 92683L),
+        new TestPosition("Self stalemate", "K1k5/8/P7/8/8/8/8/8 w - - 0 1",
+                -1L, -1L, -1L, -1L, -1L, 2217L),
+        new TestPosition("Stalemate and checkmate", "8/k1P5/8/1K6/8/8/8/8 w - - 0 1",
+                -1L, -1L, -1L, -1L, -1L, -1L, 567584L),
+        new TestPosition("Double check", "8/8/2k5/5q2/5n2/8/5K2/8 b - - 0 1",
+                -1L, -1L, -1L, 23527L),
+    };
+
+    private final PieceLogic logic = new PieceLogic();
+    private final HashTable table; //Subtree counts shared between Perft instances, null if not caching
+    private int[][] moveBuffers = new int[16][Move.MAX_MOVES]; //Legal moves at each remaining depth, reused between nodes
+
+    /**
+     * Constructor for Perft class without a hash table
+     */
+    public Perft() {
+        this(null);
+    }
+
+    /**
+     * Constructor for Perft class
+     * @param table hash table of subtree counts, may be shared between threads, null to count every subtree
+     */
+    Perft(HashTable table) {
+        this.table = table;
+    }
+
+    /**
+     * Counts the leaf nodes of the legal move tree below board
+     * @param board position to count from, played on and restored with make and unmake
+     * @param depth number of plies to search
+     * @return number of positions reached at depth
+     */
+    public long perft(Board board, int depth) {
+        if (depth == 0) return 1;
+        if (depth >= moveBuffers.length) moveBuffers = Arrays.copyOf(moveBuffers, depth + 1);
+        if (moveBuffers[depth] == null) moveBuffers[depth] = new int[Move.MAX_MOVES];
+        int[] moves = moveBuffers[depth];
+        int count = logic.generateLegalMoves(board, board.getTurnColor(), moves);
+        //Leaf moves only need to be counted, not played
+        if (depth == 1) return count;
+        long key = board.getZobristKey();
+        if (table != null) {
+            long cached = table.probe(key, depth);
+            if (cached >= 0) return cached;
+        }
+        long nodes = 0;
+        for (int i = 0; i < count; i++) {
+            board.makeMove(moves[i]);
+            nodes += perft(board, depth - 1);
+            board.unmakeMove();
+        }
+        if (table != null) table.store(key, depth, nodes);
+        return nodes;
+    }
+
+    /**
+     * Counts the leaf nodes of the legal move tree below board on a fork/join pool. The moves at the root and the
+     * ply below it become separate tasks, each counting on its own copy of the board, and any hash table is shared
+     * @param board position to count from, left unchanged
+     * @param depth number of plies to search
+     * @param pool pool to run the tasks on
+     * @return number of positions reached at depth
+     */
+    public long parallelPerft(Board board, int depth, ForkJoinPool pool) {
+        return pool.invoke(new PerftTask(new Board(board), depth, 0, table));
+    }
+
+    /**
+     * Counts the leaf nodes below each legal root move
+     * @param board position to count from, played on and restored with make and unmake
+     * @param depth number of plies to search, at least 1
+     * @return one "move: nodes" line per root move, sorted by move
+     */
+    public List<String> divide(Board board, int depth) {
+        List<String> lines = new ArrayList<>();
+        int[] moves = new int[Move.MAX_MOVES];
+        int count = logic.generateLegalMoves(board, board.getTurnColor(), moves);
+        for (int i = 0; i < count; i++) {
+            board.makeMove(moves[i]);
+            lines.add(Move.toString(moves[i]) + ": " + perft(board, depth - 1));
+            board.unmakeMove();
+        }
+        lines.sort(null);
+        return lines;
+    }
+
+    /**
+     * Runs the test suite or a divide, see the class comment for usage
+     * @param args command line arguments
+     */
+    public static void main(String[] args) {
+        if (args.length >= 2 && args[0].equals("divide")) {
+            Perft perft = new Perft();
+            String fen = (args.length > 2) ? String.join(" ", List.of(args).subList(2, args.length)) : START_FEN;
+            long start = System.nanoTime();
+            List<String> lines = perft.divide(new Board(fen), Integer.parseInt(args[1]));
+            long total = 0;
+            for (String line : lines) {
+                System.out.println(line);
+                total += Long.parseLong(line.substring(line.indexOf(": ") + 2));
+            }
+            System.out.println();
+            System.out.println("Moves: " + lines.size());
+            printResult("Nodes", total, System.nanoTime() - start);
+            return;
+        }
+
+        int maxDepth = Integer.MAX_VALUE;
+        long maxNodes = -1;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int hash = 0;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (args[i].equals("--depth")) maxDepth = Integer.parseInt(args[i + 1]);
+            else if (args[i].equals("--max-nodes")) maxNodes = Long.parseLong(args[i + 1]);
+            else if (args[i].equals("--threads")) threads = Integer.parseInt(args[i + 1]);
+            else if (args[i].equals("--hash")) hash = Integer.parseInt(args[i + 1]);
+        }
+        //A requested depth is only capped by a node limit if one was also given
+        if (maxNodes < 0) maxNodes = (maxDepth == Integer.MAX_VALUE) ? 1_000_000L : Long.MAX_VALUE;
+
+        System.out.println("Threads: " + threads + ", hash: " + ((hash > 0) ? hash + " MB" : "off"));
+        Perft perft = new Perft((hash > 0) ? new HashTable(hash) : null);
+        ForkJoinPool pool = (threads > 1) ? new ForkJoinPool(threads) : null;
+        int failures = 0;
+        long totalNodes = 0;
+        long totalNanos = 0;
+        for (TestPosition position : SUITE) {
+            int depth = position.depthFor(maxDepth, maxNodes);
+            if (depth == 0) continue;
+            long start = System.nanoTime();
+            Board board = new Board(position.fen);
+            long nodes = (pool != null) ? perft.parallelPerft(board, depth, pool) : perft.perft(board, depth);
+            long nanos = System.nanoTime() - start;
+            totalNodes += nodes;
+            totalNanos += nanos;
+            long expected = position.counts[depth - 1];
+            String verdict = (nodes == expected) ? "OK" : "FAIL, expected " + expected;
+            if (nodes != expected) failures++;
+            System.out.printf("%-28s depth %d  %,13d nodes  %8.3f s  %,12.0f nps  %s%n",
+                    position.name, depth, nodes, nanos / 1e9, nodes / (nanos / 1e9), verdict);
+        }
+        System.out.println();
+        printResult("Total", totalNodes, totalNanos);
+        if (failures > 0) {
+            System.err.println("PERFT FAILED: " + failures + " position(s) differ from the reference counts");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Prints a node count with the time taken and nodes per second
+     * @param label label to print before the count
+     * @param nodes number of nodes counted
+     * @param nanos time taken in nanoseconds
+     */
+    private static void printResult(String label, long nodes, long nanos) {
+        System.out.printf("%s: %,d nodes in %.3f s (%,.0f nps)%n", label, nodes, nanos / 1e9, nodes / (nanos / 1e9));
+    }
+
+    /**
+     * Counts the subtree below one position, splitting it into a task per move for the first SPLIT_PLIES plies
+     */
+    private static class PerftTask extends RecursiveTask<Long> {
+        private static final long serialVersionUID = 1L;
+        private static final int SPLIT_PLIES = 2; //Root moves times replies gives enough tasks to balance across cores
+        private final Board board; //Copy owned by this task
+        private final int depth;
+        private final int ply;
+        private final HashTable table;
+
+        PerftTask(Board board, int depth, int ply, HashTable table) {
+            this.board = board;
+            this.depth = depth;
+            this.ply = ply;
+            this.table = table;
+        }
+
+        @Override
+        protected Long compute() {
+            //Small subtrees aren't worth the board copies
+            if (ply >= SPLIT_PLIES || depth <= 2) return new Perft(table).perft(board, depth);
+            int[] moves = new int[Move.MAX_MOVES];
+            int count = new PieceLogic().generateLegalMoves(board, board.getTurnColor(), moves);
+            List<PerftTask> tasks = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                Board child = new Board(board);
+                child.makeMove(moves[i]);
+                tasks.add(new PerftTask(child, depth - 1, ply + 1, table));
+            }
+            long nodes = 0;
+            for (PerftTask task : invokeAll(tasks)) nodes += task.join();
+            return nodes;
+        }
+    }
+
+    /**
+     * Lock-free table of subtree counts keyed by position and depth, shared by every thread counting.
+     * Like TranspositionTable each entry is stored as the key XORed with the data and the data, so an entry torn
+     * by two threads writing at once reads as a miss. A count is trusted on a full 64-bit key match
+     */
+    static class HashTable {
+        private static final long DEPTH_MIX = 0x9E3779B97F4A7C15L; //Multiplied by depth and XORed into the key
+        private final long[] entries; //Pairs of (key ^ data, data), data is the count plus one so empty slots are 0
+        private final int mask; //Number of entries minus one
+
+        /**
+         * Constructor for HashTable class, allocates the largest power of two number of entries that fits in megabytes
+         * @param megabytes memory to use, at least 1
+         */
+        HashTable(int megabytes) {
+            if (megabytes < 1) throw new IllegalArgumentException("Perft hash table needs at least 1 MB");
+            long size = Math.min(Long.highestOneBit((long) megabytes * 1024 * 1024 / 16), 1L << 29);
+            entries = new long[(int) size * 2];
+            mask = (int) size - 1;
+        }
+
+        /**
+         * Looks up the count below a position
+         * @param key Zobrist key of the position
+         * @param depth depth counted to
+         * @return stored count, -1 if not in the table
+         */
+        long probe(long key, int depth) {
+            key ^= depth * DEPTH_MIX;
+            int index = ((int) key & mask) * 2;
+            long data = entries[index + 1];
+            return (data != 0 && (entries[index] ^ data) == key) ? data - 1 : -1;
+        }
+
+        /**
+         * Stores the count below a position, replacing whatever was in its slot
+         * @param key Zobrist key of the position
+         * @param depth depth counted to
+         * @param nodes count to store
+         */
+        void store(long key, int depth, long nodes) {
+            key ^= depth * DEPTH_MIX;
+            int index = ((int) key & mask) * 2;
+            entries[index + 1] = nodes + 1;
+            entries[index] = key ^ (nodes + 1);
+        }
+    }
+
+    /**
+     * A named position with its published perft counts, -1 where no count is published
+     */
+    private static class TestPosition {
+        final String name;
+        final String fen;
+        final long[] counts;
+
+        TestPosition(String name, String fen, long... counts) {
+            this.name = name;
+            this.fen = fen;
+            this.counts = counts;
+        }
+
+        /**
+         * Returns the deepest depth with a published count that is within both limits, or the shallowest
+         * published depth if even that is above maxNodes but within maxDepth
+         * @param maxDepth deepest depth allowed
+         * @param maxNodes largest node count allowed
+         * @return depth to run, 0 if no published depth fits
+         */
+        int depthFor(int maxDepth, long maxNodes) {
+            int depth = 0;
+            for (int i = 0; i < counts.length && i < maxDepth; i++) {
+                if (counts[i] < 0) continue;
+                if (counts[i] <= maxNodes || depth == 0) depth = i + 1;
+                if (counts[i] > maxNodes) break;
+            }
+            return depth;
+        }
+    }
+}
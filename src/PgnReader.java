@@ -0,0 +1,164 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Splits a PGN file into games. The file is memory mapped a window at a time, so files of any size can be read,
+ * and each game is returned as a view of the mapped bytes rather than a copied String. A game starts at a tag line
+ * ("[Event ...") that follows movetext, or at the first tag or movetext line of the file
+ */
+public class PgnReader implements AutoCloseable {
+    private static final long WINDOW_BYTES = 256L << 20; //Bytes mapped at once, games longer than this are rejected
+
+    private final FileChannel channel;
+    private final long size; //Length of the file in bytes
+    private MappedByteBuffer window; //Mapped part of the file, starts at windowStart
+    private long windowStart; //File offset of the first byte of window
+    private int position; //Index in window where the search for the next game starts
+    private long gameCount; //Number of games returned so far
+
+    /**
+     * Opens a file for reading
+     * @param path file to read
+     * @throws IOException if the file can't be opened
+     */
+    public PgnReader(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        size = channel.size();
+        map(0);
+    }
+
+    /**
+     * Returns the next game, from its first tag up to the start of the next game. The returned sequence keeps its
+     * own reference to the mapped bytes, so it stays valid after later calls and can be handed to another thread
+     * @return text of the next game, null at the end of the file
+     * @throws IOException if the file can't be mapped or a game is longer than the mapping window
+     */
+    public CharSequence next() throws IOException {
+        int start = findGameStart(position);
+        if (start == -1) return null;
+        int end = findGameEnd(start);
+        if (end == window.limit() && windowStart + end < size) {
+            //Game may continue past the end of the window, map a new window starting at the game
+            map(windowStart + start);
+            start = 0;
+            end = findGameEnd(0);
+            if (end == window.limit() && windowStart + end < size) {
+                throw new IOException("Game " + (gameCount + 1) + " is longer than " + WINDOW_BYTES + " bytes");
+            }
+        }
+        position = end;
+        gameCount++;
+        return new Text(window, start, end - start);
+    }
+
+    /**
+     * Returns the number of games returned by next so far, which is also the number of the last game returned
+     * @return number of games read
+     */
+    public long getGameCount() { return gameCount; }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        channel.close();
+    }
+
+    /**
+     * Returns the index of the first non-blank line at or after a line start, remapping at the end of the window
+     * @param from index of a line start in window
+     * @return index of the line start, -1 at the end of the file
+     * @throws IOException if the file can't be mapped
+     */
+    private int findGameStart(int from) throws IOException {
+        while (true) {
+            int limit = window.limit();
+            int i = from;
+            while (i < limit && isWhitespace(window.get(i))) i++;
+            if (i < limit) {
+                //Back up to the start of the line
+                while (i > from && window.get(i - 1) != '\n') i--;
+                return i;
+            }
+            if (windowStart + limit >= size) return -1;
+            map(windowStart + limit);
+            from = 0;
+        }
+    }
+
+    /**
+     * Returns the index where the game starting at a line start ends, the start of the first tag line after movetext
+     * @param start index of the first line of the game
+     * @return index of the start of the next game, the window limit if the game runs to the end of the window
+     */
+    private int findGameEnd(int start) {
+        int limit = window.limit();
+        boolean inMovetext = false;
+        int i = start;
+        while (i < limit) {
+            //i is at the start of a line
+            byte first = window.get(i);
+            if (first == '[') {
+                if (inMovetext) return i;
+            }
+            else if (!isWhitespace(first)) inMovetext = true;
+            else {
+                int j = i;
+                while (j < limit && window.get(j) != '\n' && isWhitespace(window.get(j))) j++;
+                if (j < limit && window.get(j) != '\n') {
+                    if (window.get(j) == '[' && inMovetext) return i;
+                    if (window.get(j) != '[') inMovetext = true;
+                }
+            }
+            while (i < limit && window.get(i) != '\n') i++;
+            i++;
+        }
+        return limit;
+    }
+
+    /**
+     * Maps the window starting at a file offset
+     * @param start file offset of the first byte to map
+     * @throws IOException if the file can't be mapped
+     */
+    private void map(long start) throws IOException {
+        windowStart = start;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW_BYTES, size - start));
+        position = 0;
+    }
+
+    private static boolean isWhitespace(byte b) { return b == ' ' || b == '\t' || b == '\r' || b == '\n'; }
+
+    /**
+     * Characters of part of a mapped window, each byte read as one character since PGN is ASCII (or Latin-1)
+     */
+    private static class Text implements CharSequence {
+        private final MappedByteBuffer bytes; //Window the text is in
+        private final int offset; //Index in bytes of the first character
+        private final int length; //Number of characters
+
+        Text(MappedByteBuffer bytes, int offset, int length) {
+            this.bytes = bytes;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public int length() { return length; }
+
+        @Override
+        public char charAt(int index) { return (char) (bytes.get(offset + index) & 0xff); }
+
+        @Override
+        public CharSequence subSequence(int start, int end) { return new Text(bytes, offset + start, end - start); }
+
+        @Override
+        public String toString() {
+            StringBuilder s = new StringBuilder(length);
+            for (int i = 0; i < length; i++) s.append(charAt(i));
+            return s.toString();
+        }
+    }
+}
@@ -0,0 +1,389 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Replays every game of PGN files through the rules engine and reports a verdict per game: legal, illegal at the
+ * first move that can't be played, or a result that doesn't match the moves (the Result tag disagrees with the result
+ * after the moves, or the game ends in checkmate or stalemate with a different result). Games are read in batches
+ * and replayed on a pool of worker threads, and verdicts are printed in file order whatever the number of threads.
+ * Replaying a move allocates nothing
+ *
+ * Usage:
+ *   java PgnReplay [--threads N] [--errors] file.pgn ...
+ *     --threads N    replay on N worker threads (default one per core)
+ *     --errors       only print verdicts of games that aren't legal
+ */
+public class PgnReplay {
+    private static final String START_FEN = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+    private static final int BATCH_GAMES = 256; //Games handed to a worker at once
+    private static final int BATCHES_PER_THREAD = 4; //Batches queued per worker before the reader waits for output
+
+    //Game results, as in the Result tag and at the end of the movetext
+    static final int RESULT_UNKNOWN = 0; //"*" or missing
+    static final int RESULT_WHITE_WINS = 1;
+    static final int RESULT_BLACK_WINS = 2;
+    static final int RESULT_DRAW = 3;
+    static final String[] RESULT_NAMES = {"*", "1-0", "0-1", "1/2-1/2"};
+
+    //Verdicts
+    static final int LEGAL = 0;
+    static final int ILLEGAL = 1; //A move couldn't be read or isn't legal
+    static final int RESULT_MISMATCH = 2;
+    private static final int VERDICTS = 3; //Number of verdicts
+
+    private final Board board = new Board(); //Reused for every game
+    private final PieceLogic logic = new PieceLogic();
+    private final int[] moves = new int[Move.MAX_MOVES];
+    private int plies; //Moves played in the last game replayed
+    private String startFen; //Starting position of the last game replayed, null for the standard one
+    private int failedMoveNumber; //Move number of the move that couldn't be played
+    private boolean failedByBlack; //True if that move was black's
+    private int failedStart; //Index in the game text of that move
+    private int failedEnd;
+    private int tagResult; //Result tag of the last game replayed
+    private int movetextResult; //Result at the end of the movetext of the last game replayed
+    private int finalResult; //Result forced by the final position, RESULT_UNKNOWN unless checkmate or stalemate
+    private MoveListener listener; //Told about each move before it is played, null if none
+
+    /**
+     * Receives the moves of each game as they are replayed
+     */
+    interface MoveListener {
+        /**
+         * Called before a move is played
+         * @param board position the move is played in, must be left unchanged
+         * @param move packed legal move
+         * @param ply number of moves played before this one in the game
+         */
+        void onMove(Board board, int move, int ply);
+    }
+
+    /**
+     * Replays one game from its tags and movetext. Comments, variations and NAGs are skipped, a FEN tag sets the
+     * starting position and replay stops at the first result token
+     * @param game text of the game
+     * @return LEGAL, ILLEGAL or RESULT_MISMATCH
+     */
+    int replay(CharSequence game) {
+        int length = game.length();
+        board.setFen(START_FEN);
+        startFen = null;
+        plies = 0;
+        tagResult = RESULT_UNKNOWN;
+        movetextResult = RESULT_UNKNOWN;
+        finalResult = RESULT_UNKNOWN;
+        int i = 0;
+        //Tags
+        while ((i = skipWhitespace(game, i, length)) < length && game.charAt(i) == '[') {
+            int nameStart = i + 1;
+            int nameEnd = nameStart;
+            while (nameEnd < length && game.charAt(nameEnd) > ' ') nameEnd++;
+            int valueStart = nameEnd;
+            while (valueStart < length && game.charAt(valueStart) != '"' && game.charAt(valueStart) != '\n') valueStart++;
+            int valueEnd = valueStart + 1;
+            while (valueEnd < length && game.charAt(valueEnd) != '"' && game.charAt(valueEnd) != '\n') valueEnd++;
+            if (valueEnd < length && game.charAt(valueEnd) == '"') {
+                if (matches(game, nameStart, nameEnd, "Result")) tagResult = parseResult(game, valueStart + 1, valueEnd);
+                else if (matches(game, nameStart, nameEnd, "FEN")) {
+                    try {
+                        board.setFen(game, valueStart + 1, valueEnd);
+                        startFen = board.toFen();
+                    } catch (IllegalArgumentException e) {
+                        return fail(valueStart + 1, valueEnd);
+                    }
+                }
+            }
+            while (i < length && game.charAt(i) != '\n') i++;
+        }
+        //Movetext
+        while ((i = skipWhitespace(game, i, length)) < length) {
+            char c = game.charAt(i);
+            if (c == '{') i = skipPast(game, i, length, '}');
+            else if (c == ';' || c == '%') i = skipPast(game, i, length, '\n');
+            else if (c == '(') i = skipVariation(game, i, length);
+            else if (c == '$' || c == ')') i = tokenEnd(game, i + 1, length);
+            else {
+                int end = tokenEnd(game, i, length);
+                int result = (c == '*') ? RESULT_UNKNOWN : parseResult(game, i, end);
+                if (c == '*' || result != -1) {
+                    movetextResult = Math.max(result, RESULT_UNKNOWN);
+                    break;
+                }
+                //Move number, possibly run into the move as in "12.e4"
+                int j = i;
+                while (j < end && game.charAt(j) >= '0' && game.charAt(j) <= '9') j++;
+                if (j > i && (j == end || game.charAt(j) == '.')) {
+                    while (j < end && game.charAt(j) == '.') j++;
+                    i = j;
+                    continue;
+                }
+                int move = San.parse(board, logic, moves, game, i, end);
+                if (move == Move.NONE) return fail(i, end);
+                if (listener != null) listener.onMove(board, move, plies);
+                board.makeMove(move);
+                plies++;
+                i = end;
+            }
+        }
+        //Result of the final position
+        Color toMove = board.getTurnColor();
+        if (logic.generateLegalMoves(board, toMove, moves) == 0) {
+            if (!logic.inCheck(board, toMove)) finalResult = RESULT_DRAW;
+            else finalResult = (toMove == Color.WHITE) ? RESULT_BLACK_WINS : RESULT_WHITE_WINS;
+        }
+        int result = getResult();
+        if (tagResult != RESULT_UNKNOWN && movetextResult != RESULT_UNKNOWN && tagResult != movetextResult) return RESULT_MISMATCH;
+        if (finalResult != RESULT_UNKNOWN && result != RESULT_UNKNOWN && result != finalResult) return RESULT_MISMATCH;
+        return LEGAL;
+    }
+
+    /**
+     * Records the move that couldn't be played
+     * @param start index of the first character of the move
+     * @param end index just past the last character of the move
+     * @return ILLEGAL
+     */
+    private int fail(int start, int end) {
+        failedMoveNumber = board.getFullmoveNumber();
+        failedByBlack = board.getTurnColor() == Color.BLACK;
+        failedStart = start;
+        failedEnd = end;
+        return ILLEGAL;
+    }
+
+    /**
+     * Describes the verdict of the last game replayed, only called for games printed
+     * @param game text of the game
+     * @param verdict verdict returned by replay
+     * @return description, ex. "illegal at 23... Nxe5" or "result mismatch, 1-0 but black gave checkmate"
+     */
+    String describe(CharSequence game, int verdict) {
+        if (verdict == ILLEGAL) {
+            return "illegal at " + failedMoveNumber + (failedByBlack ? "... " : ". ") + game.subSequence(failedStart, failedEnd);
+        }
+        if (verdict == RESULT_MISMATCH) {
+            if (tagResult != RESULT_UNKNOWN && movetextResult != RESULT_UNKNOWN && tagResult != movetextResult) {
+                return "result mismatch, tag " + RESULT_NAMES[tagResult] + " but movetext " + RESULT_NAMES[movetextResult];
+            }
+            int result = getResult();
+            String reason = (finalResult == RESULT_DRAW) ? "stalemate"
+                    : (finalResult == RESULT_WHITE_WINS) ? "white gave checkmate" : "black gave checkmate";
+            return "result mismatch, " + RESULT_NAMES[result] + " but " + reason;
+        }
+        return "legal, " + plies + " plies, " + RESULT_NAMES[getResult()];
+    }
+
+    /**
+     * Sets the listener told about each move replayed
+     * @param listener listener, null for none
+     */
+    void setMoveListener(MoveListener listener) { this.listener = listener; }
+
+    /**
+     * Returns the result of the last game replayed, from its Result tag or else the end of its movetext
+     * @return one of the RESULT constants
+     */
+    int getResult() { return (tagResult != RESULT_UNKNOWN) ? tagResult : movetextResult; }
+
+    /**
+     * Returns the starting position of the last game replayed, as set by its FEN tag
+     * @return FEN string, null if the game started from the standard position
+     */
+    String getStartFen() { return startFen; }
+
+    /**
+     * Returns the number of moves played in the last game replayed, up to the illegal move if there was one
+     * @return number of plies
+     */
+    int getPlies() { return plies; }
+
+    /**
+     * Parses a result token
+     * @param s characters holding the token
+     * @param start index of the first character
+     * @param end index just past the last character
+     * @return one of the RESULT constants, -1 if the token isn't a result
+     */
+    private static int parseResult(CharSequence s, int start, int end) {
+        if (matches(s, start, end, "1-0")) return RESULT_WHITE_WINS;
+        if (matches(s, start, end, "0-1")) return RESULT_BLACK_WINS;
+        if (matches(s, start, end, "1/2-1/2")) return RESULT_DRAW;
+        if (matches(s, start, end, "*")) return RESULT_UNKNOWN;
+        return -1;
+    }
+
+    private static boolean matches(CharSequence s, int start, int end, String text) {
+        if (end - start != text.length()) return false;
+        for (int i = 0; i < text.length(); i++) {
+            if (s.charAt(start + i) != text.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private static int skipWhitespace(CharSequence s, int i, int end) {
+        while (i < end && s.charAt(i) <= ' ') i++;
+        return i;
+    }
+
+    private static int skipPast(CharSequence s, int i, int end, char c) {
+        while (i < end && s.charAt(i) != c) i++;
+        return Math.min(i + 1, end);
+    }
+
+    /**
+     * Returns the index just past a token, which ends at whitespace or the start of a comment or variation
+     * @param s characters to scan
+     * @param i index of the start of the token
+     * @param end index to stop at
+     * @return index of the first character after the token
+     */
+    private static int tokenEnd(CharSequence s, int i, int end) {
+        while (i < end) {
+            char c = s.charAt(i);
+            if (c <= ' ' || c == '{' || c == '(' || c == ')' || c == ';') break;
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Returns the index just past a variation, which may hold comments and nested variations
+     * @param s characters to scan
+     * @param i index of the opening parenthesis
+     * @param end index to stop at
+     * @return index of the first character after the closing parenthesis
+     */
+    private static int skipVariation(CharSequence s, int i, int end) {
+        int depth = 0;
+        while (i < end) {
+            char c = s.charAt(i);
+            if (c == '{') {
+                i = skipPast(s, i, end, '}');
+                continue;
+            }
+            if (c == '(') depth++;
+            else if (c == ')' && --depth == 0) return i + 1;
+            i++;
+        }
+        return end;
+    }
+
+    /**
+     * Games read together and replayed by one worker. The verdicts are filled in by call and read back in order
+     */
+    private static class Batch implements Callable<Batch> {
+        private static final ThreadLocal<PgnReplay> REPLAYERS = ThreadLocal.withInitial(PgnReplay::new);
+
+        final long firstGame; //Number of the first game in the batch, counting from 1 across all files
+        final CharSequence[] games = new CharSequence[BATCH_GAMES];
+        final int[] verdicts = new int[BATCH_GAMES];
+        final String[] descriptions = new String[BATCH_GAMES];
+        int count; //Number of games in the batch
+        long plies; //Moves replayed in the whole batch
+        private final boolean errorsOnly;
+
+        Batch(long firstGame, boolean errorsOnly) {
+            this.firstGame = firstGame;
+            this.errorsOnly = errorsOnly;
+        }
+
+        @Override
+        public Batch call() {
+            PgnReplay replayer = REPLAYERS.get();
+            for (int i = 0; i < count; i++) {
+                try {
+                    verdicts[i] = replayer.replay(games[i]);
+                    if (!errorsOnly || verdicts[i] != LEGAL) descriptions[i] = replayer.describe(games[i], verdicts[i]);
+                } catch (IllegalArgumentException e) {
+                    //Input the rules engine rejects is a bad game like any other
+                    verdicts[i] = ILLEGAL;
+                    descriptions[i] = "illegal, replay failed after " + replayer.getPlies() + " plies: " + e.getMessage();
+                } catch (RuntimeException e) {
+                    //Anything else is a bug rather than bad data, logged in full but the run still goes on
+                    System.err.println("Game " + (firstGame + i) + ": engine error after " + replayer.getPlies() + " plies");
+                    e.printStackTrace();
+                    verdicts[i] = ILLEGAL;
+                    descriptions[i] = "engine error after " + replayer.getPlies() + " plies: " + e;
+                }
+                plies += replayer.getPlies();
+                games[i] = null; //Don't hold on to the mapped window once replayed
+            }
+            return this;
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException, ExecutionException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean errorsOnly = false;
+        int first = 0;
+        for (; first < args.length && args[first].startsWith("--"); first++) {
+            if (args[first].equals("--threads")) threads = Integer.parseInt(args[++first]);
+            else if (args[first].equals("--errors")) errorsOnly = true;
+            else throw new IllegalArgumentException("Unknown option " + args[first]);
+        }
+        if (first == args.length) {
+            System.out.println("Usage: java PgnReplay [--threads N] [--errors] file.pgn ...");
+            return;
+        }
+
+        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16));
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        ArrayDeque<Future<Batch>> pending = new ArrayDeque<>();
+        long[] totals = new long[VERDICTS + 1]; //Games with each verdict, then plies
+        long start = System.nanoTime();
+        long games = 0;
+        try {
+            for (int f = first; f < args.length; f++) {
+                try (PgnReader reader = new PgnReader(Paths.get(args[f]))) {
+                    Batch batch = new Batch(games + 1, errorsOnly);
+                    CharSequence game;
+                    while ((game = reader.next()) != null) {
+                        batch.games[batch.count++] = game;
+                        games++;
+                        if (batch.count == BATCH_GAMES) {
+                            //Print finished batches in order, waiting on the oldest when the queue is full
+                            while (pending.size() >= threads * BATCHES_PER_THREAD) print(pending.poll().get(), out, totals);
+                            pending.add(pool.submit(batch));
+                            batch = new Batch(games + 1, errorsOnly);
+                        }
+                    }
+                    if (batch.count > 0) pending.add(pool.submit(batch));
+                }
+            }
+            while (!pending.isEmpty()) print(pending.poll().get(), out, totals);
+        } finally {
+            pool.shutdownNow();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        out.printf(Locale.ROOT, "%nGames: %,d (%,d legal, %,d illegal, %,d result mismatch), moves: %,d%n",
+                games, totals[LEGAL], totals[ILLEGAL], totals[RESULT_MISMATCH], totals[VERDICTS]);
+        out.printf(Locale.ROOT, "Threads: %d, time: %.3f s, %,.0f games/s, %,.0f moves/s%n",
+                threads, seconds, games / seconds, totals[VERDICTS] / seconds);
+        out.flush();
+    }
+
+    /**
+     * Prints the verdicts of a finished batch and adds them to the totals
+     * @param batch replayed batch
+     * @param out where to print
+     * @param totals games with each verdict, then plies
+     */
+    private static void print(Batch batch, PrintWriter out, long[] totals) {
+        for (int i = 0; i < batch.count; i++) {
+            totals[batch.verdicts[i]]++;
+            if (batch.descriptions[i] != null) out.println("Game " + (batch.firstGame + i) + ": " + batch.descriptions[i]);
+        }
+        totals[VERDICTS] += batch.plies;
+    }
+}
@@ -11,6 +11,8 @@ public class Piece{
     int colorMult; //Multiplier for movement calculations
     int moveCount; //Number of moves this piece has made
     List<Position> moves; //List of possible moves from current position
+    int index; //Index of this piece in its board's pieces list, kept after capture so the piece can be put back
+    int colorIndex; //Index of this piece in its board's list of pieces of its color
 
     /**
      * Constructor for piece class
@@ -18,7 +20,7 @@ public class Piece{
      * @param file starting file of this piece
      */
     public Piece(int rank, int file) {
-        position = new Position(rank, file);
+        position = Position.of(rank, file);
         //If piece is on rank 0 or 1, piece is white, else black
         color = (rank < 4) ? Color.WHITE : Color.BLACK;
         //Set color multiplier for movement calculations
@@ -51,6 +53,52 @@ public class Piece{
         }
     }
 
+    /**
+     * Constructor for a piece of known color and type, used when setting up positions other than the start
+     * @param rank rank of this piece
+     * @param file file of this piece
+     * @param color color of this piece
+     * @param pieceType type of this piece
+     */
+    public Piece(int rank, int file, Color color, PieceType pieceType) {
+        position = Position.of(rank, file);
+        this.color = color;
+        colorMult = (color == Color.WHITE) ? 1 : -1;
+        moveCount = 0;
+        moves = new ArrayList<>(27);
+        this.pieceType = pieceType;
+    }
+
+    /**
+     * Turns this piece into a new piece of known color and type, used by Board.setFen to reuse piece objects
+     * @param rank rank of this piece
+     * @param file file of this piece
+     * @param color color of this piece
+     * @param pieceType type of this piece
+     */
+    void reset(int rank, int file, Color color, PieceType pieceType) {
+        position = Position.of(rank, file);
+        this.color = color;
+        colorMult = (color == Color.WHITE) ? 1 : -1;
+        moveCount = 0;
+        moves.clear();
+        this.pieceType = pieceType;
+    }
+
+    /**
+     * Copy constructor, the copy has its own moves list
+     * @param other piece to copy
+     */
+    public Piece(Piece other) {
+        position = other.position;
+        color = other.color;
+        colorMult = other.colorMult;
+        moveCount = other.moveCount;
+        moves = new ArrayList<>(27);
+        moves.addAll(other.moves);
+        pieceType = other.pieceType;
+    }
+
     /**
      * Get list of possible moves
      * @return list of possible moves for this piece
@@ -83,4 +131,13 @@ public class Piece{
         this.position = newPos;
         ++moveCount;
     }
+
+    /**
+     * Moves this piece back to where it was before its last move
+     * @param oldPos position this piece had before its last move
+     */
+    public void restorePosition(Position oldPos) {
+        this.position = oldPos;
+        --moveCount;
+    }
 }
\ No newline at end of file
@@ -1,544 +1,558 @@
-import java.util.ArrayList;
 import java.util.List;
 
 public class PieceLogic {
+    private static final PieceType[] PROMOTIONS = {PieceType.QUEEN, PieceType.ROOK, PieceType.BISHOP, PieceType.KNIGHT};
+
     //PIECE MOVEMENT LOGIC
     /**
      * Updates moves list with all possible moves for this piece
      */
     public void calculatePossibleMoves(Piece piece, Board board) {
         piece.getMoves().clear();
+        int square = Bitboards.square(piece.getRank(), piece.getFile());
+        long targets = 0L;
         switch (piece.pieceType) {
             case PAWN:
-                pawnMoves(piece, board);
+                targets = pawnMoves(piece.color, square, board);
                 break;
             case ROOK:
-                rookMoves(piece, board);
+                targets = Bitboards.rookAttacks(square, board.getOccupancy());
                 break;
             case KNIGHT:
-                knightMoves(piece, board);
+                targets = Bitboards.knightAttacks(square);
                 break;
             case BISHOP:
-                bishopMoves(piece, board);
+                targets = Bitboards.bishopAttacks(square, board.getOccupancy());
                 break;
             case QUEEN:
-                queenMoves(piece, board);
+                targets = Bitboards.queenAttacks(square, board.getOccupancy());
                 break;
             case KING:
-                kingMoves(piece, board);
+                targets = kingMoves(piece.color, square, board);
                 break;
         }
+        //A piece can never move onto a square held by its own color
+        addMoves(piece, targets & ~board.getColorOccupancy(piece.color));
     }
 
     /**
-     * Updates moves list if piece is a pawn
+     * Returns the squares a pawn can move to
      * NOTE: We don't need to check for the end of the board because pawn
      * will become a different piece if it reaches the last rank
-     * @param piece pawn to check moves of
+     * @param color color of the pawn
+     * @param square square the pawn is on
      * @param board instance of board object to check moves on
+     * @return bitboard of target squares
      */
-    private void pawnMoves(Piece piece, Board board) {
-        //Get 1 space forward position
-        if (board.getPieceAt(piece.getRank() + piece.colorMult, piece.getFile()) == null) {
-            piece.getMoves().add(new Position(piece.getRank() + piece.colorMult, piece.getFile()));
-        }
-        //Get 2 space forward position
-        if (piece.moveCount == 0 && board.getPieceAt(piece.getRank() + piece.colorMult * 2, piece.getFile()) == null) {
-            piece.getMoves().add(new Position(piece.getRank() + piece.colorMult * 2, piece.getFile()));
-        }
-        //Diagonal capture position
-        Piece leftDiagonal = board.getPieceAt(piece.getRank() + piece.colorMult, piece.getFile() - 1);
-        Piece rightDiagonal = board.getPieceAt(piece.getRank() + piece.colorMult, piece.getFile() + 1);
-        if (leftDiagonal != null && piece.color != leftDiagonal.color) { piece.getMoves().add(leftDiagonal.getPosition()); }
-        if (rightDiagonal != null && piece.color != rightDiagonal.color) { piece.getMoves().add(rightDiagonal.getPosition()); }
-        //En passant position
-        //If piece is white, then piece must be on the 5th rank with a black pawn directly left or right of it, whose moveCount is 1
-        //If piece is black, then piece must be on the 4th rank with a white pawn directly left or right of it, whose moveCount is 1
-        if ((piece.colorMult > 0 && piece.getRank() == 4) || (piece.colorMult < 0 && piece.getRank() == 3)) {
-            Piece left = board.getPieceAt(piece.getRank(), piece.getFile() - 1);
-            if (left != null && left.pieceType == PieceType.PAWN && left.color != piece.color && left.moveCount == 1) {
-                piece.getMoves().add(new Position(piece.getRank() + piece.colorMult, piece.getFile() - 1));
-            }
-            Piece right = board.getPieceAt(piece.getRank(), piece.getFile() + 1);
-            if (right != null && right.pieceType == PieceType.PAWN && right.color != piece.color && right.moveCount == 1) {
-                piece.getMoves().add(new Position(piece.getRank() + piece.colorMult, piece.getFile() + 1));
-            }
+    private long pawnMoves(Color color, int square, Board board) {
+        long empty = ~board.getOccupancy();
+        long pawn = Bitboards.bit(square);
+        long single;
+        long doubled;
+        //Get 1 space forward position, and 2 space forward position if the pawn is still on its starting rank
+        if (color == Color.WHITE) {
+            single = (pawn << 8) & empty;
+            doubled = ((single & (Bitboards.RANK_2 << 8)) << 8) & empty;
         }
+        else {
+            single = (pawn >>> 8) & empty;
+            doubled = ((single & (Bitboards.RANK_7 >>> 8)) >>> 8) & empty;
+        }
+        //Diagonal capture positions
+        long attacks = Bitboards.pawnAttacks(color, square);
+        long captures = attacks & board.getColorOccupancy(otherColor(color));
+        //En passant position, only available right after an enemy pawn skipped past this pawn's capture square
+        if (board.getEnPassantSquare() != -1) captures |= attacks & Bitboards.bit(board.getEnPassantSquare());
+        return single | doubled | captures;
     }
 
     /**
-     * Updates moves list if piece is a knight
-     * @param piece knight to check moves of
+     * Returns the squares a king can move to, including castling
+     * @param color color of the king
+     * @param square square the king is on
      * @param board instance of board object to check moves on
+     * @return bitboard of target squares
      */
-    private void knightMoves(Piece piece, Board board) {
-        //Up-left
-        addMove(piece, board, piece.getRank() + 2, piece.getFile() - 1);
-        //Up-right
-        addMove(piece, board, piece.getRank() + 2, piece.getFile() + 1);
-        //Left-up
-        addMove(piece, board, piece.getRank() + 1, piece.getFile() - 2);
-        //Left-down
-        addMove(piece, board, piece.getRank() - 1, piece.getFile() - 2);
-        //Right-up
-        addMove(piece, board, piece.getRank() + 1, piece.getFile() + 2);
-        //Right-down
-        addMove(piece, board, piece.getRank() - 1, piece.getFile() + 2);
-        //Down-left
-        addMove(piece, board, piece.getRank() - 2, piece.getFile() - 1);
-        //Down-right
-        addMove(piece, board, piece.getRank() - 2, piece.getFile() + 1);
+    private long kingMoves(Color color, int square, Board board) {
+        long moves = Bitboards.kingAttacks(square);
+        //Check for castling, the right must still be available, king and rook on their home squares and every
+        //square between them empty
+        int shift = (color == Color.WHITE) ? 0 : 56;
+        if (square != 4 + shift) return moves;
+        int kingside = (color == Color.WHITE) ? Board.CASTLE_WHITE_KINGSIDE : Board.CASTLE_BLACK_KINGSIDE;
+        int queenside = (color == Color.WHITE) ? Board.CASTLE_WHITE_QUEENSIDE : Board.CASTLE_BLACK_QUEENSIDE;
+        long rooks = board.getBitboard(color, PieceType.ROOK);
+        if ((board.getCastlingRights() & kingside) != 0 && (rooks & Bitboards.bit(7 + shift)) != 0
+                && (board.getOccupancy() & (0x60L << shift)) == 0) {
+            moves |= Bitboards.bit(6 + shift);
+        }
+        if ((board.getCastlingRights() & queenside) != 0 && (rooks & Bitboards.bit(shift)) != 0
+                && (board.getOccupancy() & (0x0EL << shift)) == 0) {
+            moves |= Bitboards.bit(2 + shift);
+        }
+        return moves;
     }
 
     /**
-     * Updates moves list if piece is a rook
-     * @param piece rook to check moves of
-     * @param board instance of board object to check moves on
+     * Adds a position to piece's moves list for every square in targets
+     * @param piece piece to add moves to
+     * @param targets bitboard of squares piece can move to
      */
-    private void rookMoves(Piece piece, Board board) {
-        //Regular movement
-        lateralMoves(piece, board);
+    private void addMoves(Piece piece, long targets) {
+        for (; targets != 0; targets &= targets - 1) {
+            int square = Bitboards.lowestSquare(targets);
+            piece.getMoves().add(Position.of(square));
+        }
     }
 
+    //MOVE GENERATION LOGIC
     /**
-     * Updates moves list if piece is a bishop
-     * @param piece bishop to check moves of
-     * @param board instance of board object to check moves on
+     * Writes every pseudo-legal move for the side to move into moves as packed ints (see Move).
+     * Reads the bitboards only, so no piece's moves list is touched and nothing is allocated.
+     * Moves may still leave the king in check, isLegalMove(Board, int) filters those out
+     * @param board instance of board to generate moves on
+     * @param moves buffer to write moves into, Move.MAX_MOVES entries holds the moves of any position
+     * @return number of moves written
      */
-    private void bishopMoves(Piece piece, Board board) {
-        diagonalMoves(piece, board);
+    public int generatePseudoLegalMoves(Board board, int[] moves) {
+        Color color = board.getTurnColor();
+        long own = board.getColorOccupancy(color);
+        long enemy = board.getColorOccupancy(otherColor(color));
+        long occupied = board.getOccupancy();
+        int count = 0;
+        for (long pawns = board.getBitboard(color, PieceType.PAWN); pawns != 0; pawns &= pawns - 1) {
+            int from = Bitboards.lowestSquare(pawns);
+            count = addPawnMoves(from, pawnMoves(color, from, board), enemy, board.getEnPassantSquare(), moves, count);
+        }
+        for (long knights = board.getBitboard(color, PieceType.KNIGHT); knights != 0; knights &= knights - 1) {
+            int from = Bitboards.lowestSquare(knights);
+            count = addMoves(from, Bitboards.knightAttacks(from) & ~own, enemy, moves, count);
+        }
+        for (long bishops = board.getBitboard(color, PieceType.BISHOP); bishops != 0; bishops &= bishops - 1) {
+            int from = Bitboards.lowestSquare(bishops);
+            count = addMoves(from, Bitboards.bishopAttacks(from, occupied) & ~own, enemy, moves, count);
+        }
+        for (long rooks = board.getBitboard(color, PieceType.ROOK); rooks != 0; rooks &= rooks - 1) {
+            int from = Bitboards.lowestSquare(rooks);
+            count = addMoves(from, Bitboards.rookAttacks(from, occupied) & ~own, enemy, moves, count);
+        }
+        for (long queens = board.getBitboard(color, PieceType.QUEEN); queens != 0; queens &= queens - 1) {
+            int from = Bitboards.lowestSquare(queens);
+            count = addMoves(from, Bitboards.queenAttacks(from, occupied) & ~own, enemy, moves, count);
+        }
+        int king = board.getKingSquare(color);
+        for (long targets = kingMoves(color, king, board) & ~own; targets != 0; targets &= targets - 1) {
+            int to = Bitboards.lowestSquare(targets);
+            int flags = ((enemy & Bitboards.bit(to)) != 0) ? Move.CAPTURE : 0;
+            if (Math.abs(to - king) == 2) flags = Move.CASTLE;
+            moves[count++] = Move.of(king, to, flags, null);
+        }
+        return count;
     }
 
     /**
-     * Updates moves list if piece is a queen
-     * @param piece queen to check moves of
-     * @param board instance of board object to check moves on
+     * Writes every legal move for color into moves as packed ints (see Move), in a single pass.
+     * The checking pieces, the squares that answer a check and the pinned pieces are worked out once up front,
+     * so each piece's targets are masked down to legal ones as they are generated. Only en passant captures,
+     * which can uncover a check along the rank of both pawns, are tested by playing them out on bitboards
+     * @param board instance of board to generate moves on
+     * @param color color to generate moves for, en passant is only available if it is also the side to move
+     * @param moves buffer to write moves into, Move.MAX_MOVES entries holds the moves of any position
+     * @return number of moves written
      */
-    private void queenMoves(Piece piece, Board board) {
-        //Lateral movement
-        lateralMoves(piece, board);
-        //Diagonal movement
-        diagonalMoves(piece, board);
-    }
+    public int generateLegalMoves(Board board, Color color, int[] moves) {
+        Color enemyColor = otherColor(color);
+        long own = board.getColorOccupancy(color);
+        long enemy = board.getColorOccupancy(enemyColor);
+        long occupied = board.getOccupancy();
+        int king = board.getKingSquare(color);
+        long checkers = attackersTo(board, king, enemyColor, occupied);
+        int count = 0;
 
-    /**
-     * Updates moves list if piece is a king
-     * @param piece king to check moves of
-     * @param board instance of board object to check moves on
-     */
-    private void kingMoves(Piece piece, Board board) {
-        //Up
-        addMove(piece, board, piece.getRank() + 1, piece.getFile());
-        //Down
-        addMove(piece, board, piece.getRank() - 1, piece.getFile());
-        //Left
-        addMove(piece, board, piece.getRank(), piece.getFile() - 1);
-        //Right
-        addMove(piece, board, piece.getRank(), piece.getFile() + 1);
-        //Up right
-        addMove(piece, board, piece.getRank() + 1, piece.getFile() + 1);
-        //Up left
-        addMove(piece, board, piece.getRank() + 1, piece.getFile() - 1);
-        //Down right
-        addMove(piece, board, piece.getRank() - 1, piece.getFile() + 1);
-        //Down left
-        addMove(piece, board, piece.getRank() - 1, piece.getFile() - 1);
-        //Check for castling
-        if (piece.moveCount == 0) {
-            //Get left rook
-            Piece corner = board.getPieceAt(piece.getRank(), 0);
-            //Must check every square between king and rook, pieceType, moveCount, and color
-            if (board.getPieceAt(piece.getRank(), 1) == null && board.getPieceAt(piece.getRank(), 2) == null && 
-                board.getPieceAt(piece.getRank(), 3) == null && corner.moveCount == 0 && corner.pieceType == PieceType.ROOK && 
-                corner.color == piece.color) {
-                piece.getMoves().add(new Position(piece.getRank(), 2));
+        //King moves, the king is taken off the board so it can't hide behind itself along a checking ray
+        long kingOccupied = occupied & ~Bitboards.bit(king);
+        for (long targets = Bitboards.kingAttacks(king) & ~own; targets != 0; targets &= targets - 1) {
+            int to = Bitboards.lowestSquare(targets);
+            if (attackersTo(board, to, enemyColor, kingOccupied) != 0) continue;
+            moves[count++] = Move.of(king, to, ((enemy & Bitboards.bit(to)) != 0) ? Move.CAPTURE : 0, null);
+        }
+        //In double check only the king can move
+        if (Long.bitCount(checkers) > 1) return count;
+
+        //Castling, the king may not be in check or cross or land on an attacked square
+        if (checkers == 0) {
+            for (long castles = kingMoves(color, king, board) & ~Bitboards.kingAttacks(king); castles != 0; castles &= castles - 1) {
+                int to = Bitboards.lowestSquare(castles);
+                if (attackersTo(board, (king + to) / 2, enemyColor, occupied) != 0
+                        || attackersTo(board, to, enemyColor, occupied) != 0) continue;
+                moves[count++] = Move.of(king, to, Move.CASTLE, null);
             }
-            //Get right rook
-            corner = board.getPieceAt(piece.getRank(), 7);
-            //Same check in opposite direction
-            if (board.getPieceAt(piece.getRank(), 5) == null && board.getPieceAt(piece.getRank(), 6) == null &&
-                corner.moveCount == 0 && corner.pieceType == PieceType.ROOK && corner.color == piece.color) {
-                piece.getMoves().add(new Position(piece.getRank(), 6));
+        }
+
+        //Any other move must capture the single checker or block its ray
+        long evasions = (checkers == 0) ? -1L : checkers | Bitboards.between(king, Bitboards.lowestSquare(checkers));
+        //A piece alone between the king and an enemy slider may only move along the ray between them
+        long queens = board.getBitboard(enemyColor, PieceType.QUEEN);
+        long snipers = (Bitboards.rookAttacks(king, 0L) & (board.getBitboard(enemyColor, PieceType.ROOK) | queens))
+                     | (Bitboards.bishopAttacks(king, 0L) & (board.getBitboard(enemyColor, PieceType.BISHOP) | queens));
+        long pinned = 0L;
+        for (; snipers != 0; snipers &= snipers - 1) {
+            int sniper = Bitboards.lowestSquare(snipers);
+            long blockers = Bitboards.between(king, sniper) & occupied;
+            if (blockers == 0 || (blockers & (blockers - 1)) != 0 || (blockers & own) == 0) continue;
+            pinned |= blockers;
+            int from = Bitboards.lowestSquare(blockers);
+            long ray = Bitboards.between(king, sniper) | Bitboards.bit(sniper);
+            count = addPieceMoves(board, color, from, occupied, ray & evasions & ~own, enemy, moves, count);
+        }
+        for (long pieces = own & ~pinned & ~Bitboards.bit(king); pieces != 0; pieces &= pieces - 1) {
+            count = addPieceMoves(board, color, Bitboards.lowestSquare(pieces), occupied, evasions & ~own, enemy, moves, count);
+        }
+
+        //En passant, tested in full since capturing removes two pieces from the king's lines at once
+        int enPassant = board.getEnPassantSquare();
+        if (enPassant != -1 && color == board.getTurnColor()) {
+            long capturers = Bitboards.pawnAttacks(enemyColor, enPassant) & board.getBitboard(color, PieceType.PAWN);
+            for (; capturers != 0; capturers &= capturers - 1) {
+                int from = Bitboards.lowestSquare(capturers);
+                if (isLegal(board, color, from, enPassant, false, true)) {
+                    moves[count++] = Move.of(from, enPassant, Move.CAPTURE | Move.EN_PASSANT, null);
+                }
             }
         }
+        return count;
     }
 
     /**
-     * Add all lateral moves to moves list, stopping at the edges of the board, the first same color piece,
-     * or the first capture, whichever comes first
-     * @param piece rook/queen to check moves of
-     * @param board instance of board object to check moves on
+     * Writes the moves of one piece other than the king to the squares in mask, en passant excluded
+     * @param board instance of board to generate moves on
+     * @param color color of the piece
+     * @param from square of the piece
+     * @param occupied occupancy used for sliding pieces
+     * @param mask squares the piece may legally move to
+     * @param enemy bitboard of opposing pieces
+     * @param moves buffer to write moves into
+     * @param count number of moves already in the buffer
+     * @return number of moves in the buffer afterwards
      */
-    private void lateralMoves(Piece piece, Board board) {
-        //Horizontal right
-        for (int i = piece.getFile(); i < 7; i++) if (!addMove(piece, board, piece.getRank(), i + 1)) break;
-        //Horizontal left
-        for (int i = piece.getFile(); i > 0; i--) if (!addMove(piece, board, piece.getRank(), i - 1)) break;
-        //Vertical up
-        for (int i = piece.getRank(); i < 7; i++) if (!addMove(piece, board, i + 1, piece.getFile())) break;
-        //Vertical down
-        for (int i = piece.getRank(); i > 0; i--) if (!addMove(piece, board, i - 1, piece.getFile())) break;
+    private int addPieceMoves(Board board, Color color, int from, long occupied, long mask, long enemy, int[] moves, int count) {
+        long bit = Bitboards.bit(from);
+        if ((board.getBitboard(color, PieceType.PAWN) & bit) != 0) {
+            //pawnMoves includes the en passant square, which generateLegalMoves handles on its own
+            long targets = pawnMoves(color, from, board) & mask;
+            if (board.getEnPassantSquare() != -1) targets &= ~Bitboards.bit(board.getEnPassantSquare());
+            return addPawnMoves(from, targets, enemy, -1, moves, count);
+        }
+        long targets;
+        if ((board.getBitboard(color, PieceType.KNIGHT) & bit) != 0) targets = Bitboards.knightAttacks(from);
+        else if ((board.getBitboard(color, PieceType.BISHOP) & bit) != 0) targets = Bitboards.bishopAttacks(from, occupied);
+        else if ((board.getBitboard(color, PieceType.ROOK) & bit) != 0) targets = Bitboards.rookAttacks(from, occupied);
+        else targets = Bitboards.queenAttacks(from, occupied);
+        return addMoves(from, targets & mask, enemy, moves, count);
     }
 
     /**
-     * Adds all diagonal moves to the moves list, stopping at the edges of the board, the first same color piece,
-     * or the first capture, whichever comes first
-     * @param piece bishop/queen to check moves of
-     * @param board instance of board object to check moves on
+     * Writes a packed move from a square to every square in targets
+     * @param from square the piece moves from
+     * @param targets bitboard of squares the piece can move to
+     * @param enemy bitboard of opposing pieces, moves onto them are flagged as captures
+     * @param moves buffer to write moves into
+     * @param count number of moves already in the buffer
+     * @return number of moves in the buffer afterwards
      */
-    private void diagonalMoves(Piece piece, Board board) {
-        //Up left
-        for (int i = piece.getRank(), j = piece.getFile(); i < 7 && j > 0; i++, j--) if (!addMove(piece, board, i + 1, j - 1)) break;
-        //Up right
-        for (int i = piece.getRank(), j = piece.getFile(); i < 7 && j < 7; i++, j++) if (!addMove(piece, board, i + 1, j + 1)) break;
-        //Down left
-        for (int i = piece.getRank(), j = piece.getFile(); i > 0 && j > 0; i--, j--) if (!addMove(piece, board, i - 1, j - 1)) break;
-        //Down right
-        for (int i = piece.getRank(), j = piece.getFile(); i > 0 && j < 7; i--, j++) if (!addMove(piece, board, i - 1, j  +1)) break;
+    private static int addMoves(int from, long targets, long enemy, int[] moves, int count) {
+        for (; targets != 0; targets &= targets - 1) {
+            int to = Bitboards.lowestSquare(targets);
+            moves[count++] = Move.of(from, to, ((enemy & Bitboards.bit(to)) != 0) ? Move.CAPTURE : 0, null);
+        }
+        return count;
     }
 
     /**
-     * If move is legal, adds move to move list. If piece can continue returns true, if a capture returns false
-     * @param board instance of board object to check moves on
-     * @param rank  rank of move
-     * @param file  file of move
-     * @return true if move is inbounds and square if empty, false otherwise
+     * Writes a packed move from a pawn's square to every square in targets, one per piece type on promotion
+     * @param from square the pawn moves from
+     * @param targets bitboard of squares the pawn can move to
+     * @param enemy bitboard of opposing pieces
+     * @param enPassant en passant square, -1 if none
+     * @param moves buffer to write moves into
+     * @param count number of moves already in the buffer
+     * @return number of moves in the buffer afterwards
      */
-    private boolean addMove(Piece piece, Board board, int rank, int file) {
-        //If move is out of bounds, return false
-        if (rank > 7 || rank < 0 || file > 7 || file < 0) return false;
-        //If move is in bounds and square is empty, add move and return true
-        else if (board.getPieceAt(rank, file) == null) {
-            piece.getMoves().add(new Position(rank, file));
-            return true;
-        }
-        //If move is in bounds and a capture, add move and return false
-        else if (board.getPieceAt(rank, file).color != piece.color) {
-            piece.getMoves().add(new Position(rank, file));
-            return false;
+    private static int addPawnMoves(int from, long targets, long enemy, int enPassant, int[] moves, int count) {
+        for (; targets != 0; targets &= targets - 1) {
+            int to = Bitboards.lowestSquare(targets);
+            int flags = 0;
+            if ((enemy & Bitboards.bit(to)) != 0) flags = Move.CAPTURE;
+            else if (to == enPassant) flags = Move.CAPTURE | Move.EN_PASSANT;
+            else if (Math.abs(to - from) == 16) flags = Move.DOUBLE_PUSH;
+            //A pawn reaching the last rank becomes one of four pieces, each a separate move
+            if (to < 8 || to >= 56) {
+                for (PieceType promotion : PROMOTIONS) moves[count++] = Move.of(from, to, flags, promotion);
+            }
+            else moves[count++] = Move.of(from, to, flags, null);
         }
-        //If move is in bounds and a friendly piece, return false
-        else return false;
+        return count;
     }
-    
-    //IS PINNED LOGIC
+
     /**
-     * Check if piece is pinned
-     * @param piece piece to check if pinned
+     * Returns a bitboard of every piece of attackerColor that attacks the input square
      * @param board instance of board to check on
-     * @return true if pinned, false otherwise
+     * @param square square being attacked
+     * @param attackerColor color of attacking pieces
+     * @param occupied occupancy to use for sliding pieces
+     * @return bitboard of attacking pieces
      */
-    public boolean isPinned(Piece piece, Board board) {
-        //Find all opposing Queens, Bishops, and Rooks that see this piece
-        Color attackerColor = (piece.color == Color.WHITE) ? Color.BLACK : Color.WHITE;
-        List<Piece> possiblePins = board.getColorPieces(attackerColor).stream()
-                .filter(e -> e.pieceType != PieceType.KING)
-                .filter(e -> e.pieceType != PieceType.KNIGHT)
-                .filter(e -> e.pieceType != PieceType.PAWN)
-                .filter(e -> e.getMoves().contains(piece.getPosition()))
-                .toList();
-
-        //For each possible pin, check spaces opposite this piece for king
-        for (Piece attacker : possiblePins) {
-            //Rook or queen on same rank
-            if (attacker.getRank() == piece.getRank() && horizontalPin(board, piece, attacker)) return true;
-            //Rook or queen on same file
-            else if (attacker.getFile() == piece.getFile() && verticalPin(board, piece, attacker)) return true;
-            //Queen or bishop at a diagonal
-            else if (diagonalPin(board, piece, attacker)) return true;
-        }
-        return false;
+    public long attackersTo(Board board, int square, Color attackerColor, long occupied) {
+        long queens = board.getBitboard(attackerColor, PieceType.QUEEN);
+        //A pawn of attackerColor attacks square exactly when a defending pawn on square would attack the pawn
+        return (Bitboards.pawnAttacks(otherColor(attackerColor), square) & board.getBitboard(attackerColor, PieceType.PAWN))
+             | (Bitboards.knightAttacks(square) & board.getBitboard(attackerColor, PieceType.KNIGHT))
+             | (Bitboards.kingAttacks(square) & board.getBitboard(attackerColor, PieceType.KING))
+             | (Bitboards.rookAttacks(square, occupied) & (board.getBitboard(attackerColor, PieceType.ROOK) | queens))
+             | (Bitboards.bishopAttacks(square, occupied) & (board.getBitboard(attackerColor, PieceType.BISHOP) | queens));
     }
 
     /**
-     * Checks for pin when attacker is a queen or rook on same rank as piece
+     * Returns true if any piece of attackerColor attacks the input square, using the board's attack map
      * @param board instance of board to check on
-     * @param piece piece to check if pinned
-     * @param attacker piece attacking piece
-     * @return true if attacker pins piece to its king, false otherwise
+     * @param square square to check
+     * @param attackerColor color of attacking pieces
+     * @return true if square is attacked, false otherwise
      */
-    private boolean horizontalPin(Board board, Piece piece, Piece attacker) {
-        //Check for pin left of current piece
-        if (attacker.getFile() > piece.getFile()) {
-            for (int i = piece.getFile() - 1; i > -1; i--)
-                if (board.getPieceAt(piece.getRank(), i) != null) return isColorKing(piece.color, board, piece.getRank(), i);
-        }
-        //Check for pin right of current piece
-        else {
-            for (int i = piece.getFile() + 1; i < 8; i++)
-                if (board.getPieceAt(piece.getRank(), i) !=  null) return isColorKing(piece.color, board, piece.getRank(), i);
-        }
-        return false;
+    public boolean isSquareAttacked(Board board, int square, Color attackerColor) {
+        return (board.getAttackedSquares(attackerColor) & Bitboards.bit(square)) != 0;
     }
 
     /**
-     * Checks for pin when attacker is a queen or rook on same file as piece
-     * @param board instance of board to check pin on
-     * @param piece piece to check if pinned
-     * @param attacker piece attacking piece
-     * @return true if piece is pinned by attacker, false otherwise
+     * Returns the opposite color to input color
+     * @param color input color
+     * @return black if color is white, white if color is black
      */
-    private boolean verticalPin(Board board, Piece piece, Piece attacker) {
-        //Check for pin below current piece
-        if (attacker.getRank() > piece.getRank()) {
-            for (int i = piece.getRank() - 1; i > -1; i--)
-                if (board.getPieceAt(i, piece.getFile()) != null) return isColorKing(piece.color, board, i, piece.getFile());
-        }
-        //Check for pin above current piece
-        else {
-            for (int i = piece.getRank() + 1; i < 8; i++)
-                if (board.getPieceAt(i, piece.getFile()) != null) return isColorKing(piece.color, board, i, piece.getFile());
-        }
-        return false;
+    private static Color otherColor(Color color) {
+        return (color == Color.WHITE) ? Color.BLACK : Color.WHITE;
     }
-
+    
+    //INCREMENTAL MOVE UPDATE LOGIC
     /**
-     * Checks for pin when attacker is a queen or bishop on same diagonal as piece
-     * @param board instance of board to check pin on
-     * @param piece piece to check if pinned
-     * @param attacker piece attacking piece
-     * @return true if piece is pinned by attacker, false otherwise
+     * Recalculates the move lists the last move on board could have changed, instead of every piece's list.
+     * A piece's list depends only on the squares it can reach or push to, so it is affected if one of those squares
+     * changed: sliders whose rays reach a changed square, knights, kings and pawns that attack or push onto one,
+     * and pawns that could capture on the old or new en passant square. Kings are always recalculated because
+     * castling depends on the castling rights. Lists pruned by removeIllegalMoves aren't valid pseudo-legal lists,
+     * so if the side that just moved was in check all of its pieces are recalculated
+     * @param board board the move was played on
+     * @param moverWasInCheck true if the side that just moved was in check before moving
      */
-    private boolean diagonalPin(Board board, Piece piece, Piece attacker) {
-        //Check for pin on Down-left diagonal (if attacking piece is on Up-right diagonal)
-        if (attacker.getRank() > piece.getRank() && attacker.getFile() > piece.getFile()) {
-            for (int i = piece.getRank() - 1, j = piece.getFile() - 1; i > -1 && j > -1; i--, j--)
-                if (board.getPieceAt(i, j) != null) return isColorKing(piece.color, board, i, j);
-        }
-        //Check for pin on Down-right diagonal (if attacking piece is on Up-left diagonal)
-        else if (attacker.getPosition().rank > piece.getRank() && attacker.getPosition().file < piece.getFile()) {
-            for (int i = piece.getRank() - 1, j = piece.getFile() + 1; i > -1 && j < 8; i--, j++)
-                if (board.getPieceAt(i, j) != null) return isColorKing(piece.color, board, i, j);
-        }
-        //Check for pin on Up-left diagonal (if attacking piece is on Down-right diagonal)
-        else if (attacker.getPosition().rank < piece.getRank() && attacker.getPosition().file > piece.getFile()) {
-            for (int i = piece.getRank() + 1, j = piece.getFile() - 1; i < 8 && j > -1; i++, j--)
-                if (board.getPieceAt(i, j) != null) return isColorKing(piece.color, board, i, j);
-        }
-        //Check for pin on Up-right diagonal (if attacking piece is on Down-left diagonal)
-        else {
-            for (int i = piece.getRank() + 1, j = piece.getFile() + 1; i < 8 && j < 8; i++, j++)
-                if (board.getPieceAt(i, j) != null) return isColorKing(piece.color, board, i, j);
+    public void updatePossibleMoves(Board board, boolean moverWasInCheck) {
+        long occupied = board.getOccupancy();
+        long rooks = board.getBitboard(Color.WHITE, PieceType.ROOK) | board.getBitboard(Color.BLACK, PieceType.ROOK)
+                   | board.getBitboard(Color.WHITE, PieceType.QUEEN) | board.getBitboard(Color.BLACK, PieceType.QUEEN);
+        long bishops = board.getBitboard(Color.WHITE, PieceType.BISHOP) | board.getBitboard(Color.BLACK, PieceType.BISHOP)
+                     | board.getBitboard(Color.WHITE, PieceType.QUEEN) | board.getBitboard(Color.BLACK, PieceType.QUEEN);
+        long knights = board.getBitboard(Color.WHITE, PieceType.KNIGHT) | board.getBitboard(Color.BLACK, PieceType.KNIGHT);
+        long whitePawns = board.getBitboard(Color.WHITE, PieceType.PAWN);
+        long blackPawns = board.getBitboard(Color.BLACK, PieceType.PAWN);
+        long kings = board.getBitboard(Color.WHITE, PieceType.KING) | board.getBitboard(Color.BLACK, PieceType.KING);
+
+        long affected = kings;
+        if (moverWasInCheck) affected |= board.getColorOccupancy(otherColor(board.getTurnColor()));
+        for (long changed = board.getLastMoveSquares(); changed != 0; changed &= changed - 1) {
+            int square = Bitboards.lowestSquare(changed);
+            long bit = Bitboards.bit(square);
+            //The square itself, if a piece now stands on it
+            affected |= bit;
+            affected |= Bitboards.rookAttacks(square, occupied) & rooks;
+            affected |= Bitboards.bishopAttacks(square, occupied) & bishops;
+            affected |= Bitboards.knightAttacks(square) & knights;
+            //Pawns capturing onto the square, and pawns one or two squares behind it pushing onto or through it
+            affected |= Bitboards.pawnAttacks(Color.BLACK, square) & whitePawns;
+            affected |= Bitboards.pawnAttacks(Color.WHITE, square) & blackPawns;
+            affected |= ((bit >>> 8) | (bit >>> 16)) & whitePawns;
+            affected |= ((bit << 8) | (bit << 16)) & blackPawns;
+        }
+        //Pawns that could capture en passant last move, or can this move
+        affected |= enPassantCapturers(board.getPreviousEnPassantSquare(), whitePawns, blackPawns);
+        affected |= enPassantCapturers(board.getEnPassantSquare(), whitePawns, blackPawns);
+
+        for (affected &= occupied; affected != 0; affected &= affected - 1) {
+            int square = Bitboards.lowestSquare(affected);
+            calculatePossibleMoves(board.getPieceAt(Bitboards.rankOf(square), Bitboards.fileOf(square)), board);
         }
-        return false;
+        assert movesMatchFullRecalculation(board) : "Incrementally updated move lists differ from full recalculation";
     }
 
     /**
-     * Returns true if there is a same color king on the given square, false otherwise
-     * @param color color of king to check
-     * @param board instance of board to check if king
-     * @param rank rank of position to check
-     * @param file file of position to check
-     * @return true if board[rank][file] contains a king of same color as color, false otherwise
+     * Returns the pawns that attack an en passant square
+     * @param enPassant en passant square, -1 if none
+     * @param whitePawns bitboard of white pawns
+     * @param blackPawns bitboard of black pawns
+     * @return bitboard of pawns that could capture on enPassant, 0 if there is no en passant square
      */
-    private boolean isColorKing(Color color, Board board, int rank, int file) {
-        return (board.getPieceAt(rank, file) != null && board.getPieceAt(rank, file).pieceType == PieceType.KING &&
-                board.getPieceAt(rank, file).color == color);
+    private long enPassantCapturers(int enPassant, long whitePawns, long blackPawns) {
+        if (enPassant == -1) return 0L;
+        return (Bitboards.pawnAttacks(Color.BLACK, enPassant) & whitePawns) | (Bitboards.pawnAttacks(Color.WHITE, enPassant) & blackPawns);
     }
 
-    //MOVE IN TO CHECK LOGIC
     /**
-     * Iterates through pieces on the board, removing moves from king's move list 
-     * if an enemy piece sees that square
-     * @param board instance of board to check
-     * @param king king to check if any moves in move list move into check
+     * Validation mode for updatePossibleMoves, run when assertions are enabled (java -ea).
+     * Recalculates every piece's moves on a copy of board and compares them with the incrementally updated lists
+     * @param board board whose move lists were just updated
+     * @return true if every piece's list holds the same moves as a full recalculation
      */
-    public void moveIntoCheck(Board board, Piece king) {
-        List<Piece> attackers = board.getColorPieces((king.color == Color.WHITE) ? Color.BLACK : Color.WHITE);
-        for (Piece attacker : attackers) {
-            removeConflicts(attacker, king);
+    boolean movesMatchFullRecalculation(Board board) {
+        Board copy = new Board(board);
+        List<Piece> pieces = board.getPieces();
+        List<Piece> copies = copy.getPieces();
+        for (int i = 0; i < pieces.size(); i++) {
+            calculatePossibleMoves(copies.get(i), copy);
+            List<Position> expected = copies.get(i).getMoves();
+            List<Position> actual = pieces.get(i).getMoves();
+            if (expected.size() != actual.size() || !expected.containsAll(actual)) {
+                System.err.println("Stale moves for " + pieces.get(i).color + " " + pieces.get(i).pieceType + " on "
+                        + pieces.get(i).getPosition() + ": " + actual + ", expected " + expected);
+                return false;
+            }
         }
+        return true;
     }
 
+    //IS PINNED LOGIC
     /**
-     * Removes all moves from king's move list that are also in piece's move list. 
-     * Also checks positions in between king and rook if king can castle.
-     * @param piece checks if king moves into any squares seen by this piece
-     * @param king king to check moves of
+     * Check if piece is pinned
+     * @param piece piece to check if pinned
+     * @param board instance of board to check on
+     * @return true if pinned, false otherwise
      */
-    private void removeConflicts(Piece piece, Piece king) {
-        Position[] leftCastlePositions = null;
-        Position[] rightCastlePositions = null;
-        if (king.moveCount == 0) {
-            leftCastlePositions = getCastlePositions(true, king);
-            rightCastlePositions = getCastlePositions(false, king);
-        }
-        //For each position in piece's move list, if it interrupts a move in king's move list, remove that move from king's move list
-        for (Position piecePosition : piece.getMoves()) {
-            king.getMoves().remove(piecePosition);
-            //Check for castle interrupt
-            if (leftCastlePositions != null) {
-                for (Position castlePosition : leftCastlePositions) {
-                    //Remove castle from move list if interrupt exists
-                    if (piecePosition.equals(castlePosition)) {
-                        king.getMoves().remove(new Position(king.getPosition().rank, 2));
-                    }
-                }
-            }
-            if (rightCastlePositions != null) {
-                for (Position castlePosition : rightCastlePositions) {
-                    //Remove castle from move list if interrupt exists
-                    if (piecePosition.equals(castlePosition)) {
-                        king.getMoves().remove(new Position(king.getPosition().rank, 6));
-                    }
-                }
-            }
+    public boolean isPinned(Piece piece, Board board) {
+        Color attackerColor = otherColor(piece.color);
+        int kingSquare = board.getKingSquare(piece.color);
+        //Find all opposing Queens, Bishops, and Rooks that would see the king on an empty board
+        long queens = board.getBitboard(attackerColor, PieceType.QUEEN);
+        long possiblePins = (Bitboards.rookAttacks(kingSquare, 0L) & (board.getBitboard(attackerColor, PieceType.ROOK) | queens))
+                          | (Bitboards.bishopAttacks(kingSquare, 0L) & (board.getBitboard(attackerColor, PieceType.BISHOP) | queens));
+        //Piece is pinned if it is the only piece standing between the king and one of them
+        long pieceBit = Bitboards.bit(Bitboards.square(piece.getRank(), piece.getFile()));
+        for (; possiblePins != 0; possiblePins &= possiblePins - 1) {
+            int attacker = Bitboards.lowestSquare(possiblePins);
+            if ((Bitboards.between(kingSquare, attacker) & board.getOccupancy()) == pieceBit) return true;
         }
+        return false;
     }
 
+    //MOVE IN TO CHECK LOGIC
     /**
-     * Returns positions in between king and rook if king can castle, null otherwise
-     * @param side true if left side, false if right side
-     * @param king king to check moves of
-     * @return an array of positions that must not be seen by another piece if king can castle
+     * Removes moves from king's move list onto squares the enemy attacks, and castling moves
+     * if the king is in check or would cross an attacked square
+     * @param board instance of board to check
+     * @param king king to check if any moves in move list move into check
      */
-    private Position[] getCastlePositions(boolean side, Piece king) {
-        if (side && king.getMoves().contains(new Position(king.getPosition().rank, 2))) {
-            return new Position[]{ new Position(king.getPosition().rank, 4),
-                                   new Position(king.getPosition().rank, 3),
-                                   new Position(king.getPosition().rank, 2),
-                                   new Position(king.getPosition().rank, 1), 
-                                   new Position(king.getPosition().rank, 0)};
-        }
-        else if (!side && king.getMoves().contains(new Position(king.getPosition().rank, 6))) {
-            return new Position[]{ new Position(king.getPosition().rank, 4), 
-                                   new Position(king.getPosition().rank, 5),
-                                   new Position(king.getPosition().rank, 6),
-                                   new Position(king.getPosition().rank, 7)};
+    public void moveIntoCheck(Board board, Piece king) {
+        long attacked = board.getAttackedSquares(otherColor(king.color));
+        int square = Bitboards.square(king.getRank(), king.getFile());
+        List<Position> moves = king.getMoves();
+        for (int i = moves.size() - 1; i >= 0; i--) {
+            int to = Bitboards.square(moves.get(i).rank, moves.get(i).file);
+            long unsafe = Bitboards.bit(to);
+            //A king only moves two squares when castling
+            if (Math.abs(to - square) == 2) unsafe |= Bitboards.bit(square) | Bitboards.bit((square + to) / 2);
+            if ((attacked & unsafe) != 0) moves.remove(i);
         }
-        else return null;
     }
 
     //CHECK AND CHECKMATE LOGIC
     /**
-     * Returns true if king is seen by any opposite color pieces, false otherwise
-     * @param attackers potential attackers to check
+     * Returns true if king is attacked by any opposite color piece, false otherwise
+     * @param board instance of board to check
      * @param king  king to check
      * @return true if king is in check, false otherwise
      */
-    public boolean inCheck(List<Piece> attackers, Piece king) { return !getCheckingPieces(attackers, king).isEmpty(); }
+    public boolean inCheck(Board board, Piece king) {
+        return (board.getAttackedSquares(otherColor(king.color)) & board.getBitboard(king.color, PieceType.KING)) != 0;
+    }
     
+    /**
+     * Returns true if the king of color is attacked, computed directly rather than from the board's attack maps
+     * so that search doesn't have to build both maps at every node
+     * @param board instance of board to check
+     * @param color color of the king
+     * @return true if the king of color is in check, false otherwise
+     */
+    public boolean inCheck(Board board, Color color) {
+        return attackersTo(board, board.getKingSquare(color), otherColor(color), board.getOccupancy()) != 0;
+    }
+
     /**
      * Returns true if king is in checkmate, false otherwise
-     * @param attackers list of potential attackers
-     * @param defenders list of potential defenders
+     * @param board instance of board to check
      * @param king king to check
      * @return true if king is in checkmate, false otherwise
      */
-    public boolean inCheckmate(List<Piece> attackers, List<Piece> defenders, Piece king) {
+    public boolean inCheckmate(Board board, Piece king) {
         //If king has a possible move, return false
         if (!king.getMoves().isEmpty()) return false;
         //Get pieces which check the king
-        List<Piece> checkingPieces = getCheckingPieces(attackers, king);
+        long checkingPieces = getCheckingPieces(board, king);
         //If there is more than one checking piece and the king has no moves, it is checkmate
-        if (checkingPieces.size() > 1) return true;
+        if (Long.bitCount(checkingPieces) > 1) return true;
         //If there is only one checking piece, get attack vector that sees king
         //If check can be blocked, return false, otherwise return true
-        return !canBlock(getAttackVector(king, checkingPieces.get(0)), defenders);
+        return !canBlock(board, getAttackVector(board, king, checkingPieces), board.getColorPieces(king.color));
     }
 
     /**
      * Returns true if attack vector can be blocked by defenders in list, false otherwise
+     * @param board instance of board to check
      * @param vector attack vector to check
      * @param defenders potential pieces that can block attack vector
      * @return true if one of defenders can block attack vector, false otherwise
      */
-    private boolean canBlock(List<Position> vector, List<Piece> defenders) {
-        for (Position position : vector) {
-            for (Piece defender : defenders) {
-                if (defender.getMoves().contains(position)) return true;
+    private boolean canBlock(Board board, long vector, List<Piece> defenders) {
+        for (Piece defender : defenders) {
+            long blockingSquares = getBlockingSquares(board, defender, vector);
+            for (Position position : defender.getMoves()) {
+                if ((blockingSquares & Bitboards.bit(Bitboards.square(position.rank, position.file))) != 0) return true;
             }
         }
         return false;
     }
 
     /**
-     * Returns a list of opposite color pieces that see input position
-     * @param attackers list of pieces that may be attacking the king
-     * @param king king being attacker
-     * @return list of pieces that do attack the king
-     */
-    private List<Piece> getCheckingPieces(List<Piece> attackers, Piece king) {
-        return attackers.stream()
-                .filter(e -> e.getMoves().contains(king.getPosition()))
-                .toList();
-    }
-
-    /**
-     * Returns containing the position of the checking piece and all positions it sees between it and the king
-     * @param king king to check
-     * @param attacker attacker to check
-     * @return the list of all positions in between attacker and king, including attacker's position
+     * Returns a bitboard of opposite color pieces that attack the king
+     * @param board instance of board to check
+     * @param king king being attacked
+     * @return bitboard of pieces that do attack the king
      */
-    private List<Position> getAttackVector(Piece king, Piece attacker) {
-        //If piece is a pawn or knight, it only attacks from the square it is on
-        if (attacker.pieceType == PieceType.PAWN || attacker.pieceType == PieceType.KNIGHT) {
-            List<Position> vector = new ArrayList<>(1);
-            vector.add(attacker.position);
-            return vector;
-        }
-        else if (attacker.getRank() == king.getRank() || attacker.getFile() == king.getFile()) return getHorizontalAttackVector(king, attacker);
-        else return getDiagonalAttackVector(king, attacker);
+    private long getCheckingPieces(Board board, Piece king) {
+        return attackersTo(board, Bitboards.square(king.getRank(), king.getFile()), otherColor(king.color), board.getOccupancy());
     }
 
     /**
-     * Returns horizontal attack vector between king and attacker
+     * Returns the position of the checking piece and all positions it sees between it and the king.
+     * Pawns and knights are never aligned with the king in a way that leaves squares in between, so only their own square is returned
+     * @param board instance of board to check
      * @param king king to check
-     * @param attacker attacker to check
-     * @return list of positions on the path from attacker to king, including attacker
+     * @param checkingPieces bitboard holding the single checking piece
+     * @return bitboard of all positions in between attacker and king, including attacker's position
      */
-    private List<Position> getHorizontalAttackVector(Piece king, Piece attacker) {
-        List<Position> vector = new ArrayList<>(8);
-        //Attack from above
-        if (attacker.getRank() > king.getRank()) {
-            for (int i = attacker.getRank(); i > king.getRank(); i--) vector.add(new Position(i, attacker.getFile()));
-            return vector;
-        }
-        //Attack from below
-        else if (attacker.getRank() < king.getRank()) {
-            for (int i = attacker.getRank(); i < king.getRank(); i++) vector.add(new Position(i, attacker.getFile()));
-            return vector;
-        }
-        //Attack from right
-        else if (attacker.getFile() > king.getFile()) {
-            for (int i = attacker.getFile(); i > king.getFile(); i--) vector.add(new Position(attacker.getRank(), i));
-            return vector;
-        }
-        //Attack from left
-        else {
-            for (int i = attacker.getFile(); i < king.getFile(); i++) vector.add(new Position(attacker.getRank(), i));
-            return vector;
-        }
+    private long getAttackVector(Board board, Piece king, long checkingPieces) {
+        int kingSquare = Bitboards.square(king.getRank(), king.getFile());
+        return checkingPieces | Bitboards.between(kingSquare, Bitboards.lowestSquare(checkingPieces));
     }
 
     /**
-     * Returns diagonal attack vector between king and attacker
-     * @param king king to check
-     * @param attacker attacker to check
-     * @return list of positions on the path from attacker to king, including attacker
+     * Returns the squares a defender may move to in order to answer a check along vector.
+     * A pawn may also answer a check from a pawn that just pushed two squares by capturing it en passant
+     * @param board instance of board to check
+     * @param defender piece that would block or capture
+     * @param vector attack vector of the single checking piece
+     * @return bitboard of squares that resolve the check for defender
      */
-    private List<Position> getDiagonalAttackVector(Piece king, Piece attacker) {
-        List<Position> vector = new ArrayList<>(8);
-        //Attack from above left
-        if (attacker.getRank() > king.getRank() && attacker.getFile() < king.getFile()) {
-            for (int i = attacker.getRank(), j = attacker.getFile(); i > king.getRank() && j < king.getFile(); i--, j++) vector.add(new Position(i, j));
-            return vector;
-        }
-        //Attack from above right
-        else if (attacker.getRank() > king.getRank() && attacker.getFile() > king.getFile()) {
-            for (int i = attacker.getRank(), j = attacker.getFile(); i > king.getRank() && j > king.getFile(); i--, j--) vector.add(new Position(i, j));
-            return vector;
-        }
-        //Attack from below left
-        else if (attacker.getRank() < king.getRank() && attacker.getFile() < king.getFile()) {
-            for (int i = attacker.getRank(), j = attacker.getFile(); i < king.getRank() && j < king.getFile(); i++, j++) vector.add(new Position(i, j));
-            return vector;
-        }
-        //Attack from below right
-        else {
-            for (int i = attacker.getRank(), j = attacker.getFile(); i < king.getRank() && j > king.getFile(); i++, j--) vector.add(new Position(i, j));
-            return vector;
-        }
+    private long getBlockingSquares(Board board, Piece defender, long vector) {
+        int enPassant = board.getEnPassantSquare();
+        if (defender.pieceType != PieceType.PAWN || enPassant == -1) return vector;
+        //The pawn that skipped past the en passant square stands one rank beyond it
+        int pushedPawn = (Bitboards.rankOf(enPassant) == 2) ? enPassant + 8 : enPassant - 8;
+        return (vector == Bitboards.bit(pushedPawn)) ? vector | Bitboards.bit(enPassant) : vector;
     }
 
     //TODO
@@ -547,34 +561,93 @@ public class PieceLogic {
     //REMOVE ILLEGAL MOVES LOGIC
     /**
      * Removes all illegal moves from input color pieces if input color is in check
-     * @param attackers potential attackers
-     * @param defenders potential defenders
+     * @param board instance of board to check
      * @param king  king being attacked
      */
-    public void removeIllegalMoves(List<Piece> attackers, List<Piece> defenders, Piece king) {
-        List<Piece> checkingPieces = getCheckingPieces(attackers, king);
+    public void removeIllegalMoves(Board board, Piece king) {
+        long checkingPieces = getCheckingPieces(board, king);
+        List<Piece> defenders = board.getColorPieces(king.color);
         //If there is more than one check but no checkmate, only piece that can move is the king
-        if (checkingPieces.size() > 1) {
+        if (Long.bitCount(checkingPieces) > 1) {
             for (Piece piece : defenders) {
                 if (piece.pieceType != PieceType.KING) piece.getMoves().clear();
             }
             return;
         }
-        List<Position> attackVector = getAttackVector(king, checkingPieces.get(0));
+        long attackVector = getAttackVector(board, king, checkingPieces);
         for (Piece piece : defenders) {
-            if (piece.pieceType != PieceType.KING) removeNonBlockingMoves(attackVector, piece);
+            if (piece.pieceType != PieceType.KING) removeNonBlockingMoves(getBlockingSquares(board, piece, attackVector), piece);
         }
     }
 
     /**
      * Removes all moves from piece's move list that don't block the attack vector
-     * @param attackVector list of moves along path from attacker to king, including attacker
+     * @param attackVector bitboard of squares along path from attacker to king, including attacker
      * @param piece potential defender
      */
-    private void removeNonBlockingMoves(List<Position> attackVector, Piece piece) {
+    private void removeNonBlockingMoves(long attackVector, Piece piece) {
         //For each move in move list, only keep it if the attackVector contains a matching position
-        piece.getMoves().removeAll(piece.getMoves().stream()
-                .filter(e -> !attackVector.contains(e))
-                .toList());
+        List<Position> moves = piece.getMoves();
+        for (int i = moves.size() - 1; i >= 0; i--) {
+            if ((attackVector & Bitboards.bit(Bitboards.square(moves.get(i).rank, moves.get(i).file))) == 0) moves.remove(i);
+        }
+    }
+
+    //LEGAL MOVE LOGIC
+    /**
+     * Returns true if moving piece to target does not leave its own king attacked, and for castling,
+     * that the king is not in check and does not pass through an attacked square.
+     * Works on bitboards alone so the move never has to be played out on the board
+     * @param board instance of board to check
+     * @param piece piece being moved
+     * @param target position piece moves to, taken from piece's possible moves
+     * @return true if the move is legal, false otherwise
+     */
+    public boolean isLegalMove(Board board, Piece piece, Position target) {
+        int from = Bitboards.square(piece.getRank(), piece.getFile());
+        int to = Bitboards.square(target.rank, target.file);
+        boolean enPassant = piece.pieceType == PieceType.PAWN && to == board.getEnPassantSquare();
+        return isLegal(board, piece.color, from, to, piece.pieceType == PieceType.KING, enPassant);
+    }
+
+    /**
+     * Returns true if a packed move from generatePseudoLegalMoves does not leave its own king attacked
+     * @param board instance of board to check
+     * @param move packed move for the side to move
+     * @return true if the move is legal, false otherwise
+     */
+    public boolean isLegalMove(Board board, int move) {
+        int from = Move.from(move);
+        Color color = board.getTurnColor();
+        boolean king = (board.getBitboard(color, PieceType.KING) & Bitboards.bit(from)) != 0;
+        return isLegal(board, color, from, Move.to(move), king, Move.is(move, Move.EN_PASSANT));
+    }
+
+    /**
+     * Shared legality test for both forms of isLegalMove
+     * @param board instance of board to check
+     * @param color color of the moving piece
+     * @param from square moved from
+     * @param to square moved to
+     * @param king true if the moving piece is the king
+     * @param enPassant true if the move is a pawn capturing en passant
+     * @return true if the move is legal, false otherwise
+     */
+    private boolean isLegal(Board board, Color color, int from, int to, boolean king, boolean enPassant) {
+        Color attackerColor = otherColor(color);
+        long occupied = (board.getOccupancy() & ~Bitboards.bit(from)) | Bitboards.bit(to);
+        long captured = Bitboards.bit(to);
+        if (king) {
+            //Castling king may not start in check or cross an attacked square
+            if (Math.abs(to - from) == 2
+                    && (board.getAttackedSquares(attackerColor) & (Bitboards.bit(from) | Bitboards.bit((from + to) / 2))) != 0) return false;
+            return (attackersTo(board, to, attackerColor, occupied) & ~captured) == 0;
+        }
+        //En passant removes a pawn from a square other than the target, which may expose the king along a rank
+        if (enPassant) {
+            captured = Bitboards.bit(Bitboards.square(Bitboards.rankOf(from), Bitboards.fileOf(to)));
+            occupied &= ~captured;
+        }
+        return (attackersTo(board, board.getKingSquare(color), attackerColor, occupied) & ~captured) == 0;
     }
-}
\ No newline at end of file
+}
@@ -4,25 +4,44 @@
 public class Position {
     int rank; //Rank (y) position on the board
     int file; //File (x) position on the board
+    private static final Position[] SQUARES = new Position[64]; //Shared instance for each square, indexed by rank * 8 + file
+
+    static {
+        for (int i = 0; i < 64; i++) SQUARES[i] = new Position(i >>> 3, i & 7);
+    }
 
     /**
-     * Constructor for Position class
+     * Constructor for Position class, private so every square has exactly one instance
      * @param rank starting rank
      * @param file starting file
      */
-    public Position(int rank, int file) {
+    private Position(int rank, int file) {
         this.rank = rank;
         this.file = file;
     }
 
     /**
-     * Compares two positions
-     * @param o position to compare to
-     * @return true if rank and file are equivalent, false otherwise
+     * Returns the shared position for a square, so moving pieces around doesn't allocate
+     * @param square square index, rank * 8 + file
+     * @return position of square
+     */
+    public static Position of(int square) { return SQUARES[square]; }
+
+    /**
+     * Returns the shared position for a rank and file. Positions are never created anywhere else,
+     * so two positions are equal exactly when they are the same instance and equals is left as identity
+     * @param rank rank of the square
+     * @param file file of the square
+     * @return position of square
+     */
+    public static Position of(int rank, int file) { return SQUARES[rank * 8 + file]; }
+
+    /**
+     * Returns this position in algebraic notation
+     * @return file letter followed by rank number, ex. e4
      */
     @Override
-    public boolean equals(Object o) {
-        Position otherPos = (Position)o;
-        return (this.rank == otherPos.rank) && (this.file == otherPos.file);
+    public String toString() {
+        return "" + (char) ('a' + file) + (rank + 1);
     }
 }
@@ -0,0 +1,278 @@
+/**
+ * Immutable copy of a position: one bitboard per piece type, one for the white pieces, the Zobrist key and the
+ * rest of the state packed into an int. Board.snapshot takes one in constant time, and since nothing in it can
+ * change it can be handed to any number of threads and read without locks while the game goes on.
+ * Playing a move returns a new snapshot and leaves this one as it was
+ */
+public final class PositionSnapshot {
+    private static final String FEN_LETTERS = "prnbqk"; //Lowercase FEN letter of each piece type, indexed by ordinal
+    //Layout of state: black to move in bit 0, then the fields below
+    private static final int CASTLING_SHIFT = 1;
+    private static final int EN_PASSANT_SHIFT = 5; //Stored plus one so that no square is 0
+    private static final int HALFMOVE_SHIFT = 12; //16 bits, halfmove clocks above 65535 are stored as 65535
+
+    private final long pawns;
+    private final long rooks;
+    private final long knights;
+    private final long bishops;
+    private final long queens;
+    private final long kings;
+    private final long white; //Squares of the white pieces, the rest of the occupied squares are black
+    private final long key; //Zobrist key, the same as Board's for the position
+    private final int state; //Side to move, castling rights, en passant square and halfmove clock
+    private final int fullmoveNumber;
+
+    /**
+     * Constructor for PositionSnapshot class
+     */
+    private PositionSnapshot(long pawns, long rooks, long knights, long bishops, long queens, long kings, long white,
+                             long key, int state, int fullmoveNumber) {
+        this.pawns = pawns;
+        this.rooks = rooks;
+        this.knights = knights;
+        this.bishops = bishops;
+        this.queens = queens;
+        this.kings = kings;
+        this.white = white;
+        this.key = key;
+        this.state = state;
+        this.fullmoveNumber = fullmoveNumber;
+    }
+
+    /**
+     * Returns a snapshot of a board's position, see Board.snapshot
+     * @param board board to copy
+     * @return snapshot of the board as it is now
+     */
+    static PositionSnapshot of(Board board) {
+        long[] bitboards = board.bitboards;
+        int black = 6;
+        return new PositionSnapshot(bitboards[0] | bitboards[black], bitboards[1] | bitboards[black + 1],
+                bitboards[2] | bitboards[black + 2], bitboards[3] | bitboards[black + 3], bitboards[4] | bitboards[black + 4],
+                bitboards[5] | bitboards[black + 5], board.colorOccupancy[Color.WHITE.ordinal()], board.zobristKey,
+                packState(board.turnColor == Color.BLACK, board.castlingRights, board.enPassantSquare, board.halfmoveClock),
+                board.fullmoveNumber);
+    }
+
+    /**
+     * Packs the side to move, castling rights, en passant square and halfmove clock into one int
+     */
+    private static int packState(boolean blackToMove, int castlingRights, int enPassantSquare, int halfmoveClock) {
+        return (blackToMove ? 1 : 0) | castlingRights << CASTLING_SHIFT | (enPassantSquare + 1) << EN_PASSANT_SHIFT
+             | Math.min(halfmoveClock, 0xFFFF) << HALFMOVE_SHIFT;
+    }
+
+    /**
+     * Returns the position after a move, like Board.makeMove the move is not checked for legality
+     * @param move packed move from PieceLogic
+     * @return new snapshot, this one is unchanged
+     */
+    public PositionSnapshot play(int move) {
+        int from = Move.from(move);
+        int to = Move.to(move);
+        Color color = getTurnColor();
+        Color enemyColor = (color == Color.WHITE) ? Color.BLACK : Color.WHITE;
+        int moverIndex = Board.bitboardIndex(color, getPieceTypeAt(from));
+        int enPassantSquare = getEnPassantSquare();
+        long[] types = { pawns, rooks, knights, bishops, queens, kings };
+        long whiteSquares = white;
+        long newKey = key ^ Zobrist.castling(getCastlingRights()) ^ Zobrist.enPassant(enPassantSquare) ^ Zobrist.side();
+
+        //Take the captured piece off, en passant captures the pawn beside the moving one
+        int capturedSquare = to;
+        if (moverIndex % 6 == PieceType.PAWN.ordinal() && to == enPassantSquare) capturedSquare = (color == Color.WHITE) ? to - 8 : to + 8;
+        PieceType captured = getPieceTypeAt(capturedSquare);
+        if (captured != null) {
+            long capturedBit = Bitboards.bit(capturedSquare);
+            types[captured.ordinal()] &= ~capturedBit;
+            whiteSquares &= ~capturedBit;
+            newKey ^= Zobrist.piece(Board.bitboardIndex(enemyColor, captured), capturedSquare);
+        }
+        //Move the piece, then swap a promoting pawn for its new piece
+        long moveBits = Bitboards.bit(from) | Bitboards.bit(to);
+        types[moverIndex % 6] ^= moveBits;
+        if (color == Color.WHITE) whiteSquares ^= moveBits;
+        newKey ^= Zobrist.piece(moverIndex, from) ^ Zobrist.piece(moverIndex, to);
+        PieceType promotion = Move.promotion(move);
+        if (promotion != null) {
+            types[PieceType.PAWN.ordinal()] &= ~Bitboards.bit(to);
+            types[promotion.ordinal()] |= Bitboards.bit(to);
+            newKey ^= Zobrist.piece(moverIndex, to) ^ Zobrist.piece(Board.bitboardIndex(color, promotion), to);
+        }
+        //A castling king brings its rook along
+        if (moverIndex % 6 == PieceType.KING.ordinal() && Math.abs(to - from) == 2) {
+            int rookFrom = (to > from) ? from + 3 : from - 4;
+            int rookTo = (from + to) / 2;
+            long rookBits = Bitboards.bit(rookFrom) | Bitboards.bit(rookTo);
+            types[PieceType.ROOK.ordinal()] ^= rookBits;
+            if (color == Color.WHITE) whiteSquares ^= rookBits;
+            int rookIndex = Board.bitboardIndex(color, PieceType.ROOK);
+            newKey ^= Zobrist.piece(rookIndex, rookFrom) ^ Zobrist.piece(rookIndex, rookTo);
+        }
+
+        int castlingRights = getCastlingRights() & Board.CASTLE_MASK[from] & Board.CASTLE_MASK[to];
+        //A double pawn push leaves the skipped square open to en passant for one move
+        int newEnPassant = (moverIndex % 6 == PieceType.PAWN.ordinal() && Math.abs(to - from) == 16) ? (from + to) / 2 : -1;
+        newKey ^= Zobrist.castling(castlingRights) ^ Zobrist.enPassant(newEnPassant);
+        int halfmoveClock = (moverIndex % 6 == PieceType.PAWN.ordinal() || captured != null) ? 0 : getHalfmoveClock() + 1;
+        return new PositionSnapshot(types[0], types[1], types[2], types[3], types[4], types[5], whiteSquares, newKey,
+                packState(color == Color.WHITE, castlingRights, newEnPassant, halfmoveClock),
+                (color == Color.BLACK) ? fullmoveNumber + 1 : fullmoveNumber);
+    }
+
+    /**
+     * Returns the bitboard of a piece type, both colors
+     * @param pieceType piece type
+     * @return bitboard of every piece of the type
+     */
+    public long getBitboard(PieceType pieceType) {
+        switch (pieceType) {
+            case PAWN: return pawns;
+            case ROOK: return rooks;
+            case KNIGHT: return knights;
+            case BISHOP: return bishops;
+            case QUEEN: return queens;
+            default: return kings;
+        }
+    }
+
+    /**
+     * Returns the bitboard of one color's pieces of a type
+     * @param color color of the pieces
+     * @param pieceType piece type
+     * @return bitboard of the pieces
+     */
+    public long getBitboard(Color color, PieceType pieceType) { return getBitboard(pieceType) & getColorOccupancy(color); }
+
+    /**
+     * Returns the squares occupied by one color
+     * @param color color of the pieces
+     * @return bitboard of the color's pieces
+     */
+    public long getColorOccupancy(Color color) { return (color == Color.WHITE) ? white : getOccupancy() & ~white; }
+
+    /**
+     * Returns the squares occupied by any piece
+     * @return bitboard of every piece
+     */
+    public long getOccupancy() { return pawns | rooks | knights | bishops | queens | kings; }
+
+    /**
+     * Returns the type of the piece on a square
+     * @param square square to look at
+     * @return piece type, null if the square is empty
+     */
+    public PieceType getPieceTypeAt(int square) {
+        long bit = Bitboards.bit(square);
+        if ((pawns & bit) != 0) return PieceType.PAWN;
+        if ((rooks & bit) != 0) return PieceType.ROOK;
+        if ((knights & bit) != 0) return PieceType.KNIGHT;
+        if ((bishops & bit) != 0) return PieceType.BISHOP;
+        if ((queens & bit) != 0) return PieceType.QUEEN;
+        if ((kings & bit) != 0) return PieceType.KING;
+        return null;
+    }
+
+    /**
+     * Returns the color of the piece on a square
+     * @param square square to look at
+     * @return color of the piece, null if the square is empty
+     */
+    public Color getColorAt(int square) {
+        long bit = Bitboards.bit(square);
+        if ((white & bit) != 0) return Color.WHITE;
+        return ((getOccupancy() & bit) != 0) ? Color.BLACK : null;
+    }
+
+    /**
+     * Returns the color whose turn it is to move
+     * @return color to move
+     */
+    public Color getTurnColor() { return ((state & 1) != 0) ? Color.BLACK : Color.WHITE; }
+
+    /**
+     * Returns the castling rights still available
+     * @return bitmask of Board.CASTLE_ flags
+     */
+    public int getCastlingRights() { return state >>> CASTLING_SHIFT & 15; }
+
+    /**
+     * Returns the square a pawn may capture onto en passant
+     * @return en passant square, -1 if none
+     */
+    public int getEnPassantSquare() { return (state >>> EN_PASSANT_SHIFT & 127) - 1; }
+
+    /**
+     * Returns the number of moves since the last capture or pawn move
+     * @return halfmove clock
+     */
+    public int getHalfmoveClock() { return state >>> HALFMOVE_SHIFT; }
+
+    /**
+     * Returns the number of the current full move
+     * @return full move number, starting at 1
+     */
+    public int getFullmoveNumber() { return fullmoveNumber; }
+
+    /**
+     * Returns the Zobrist key of the position, equal to Board.getZobristKey for the same position
+     * @return 64-bit position key
+     */
+    public long getZobristKey() { return key; }
+
+    /**
+     * Returns the position in Forsyth-Edwards Notation
+     * @return FEN string, ex. "rnbqkbnr/pppppppp/8/8/4P3/8/PPPP1PPP/RNBQKBNR b KQkq e3 0 1"
+     */
+    public String toFen() {
+        StringBuilder fen = new StringBuilder(90);
+        for (int rank = 7; rank >= 0; rank--) {
+            int empty = 0;
+            for (int file = 0; file < 8; file++) {
+                int square = Bitboards.square(rank, file);
+                PieceType pieceType = getPieceTypeAt(square);
+                if (pieceType == null) {
+                    empty++;
+                    continue;
+                }
+                if (empty > 0) fen.append(empty);
+                empty = 0;
+                char letter = FEN_LETTERS.charAt(pieceType.ordinal());
+                fen.append(((white & Bitboards.bit(square)) != 0) ? Character.toUpperCase(letter) : letter);
+            }
+            if (empty > 0) fen.append(empty);
+            if (rank > 0) fen.append('/');
+        }
+        int castlingRights = getCastlingRights();
+        fen.append((getTurnColor() == Color.WHITE) ? " w " : " b ");
+        if (castlingRights == 0) fen.append('-');
+        if ((castlingRights & Board.CASTLE_WHITE_KINGSIDE) != 0) fen.append('K');
+        if ((castlingRights & Board.CASTLE_WHITE_QUEENSIDE) != 0) fen.append('Q');
+        if ((castlingRights & Board.CASTLE_BLACK_KINGSIDE) != 0) fen.append('k');
+        if ((castlingRights & Board.CASTLE_BLACK_QUEENSIDE) != 0) fen.append('q');
+        fen.append(' ').append((getEnPassantSquare() == -1) ? "-" : Position.of(getEnPassantSquare()).toString());
+        fen.append(' ').append(getHalfmoveClock()).append(' ').append(fullmoveNumber);
+        return fen.toString();
+    }
+
+    /**
+     * Returns true if another snapshot holds the same position, move counters included
+     * @param other object to compare with
+     * @return true if every field is equal
+     */
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) return true;
+        if (!(other instanceof PositionSnapshot)) return false;
+        PositionSnapshot snapshot = (PositionSnapshot) other;
+        return key == snapshot.key && state == snapshot.state && fullmoveNumber == snapshot.fullmoveNumber
+            && white == snapshot.white && pawns == snapshot.pawns && rooks == snapshot.rooks && knights == snapshot.knights
+            && bishops == snapshot.bishops && queens == snapshot.queens && kings == snapshot.kings;
+    }
+
+    @Override
+    public int hashCode() { return Long.hashCode(key); }
+
+    @Override
+    public String toString() { return toFen(); }
+}
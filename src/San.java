@@ -0,0 +1,109 @@
+/**
+ * Reads moves in Standard Algebraic Notation, ex. "e4", "Nbd7", "exd8=Q+" or "O-O", by matching them against the
+ * legal moves of a position. Nothing is allocated, so games can be replayed move by move without garbage
+ */
+public class San {
+    /**
+     * Finds the legal move a SAN token describes. Check and annotation suffixes (+, #, !, ?) are ignored,
+     * castling may be written with O or 0 and long algebraic forms such as "Ng1-f3" are accepted
+     * @param board position the move is played in
+     * @param logic move generator
+     * @param moves buffer of at least Move.MAX_MOVES entries, overwritten with the legal moves of the position
+     * @param san characters holding the token
+     * @param start index of the first character of the token
+     * @param end index just past the last character of the token
+     * @return the packed move, Move.NONE if the token isn't SAN or doesn't match exactly one legal move
+     */
+    public static int parse(Board board, PieceLogic logic, int[] moves, CharSequence san, int start, int end) {
+        while (end > start && isSuffix(san.charAt(end - 1))) end--;
+        if (end - start < 2) return Move.NONE;
+        int count = logic.generateLegalMoves(board, board.getTurnColor(), moves);
+
+        char first = san.charAt(start);
+        if (first == 'O' || first == '0') return parseCastle(moves, count, san, start, end);
+
+        PieceType pieceType = PieceType.PAWN;
+        if (first >= 'A' && first <= 'Z') {
+            pieceType = pieceTypeOf(first);
+            if (pieceType == null || pieceType == PieceType.PAWN) return Move.NONE;
+            start++;
+        }
+        //Promotion piece, with or without the "="
+        PieceType promotion = null;
+        char last = san.charAt(end - 1);
+        if (pieceType == PieceType.PAWN && (last < '1' || last > '8')) {
+            promotion = pieceTypeOf(Character.toUpperCase(last));
+            if (promotion == null || promotion == PieceType.PAWN || promotion == PieceType.KING) return Move.NONE;
+            end--;
+            if (end > start && san.charAt(end - 1) == '=') end--;
+        }
+        if (end - start < 2) return Move.NONE;
+        int toFile = san.charAt(end - 2) - 'a';
+        int toRank = san.charAt(end - 1) - '1';
+        if (toFile < 0 || toFile > 7 || toRank < 0 || toRank > 7) return Move.NONE;
+        int to = Bitboards.square(toRank, toFile);
+        //Anything between the piece letter and the destination disambiguates or marks a capture
+        int fromFile = -1;
+        int fromRank = -1;
+        for (int i = start; i < end - 2; i++) {
+            char c = san.charAt(i);
+            if (c >= 'a' && c <= 'h') fromFile = c - 'a';
+            else if (c >= '1' && c <= '8') fromRank = c - '1';
+            else if (c != 'x' && c != '-' && c != ':') return Move.NONE;
+        }
+
+        int found = Move.NONE;
+        for (int i = 0; i < count; i++) {
+            int move = moves[i];
+            int from = Move.from(move);
+            if (Move.to(move) != to || Move.promotion(move) != promotion || Move.is(move, Move.CASTLE)) continue;
+            if (board.getPieceAt(from).pieceType != pieceType) continue;
+            if ((fromFile != -1 && (from & 7) != fromFile) || (fromRank != -1 && from >>> 3 != fromRank)) continue;
+            if (found != Move.NONE) return Move.NONE; //Ambiguous
+            found = move;
+        }
+        return found;
+    }
+
+    /**
+     * Finds the castling move a token describes
+     * @param moves legal moves of the position
+     * @param count number of legal moves
+     * @param san characters holding the token, suffixes already removed
+     * @param start index of the first character of the token
+     * @param end index just past the last character of the token
+     * @return the castling move, Move.NONE if the token isn't "O-O" or "O-O-O" or castling isn't legal
+     */
+    private static int parseCastle(int[] moves, int count, CharSequence san, int start, int end) {
+        int length = end - start;
+        if (length != 3 && length != 5) return Move.NONE;
+        for (int i = start; i < end; i++) {
+            char c = san.charAt(i);
+            if (((i - start) % 2 == 0) ? (c != 'O' && c != '0') : c != '-') return Move.NONE;
+        }
+        int toFile = (length == 3) ? 6 : 2;
+        for (int i = 0; i < count; i++) {
+            if (Move.is(moves[i], Move.CASTLE) && (Move.to(moves[i]) & 7) == toFile) return moves[i];
+        }
+        return Move.NONE;
+    }
+
+    private static boolean isSuffix(char c) { return c == '+' || c == '#' || c == '!' || c == '?'; }
+
+    /**
+     * Returns the piece type for an uppercase SAN letter
+     * @param c piece letter
+     * @return matching piece type, null if c is not a piece letter
+     */
+    private static PieceType pieceTypeOf(char c) {
+        switch (c) {
+            case 'P': return PieceType.PAWN;
+            case 'N': return PieceType.KNIGHT;
+            case 'B': return PieceType.BISHOP;
+            case 'R': return PieceType.ROOK;
+            case 'Q': return PieceType.QUEEN;
+            case 'K': return PieceType.KING;
+            default: return null;
+        }
+    }
+}
@@ -0,0 +1,488 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Computer player. Runs a negamax alpha-beta search with principal variation search, deepening one ply at a time until
+ * the depth or time limit is reached. MoveOrdering puts the moves most likely to cut off first, the transposition table
+ * cuts off positions already searched, and captures are played out by a quiescence search so positions are only
+ * evaluated once nothing is hanging. A Search owns its move buffers and ordering tables, so each thread searching
+ * needs its own
+ *
+ * Usage:
+ *   java Search [--depth N] [--time ms] [--hash MB] [--threads N] [--book file] [--tb dir] [fen]
+ *                                  analyse a position, the start position by default. With a book, a position
+ *                                  in the book is answered with a book move instead of searching, and with
+ *                                  tablebases, positions in the tables are scored without searching them
+ */
+public class Search {
+    public static final int INFINITY = 32000;
+    public static final int MATE = 31000; //Score for giving mate at the root, mate in n plies scores MATE - n
+    public static final int MAX_PLY = 128;
+    private static final int MATE_BOUND = MATE - MAX_PLY; //Scores at least this far from 0 are mate scores
+
+    private final PieceLogic logic = new PieceLogic();
+    private final TranspositionTable table;
+    private final int[][] moveBuffers = new int[MAX_PLY + 1][Move.MAX_MOVES]; //Moves at each ply, reused between nodes
+    private final int[][] pv = new int[MAX_PLY + 1][MAX_PLY + 1]; //Best line found from each ply
+    private final int[] pvLength = new int[MAX_PLY + 1]; //End of the line in pv at each ply
+    private final int[] moveCounts = new int[MAX_PLY + 1]; //Legal moves of the side to move at each ply, for mobility
+    private final int[][] moveScores = new int[MAX_PLY + 1][Move.MAX_MOVES]; //Ordering score of each move in moveBuffers
+    private final int[] playedMoves = new int[MAX_PLY + 1]; //Move being searched at each ply, for counter moves
+    private final MoveOrdering ordering = new MoveOrdering(logic);
+    private Board board; //Board being searched, played on and restored with make and unmake
+    private long nodes; //Nodes visited in the current search
+    private long deadline; //System.nanoTime at which the search stops, Long.MAX_VALUE if there is no time limit
+    private long nodeLimit = Long.MAX_VALUE; //Nodes after which the search stops, Long.MAX_VALUE if there is no limit
+    private int rootDepth; //Depth of the current iteration
+    private volatile boolean stopped; //Set when the search runs out of time or is stopped from another thread
+    private Consumer<Result> listener; //Told about each completed iteration, null if none
+    private Tablebases tablebases; //Endgame tables that score positions without searching them, null if none
+
+    /**
+     * Constructor for Search class
+     * @param table transposition table to use, may be shared with other searches
+     */
+    public Search(TranspositionTable table) {
+        this.table = table;
+    }
+
+    /**
+     * Sets a listener told about the result of every completed iteration, for printing progress
+     * @param listener listener to call, null for none
+     */
+    public void setListener(Consumer<Result> listener) { this.listener = listener; }
+
+    /**
+     * Sets the endgame tables used to score positions with few enough men exactly instead of searching them
+     * @param tablebases tables to probe, null for none
+     */
+    public void setTablebases(Tablebases tablebases) { this.tablebases = tablebases; }
+
+    /**
+     * Sets which move ordering heuristics the search uses, for measuring what each one saves
+     * @param features MoveOrdering feature constants ORed together, MoveOrdering.ALL by default
+     */
+    void setOrderingFeatures(int features) { ordering.setFeatures(features); }
+
+    /**
+     * Sets the number of nodes after which searches stop, checked as often as the time limit. Like the time
+     * limit it doesn't cut the first iteration short
+     * @param nodeLimit node count to stop at, 0 for no limit
+     */
+    public void setNodeLimit(long nodeLimit) { this.nodeLimit = (nodeLimit > 0) ? nodeLimit : Long.MAX_VALUE; }
+
+    /**
+     * Stops a running search, which returns the result of the last completed iteration. Safe to call from any thread
+     */
+    public void stop() { stopped = true; }
+
+    /**
+     * Clears an earlier stop. Called before a search is handed to another thread to run with iterate,
+     * so that a stop sent before the thread starts isn't lost
+     */
+    void clearStop() { stopped = false; }
+
+    /**
+     * Returns the number of nodes visited by the current or last search.
+     * Read from another thread while searching, the count may be slightly behind
+     * @return node count
+     */
+    public long getNodes() { return nodes; }
+
+    /**
+     * Finds the best move for the side to move. The first iteration always completes, so a legal move is
+     * returned whenever there is one even if the time limit is very short
+     * @param board position to search, restored to the same position when the search returns
+     * @param maxDepth deepest iteration to search, at most MAX_PLY
+     * @param timeMillis time limit in milliseconds, 0 for no limit
+     * @return result of the deepest completed iteration
+     */
+    public Result search(Board board, int maxDepth, long timeMillis) {
+        stopped = false;
+        table.newSearch();
+        return iterate(board, 1, maxDepth, timeMillis);
+    }
+
+    /**
+     * Runs the iterations of a search without starting a new table generation, so helper threads of a parallel
+     * search can join the main thread's search
+     * @param board position to search, must not be used by any other thread while searching
+     * @param firstDepth depth of the first iteration
+     * @param maxDepth deepest iteration to search, at most MAX_PLY
+     * @param timeMillis time limit in milliseconds, 0 for no limit
+     * @return result of the deepest completed iteration
+     */
+    Result iterate(Board board, int firstDepth, int maxDepth, long timeMillis) {
+        this.board = board;
+        nodes = 0;
+        ordering.clear();
+        long start = System.nanoTime();
+        deadline = (timeMillis > 0) ? start + timeMillis * 1_000_000 : Long.MAX_VALUE;
+        Result result = null;
+        for (rootDepth = firstDepth; rootDepth <= Math.min(maxDepth, MAX_PLY); rootDepth++) {
+            int score = negamax(rootDepth, 0, -INFINITY, INFINITY);
+            //An unfinished iteration may not have looked at the best move yet, so it is thrown away
+            if (stopped && result != null) break;
+            result = new Result(rootDepth, score, Arrays.copyOf(pv[0], pvLength[0]), nodes, System.nanoTime() - start);
+            if (listener != null) listener.accept(result);
+            //A mate found within this depth is the shortest one, deeper iterations can't improve on it
+            if (stopped || Math.abs(score) >= MATE_BOUND) break;
+            //The next iteration takes several times as long as this one, so don't start it unless most of the time is left
+            if (timeMillis > 0 && (System.nanoTime() - start) * 2 > timeMillis * 1_000_000) break;
+        }
+        return result;
+    }
+
+    /**
+     * Searches a position to a fixed depth
+     * @param depth remaining depth in plies
+     * @param ply distance from the root
+     * @param alpha lowest score the side to move is already guaranteed
+     * @param beta score above which the opponent will avoid this position
+     * @return score of the position from the point of view of the side to move
+     */
+    private int negamax(int depth, int ply, int alpha, int beta) {
+        if (depth <= 0) return quiesce(ply, alpha, beta);
+        pvLength[ply] = ply;
+        if ((++nodes & 2047) == 0) checkTime();
+        if (stopped) return 0;
+        if (ply > 0 && board.isRepetition()) return 0;
+        if (ply >= MAX_PLY) return Evaluation.evaluate(board);
+        if (ply > 0 && tablebases != null) {
+            int score = probeTablebases(ply);
+            if (score != INFINITY) return score;
+        }
+
+        Color color = board.getTurnColor();
+        boolean inCheck = logic.inCheck(board, color);
+        //Search checks a ply deeper so a mate or an escape just past the horizon isn't missed
+        if (inCheck) depth++;
+
+        long key = board.getZobristKey();
+        long entry = table.probe(key);
+        int tableMove = Move.NONE;
+        if (entry != 0) {
+            tableMove = TranspositionTable.move(entry);
+            //Only cut off outside the principal variation, so the line it returns stays complete
+            if (ply > 0 && beta - alpha == 1 && TranspositionTable.depth(entry) >= depth) {
+                int score = scoreFromTable(TranspositionTable.score(entry), ply);
+                int bound = TranspositionTable.bound(entry);
+                if (bound == TranspositionTable.BOUND_EXACT
+                        || (bound == TranspositionTable.BOUND_LOWER && score >= beta)
+                        || (bound == TranspositionTable.BOUND_UPPER && score <= alpha)) return score;
+            }
+        }
+
+        int[] moves = moveBuffers[ply];
+        int count = logic.generateLegalMoves(board, color, moves);
+        if (count == 0) return inCheck ? -MATE + ply : 0;
+        moveCounts[ply] = count;
+        int[] scores = moveScores[ply];
+        int previousMove = (ply > 0) ? playedMoves[ply - 1] : Move.NONE;
+        ordering.score(board, moves, scores, count, tableMove, ply, previousMove);
+
+        int originalAlpha = alpha;
+        int bestScore = -INFINITY;
+        int bestMove = Move.NONE;
+        for (int i = 0; i < count; i++) {
+            int move = MoveOrdering.pick(moves, scores, i, count);
+            playedMoves[ply] = move;
+            board.makeMove(move);
+            int score;
+            if (i == 0) score = -negamax(depth - 1, ply + 1, -beta, -alpha);
+            else {
+                //Prove the move is no better than the first with a null window, and only search it fully if it is
+                score = -negamax(depth - 1, ply + 1, -alpha - 1, -alpha);
+                if (score > alpha && score < beta) score = -negamax(depth - 1, ply + 1, -beta, -alpha);
+            }
+            board.unmakeMove();
+            if (stopped) return 0;
+            if (score > bestScore) {
+                bestScore = score;
+                bestMove = move;
+                if (score > alpha) {
+                    alpha = score;
+                    updatePv(ply, move);
+                    if (score >= beta) {
+                        if (!MoveOrdering.isTactical(move)) ordering.cutoff(board, move, ply, previousMove, depth);
+                        break;
+                    }
+                }
+            }
+        }
+        int bound = (bestScore >= beta) ? TranspositionTable.BOUND_LOWER
+                  : (bestScore > originalAlpha) ? TranspositionTable.BOUND_EXACT : TranspositionTable.BOUND_UPPER;
+        table.store(key, depth, bound, scoreToTable(bestScore, ply), bestMove);
+        return bestScore;
+    }
+
+    /**
+     * Searches captures and promotions only, until the position is quiet. The side to move may also stand pat
+     * on the static evaluation instead of capturing, unless it is in check, in which case every evasion is searched
+     * @param ply distance from the root
+     * @param alpha lowest score the side to move is already guaranteed
+     * @param beta score above which the opponent will avoid this position
+     * @return score of the position from the point of view of the side to move
+     */
+    private int quiesce(int ply, int alpha, int beta) {
+        pvLength[ply] = ply;
+        if ((++nodes & 2047) == 0) checkTime();
+        if (stopped) return 0;
+        if (ply >= MAX_PLY) return Evaluation.evaluate(board);
+        if (tablebases != null) {
+            int score = probeTablebases(ply);
+            if (score != INFINITY) return score;
+        }
+
+        Color color = board.getTurnColor();
+        boolean inCheck = logic.inCheck(board, color);
+        int[] moves = moveBuffers[ply];
+        int count = logic.generateLegalMoves(board, color, moves);
+        if (count == 0 && inCheck) return -MATE + ply;
+        moveCounts[ply] = count;
+        int bestScore = -INFINITY;
+        if (!inCheck) {
+            //Mobility compares with the opponent's moves a ply earlier, which is close enough and costs nothing
+            bestScore = Evaluation.evaluate(board, count, (ply > 0) ? moveCounts[ply - 1] : count);
+            if (bestScore >= beta) return bestScore;
+            if (bestScore > alpha) alpha = bestScore;
+        }
+
+        //Out of check only captures and promotions are searched, so the rest are dropped before scoring
+        if (!inCheck) {
+            int tactical = 0;
+            for (int i = 0; i < count; i++) {
+                if (MoveOrdering.isTactical(moves[i])) moves[tactical++] = moves[i];
+            }
+            count = tactical;
+        }
+        int[] scores = moveScores[ply];
+        ordering.score(board, moves, scores, count, Move.NONE, ply, (ply > 0) ? playedMoves[ply - 1] : Move.NONE);
+        for (int i = 0; i < count; i++) {
+            int move = MoveOrdering.pick(moves, scores, i, count);
+            //Captures that lose material are ordered last and not worth searching unless escaping check
+            if (!inCheck && scores[i] < 0) break;
+            playedMoves[ply] = move;
+            board.makeMove(move);
+            int score = -quiesce(ply + 1, -beta, -alpha);
+            board.unmakeMove();
+            if (stopped) return 0;
+            if (score > bestScore) {
+                bestScore = score;
+                if (score > alpha) {
+                    alpha = score;
+                    updatePv(ply, move);
+                    if (score >= beta) break;
+                }
+            }
+        }
+        return bestScore;
+    }
+
+    /**
+     * Makes move followed by the best line from the next ply the best line from ply
+     * @param ply ply the move is played at
+     * @param move best move found at ply
+     */
+    private void updatePv(int ply, int move) {
+        pv[ply][ply] = move;
+        System.arraycopy(pv[ply + 1], ply + 1, pv[ply], ply + 1, pvLength[ply + 1] - ply - 1);
+        pvLength[ply] = Math.max(pvLength[ply + 1], ply + 1);
+    }
+
+    /**
+     * Stops the search once the deadline has passed or the node limit is reached, except during the first iteration
+     */
+    private void checkTime() {
+        if (rootDepth > 1 && (System.nanoTime() > deadline || nodes >= nodeLimit)) stopped = true;
+    }
+
+    /**
+     * Converts a mate score from distance to the root into distance to this position, so it can be stored
+     * and reused when the position is reached at a different ply
+     * @param score score relative to the root
+     * @param ply distance from the root
+     * @return score relative to the position
+     */
+    private static int scoreToTable(int score, int ply) {
+        if (score >= MATE_BOUND) return score + ply;
+        if (score <= -MATE_BOUND) return score - ply;
+        return score;
+    }
+
+    /**
+     * Converts a mate score read from the table back into distance to the root
+     * @param score score relative to the position
+     * @param ply distance from the root
+     * @return score relative to the root
+     */
+    private static int scoreFromTable(int score, int ply) {
+        if (score >= MATE_BOUND) return score - ply;
+        if (score <= -MATE_BOUND) return score + ply;
+        return score;
+    }
+
+    /**
+     * Result of one completed iteration of a search
+     */
+    public static class Result {
+        private final int depth;
+        private final int score;
+        private final int[] pv;
+        private final long nodes;
+        private final long nanos;
+
+        Result(int depth, int score, int[] pv, long nodes, long nanos) {
+            this.depth = depth;
+            this.score = score;
+            this.pv = pv;
+            this.nodes = nodes;
+            this.nanos = nanos;
+        }
+
+        /**
+         * Returns the depth of the iteration
+         * @return depth in plies
+         */
+        public int getDepth() { return depth; }
+
+        /**
+         * Returns the score of the position for the side to move
+         * @return score in centipawns, or MATE minus the plies to mate, negative if the side to move is mated
+         */
+        public int getScore() { return score; }
+
+        /**
+         * Returns the best move
+         * @return packed move, Move.NONE if the side to move has no legal moves
+         */
+        public int getBestMove() { return (pv.length > 0) ? pv[0] : Move.NONE; }
+
+        /**
+         * Returns the principal variation, the line both sides are expected to play
+         * @return packed moves starting with the best move
+         */
+        public int[] getPv() { return pv.clone(); }
+
+        /**
+         * Returns the number of nodes searched from the start of the search to the end of this iteration
+         * @return node count
+         */
+        public long getNodes() { return nodes; }
+
+        /**
+         * Returns the time from the start of the search to the end of this iteration
+         * @return time in nanoseconds
+         */
+        public long getNanos() { return nanos; }
+
+        /**
+         * Returns the search speed up to this iteration
+         * @return nodes per second
+         */
+        public long getNps() { return (nanos == 0) ? 0 : nodes * 1_000_000_000L / nanos; }
+
+        /**
+         * Returns a one line summary, ex. "depth 6 score cp 35 nodes 412345 nps 2061725 time 200 pv e2e4 e7e5"
+         * @return summary of the iteration
+         */
+        @Override
+        public String toString() {
+            StringBuilder line = new StringBuilder("depth ").append(depth).append(" score ");
+            if (Math.abs(score) >= MATE_BOUND) {
+                int plies = MATE - Math.abs(score);
+                line.append("mate ").append((score > 0) ? (plies + 1) / 2 : -(plies / 2));
+            }
+            else line.append("cp ").append(score);
+            line.append(" nodes ").append(nodes).append(" nps ").append(getNps()).append(" time ").append(nanos / 1_000_000).append(" pv");
+            for (int move : pv) line.append(' ').append(Move.toString(move));
+            return line.toString();
+        }
+    }
+
+    /**
+     * Analyses a position and prints each iteration, see the class comment for usage
+     * @param args command line arguments
+     */
+    public static void main(String[] args) {
+        int depth = MAX_PLY;
+        long time = 0;
+        int hash = 64;
+        int threads = 1;
+        String bookFile = null;
+        String tablebaseDir = null;
+        int i = 0;
+        for (; i + 1 < args.length && args[i].startsWith("--"); i += 2) {
+            if (args[i].equals("--depth")) depth = Integer.parseInt(args[i + 1]);
+            else if (args[i].equals("--time")) time = Long.parseLong(args[i + 1]);
+            else if (args[i].equals("--hash")) hash = Integer.parseInt(args[i + 1]);
+            else if (args[i].equals("--threads")) threads = Integer.parseInt(args[i + 1]);
+            else if (args[i].equals("--book")) bookFile = args[i + 1];
+            else if (args[i].equals("--tb")) tablebaseDir = args[i + 1];
+        }
+        //Without a limit, search for ten seconds
+        if (depth == MAX_PLY && time == 0) time = 10_000;
+        Board board = (i < args.length) ? new Board(String.join(" ", List.of(args).subList(i, args.length))) : new Board();
+        if (bookFile != null) {
+            int move = probeBook(Paths.get(bookFile), board);
+            if (move != Move.NONE) {
+                System.out.println("bestmove " + Move.toString(move) + " (book)");
+                return;
+            }
+        }
+        Result result;
+        try (ParallelSearch search = new ParallelSearch(new TranspositionTable(hash), threads)) {
+            search.setListener(iteration -> System.out.println(iteration));
+            if (tablebaseDir != null) search.setTablebases(openTablebases(Paths.get(tablebaseDir)));
+            result = search.search(board, depth, time);
+        }
+        System.out.println("bestmove " + ((result.getBestMove() == Move.NONE) ? "(none)" : Move.toString(result.getBestMove())));
+    }
+
+    /**
+     * Scores the board from the endgame tables, as a mate score counted from the root or 0 for a draw
+     * @param ply distance from the root
+     * @return score for the side to move, INFINITY if the position isn't in the tables
+     */
+    private int probeTablebases(int ply) {
+        if (Long.bitCount(board.getOccupancy()) > tablebases.getMaxMen()) return INFINITY;
+        int result = tablebases.probe(board);
+        if (result == Tablebase.UNKNOWN) return INFINITY;
+        if (Tablebase.wdl(result) == Tablebase.WIN) return MATE - ply - Tablebase.dtm(result);
+        if (Tablebase.wdl(result) == Tablebase.LOSS) return -MATE + ply + Tablebase.dtm(result);
+        return 0;
+    }
+
+    /**
+     * Looks up a book move for a position, reporting a book that can't be read rather than failing
+     * @param path book file
+     * @param board position to look up
+     * @return packed book move, Move.NONE if there is none or the book can't be read
+     */
+    static int probeBook(Path path, Board board) {
+        try (OpeningBook book = new OpeningBook(path)) {
+            return book.probe(board);
+        } catch (IOException e) {
+            System.out.println("Couldn't read opening book: " + e.getMessage());
+            return Move.NONE;
+        }
+    }
+
+    /**
+     * Opens endgame tables, reporting tables that can't be read rather than failing
+     * @param dir directory of table files
+     * @return opened tables, null if they can't be read
+     */
+    static Tablebases openTablebases(Path dir) {
+        try {
+            return new Tablebases(dir);
+        } catch (IOException e) {
+            System.out.println("Couldn't read tablebases: " + e.getMessage());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,327 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Endgame table for one set of material, ex. "KQvK", holding the exact result and distance to mate of every position
+ * with that material, no castling rights and nobody able to capture en passant. Tables are made by TablebaseGenerator.
+ *
+ * Positions are indexed by side to move, then the square of each man in order: white king, black king, the other
+ * white men and the other black men as named. Symmetry halves or eighths the table: without pawns the board is
+ * turned so the white king is in the a1-d1-d4 triangle (10 squares), with pawns it is mirrored so the white king is
+ * on files a to d (32 squares). Each entry is packed into the fewest bits that hold the longest mate, as 0 for a draw
+ * or the distance to mate in plies plus one, which is odd when the side to move wins and even when it loses.
+ *
+ * Files hold a 40 byte header, MAGIC, bits per entry, number of men, number of entries and the name in 16 bytes,
+ * then the entries packed from the most significant bit of each byte
+ */
+public class Tablebase {
+    public static final int UNKNOWN = -1; //Returned by probes for positions not in any table
+    public static final int LOSS = 0; //Side to move is mated
+    public static final int DRAW = 1;
+    public static final int WIN = 2; //Side to move mates
+    public static final int MAX_MEN = 5; //Most men the index can hold, generating more than 4 needs far more memory
+    static final long MAGIC = 0x4348455353544231L; //"CHESSTB1"
+    private static final int HEADER_BYTES = 40;
+    private static final int NAME_BYTES = 16;
+    private static final int[] TRIANGLE_SLOTS = new int[64]; //Index of each square of the a1-d1-d4 triangle, -1 outside
+    private static final int[] TRIANGLE_SQUARES = new int[10]; //Square of each triangle index
+
+    static {
+        int slot = 0;
+        for (int square = 0; square < 64; square++) {
+            int rank = Bitboards.rankOf(square);
+            int file = Bitboards.fileOf(square);
+            TRIANGLE_SLOTS[square] = (file <= 3 && rank <= file) ? slot : -1;
+            if (TRIANGLE_SLOTS[square] != -1) TRIANGLE_SQUARES[slot++] = square;
+        }
+    }
+
+    final String name;
+    final int men; //Number of men, kings included
+    final Color[] colors; //Color of each man in index order
+    final PieceType[] pieceTypes; //Type of each man in index order
+    final boolean pawns; //True if there are pawns, so only the left-right mirror applies
+    final int kingSlots; //Squares the white king is kept on by symmetry
+    final long entries; //Number of positions in the table
+    final long materialKey; //materialKey of the positions the table holds
+    private final int bits; //Bits per entry
+    private final ByteBuffer data; //Packed entries, null for a table only used for its layout
+
+    /**
+     * Constructor for a table's layout without entries, used while generating it
+     * @param name material, ex. "KBNvK", each side's king followed by its other men out of Q, R, B, N and P
+     * @throws IllegalArgumentException if the name isn't valid material or both sides have pawns
+     */
+    Tablebase(String name) { this(name, 0, null); }
+
+    /**
+     * Constructor for Tablebase class
+     * @param name material, see Tablebase(String)
+     * @param bits bits per entry
+     * @param data packed entries followed by at least 8 bytes of padding
+     */
+    Tablebase(String name, int bits, ByteBuffer data) {
+        int split = name.indexOf('v');
+        if (split < 1 || name.charAt(0) != 'K' || split + 1 >= name.length() || name.charAt(split + 1) != 'K'
+                || name.length() - 1 > MAX_MEN) {
+            throw new IllegalArgumentException("Invalid tablebase material " + name);
+        }
+        this.name = name;
+        this.bits = bits;
+        this.data = data;
+        men = name.length() - 1;
+        colors = new Color[men];
+        pieceTypes = new PieceType[men];
+        colors[0] = Color.WHITE;
+        pieceTypes[0] = PieceType.KING;
+        colors[1] = Color.BLACK;
+        pieceTypes[1] = PieceType.KING;
+        int man = 2;
+        boolean whitePawns = false;
+        boolean blackPawns = false;
+        for (int i = 1; i < name.length(); i++) {
+            if (i == split || i == split + 1) continue;
+            PieceType pieceType = pieceTypeOf(name.charAt(i));
+            if (pieceType == null) throw new IllegalArgumentException("Invalid tablebase material " + name);
+            colors[man] = (i < split) ? Color.WHITE : Color.BLACK;
+            pieceTypes[man++] = pieceType;
+            if (pieceType == PieceType.PAWN) {
+                if (i < split) whitePawns = true;
+                else blackPawns = true;
+            }
+        }
+        //With pawns on one side only, no pawn can ever capture en passant, so the index needn't hold it
+        if (whitePawns && blackPawns) throw new IllegalArgumentException("Tablebases with pawns on both sides aren't supported: " + name);
+        pawns = whitePawns || blackPawns;
+        kingSlots = pawns ? 32 : 10;
+        entries = 2L * kingSlots << (6 * (men - 1));
+        long key = 0L;
+        for (int i = 2; i < men; i++) key += materialBit(colors[i], pieceTypes[i]);
+        materialKey = key;
+    }
+
+    /**
+     * Opens a table file, which is memory mapped rather than read
+     * @param path file written by write
+     * @return the table
+     * @throws IOException if the file can't be read or isn't a table
+     */
+    public static Tablebase open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            while (header.hasRemaining() && channel.read(header) != -1) { }
+            header.flip();
+            if (header.remaining() < HEADER_BYTES || header.getLong() != MAGIC) throw new IOException(path + " is not a tablebase");
+            int bits = header.getInt();
+            header.getInt();
+            long entries = header.getLong();
+            byte[] name = new byte[NAME_BYTES];
+            header.get(name);
+            int length = 0;
+            while (length < NAME_BYTES && name[length] != 0) length++;
+            Tablebase table = new Tablebase(new String(name, 0, length, StandardCharsets.US_ASCII), bits,
+                    channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, channel.size() - HEADER_BYTES));
+            if (table.entries != entries || channel.size() - HEADER_BYTES < dataBytes(entries, bits)) {
+                throw new IOException(path + " is truncated");
+            }
+            return table;
+        }
+    }
+
+    /**
+     * Writes the table to a file
+     * @param path file to write
+     * @throws IOException if the file can't be written
+     */
+    void write(Path path) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putLong(MAGIC).putInt(bits).putInt(men).putLong(entries);
+        header.put(name.getBytes(StandardCharsets.US_ASCII));
+        header.position(HEADER_BYTES).flip();
+        ByteBuffer body = data.duplicate();
+        body.clear();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (header.hasRemaining()) channel.write(header);
+            while (body.hasRemaining()) channel.write(body);
+        }
+    }
+
+    /**
+     * Looks up a position with this table's material
+     * @param board position to look up
+     * @param flip true if the board has this table's material with the colors swapped
+     * @return packed result, see wdl and dtm
+     */
+    int probe(Board board, boolean flip) {
+        Color white = flip ? Color.BLACK : Color.WHITE; //Board color playing this table's white
+        int whiteKing = orient(board.getKingSquare(white), flip);
+        int symmetry = symmetry(whiteKing);
+        long index = ((board.getTurnColor() == white) ? 0 : 1) * kingSlots + kingSlot(transform(whiteKing, symmetry));
+        long used = 0L; //Squares already indexed, so identical men take different squares
+        for (int i = 1; i < men; i++) {
+            Color color = (colors[i] == Color.WHITE) ? white : otherColor(white);
+            int square = Bitboards.lowestSquare(board.getBitboard(color, pieceTypes[i]) & ~used);
+            used |= Bitboards.bit(square);
+            index = index * 64 + transform(orient(square, flip), symmetry);
+        }
+        int value = read(index);
+        if (value == 0) return result(DRAW, 0);
+        return result(((value - 1) % 2 == 1) ? WIN : LOSS, value - 1);
+    }
+
+    /**
+     * Reads a packed entry
+     * @param index index of the entry
+     * @return 0 for a draw, otherwise distance to mate in plies plus one
+     */
+    private int read(long index) {
+        long bit = index * bits;
+        long word = data.getLong((int) (bit >>> 3));
+        return (int) ((word << (bit & 7)) >>> (64 - bits));
+    }
+
+    /**
+     * Packs entries the way read unpacks them
+     * @param values value of each entry, 0 for a draw or distance to mate in plies plus one
+     * @param bits bits per entry, enough to hold the largest value
+     * @return packed entries followed by 8 bytes of padding
+     */
+    static ByteBuffer pack(byte[] values, int bits) {
+        byte[] packed = new byte[(int) dataBytes(values.length, bits)];
+        long bit = 0;
+        for (byte value : values) {
+            for (int b = bits - 1; b >= 0; b--, bit++) {
+                if (((value & 0xff) >>> b & 1) != 0) packed[(int) (bit >>> 3)] |= (byte) (0x80 >>> (bit & 7));
+            }
+        }
+        return ByteBuffer.wrap(packed);
+    }
+
+    private static long dataBytes(long entries, int bits) { return (entries * bits + 7) / 8 + 8; }
+
+    /**
+     * Returns the square the white king is kept on for a king slot, the inverse of kingSlot
+     * @param slot king slot
+     * @return square of the white king
+     */
+    int kingSquare(int slot) { return pawns ? Bitboards.square(slot / 4, slot % 4) : TRIANGLE_SQUARES[slot]; }
+
+    /**
+     * Returns the king slot of a white king square that symmetry has already moved into place
+     * @param square square of the white king
+     * @return king slot
+     */
+    private int kingSlot(int square) { return pawns ? Bitboards.rankOf(square) * 4 + Bitboards.fileOf(square) : TRIANGLE_SLOTS[square]; }
+
+    /**
+     * Returns the symmetry that moves the white king into place, as transform flags
+     * @param whiteKing square of the white king
+     * @return 1 to mirror files, 2 to mirror ranks and 4 to mirror along the a1-h8 diagonal, applied in that order
+     */
+    private int symmetry(int whiteKing) {
+        int file = Bitboards.fileOf(whiteKing);
+        int rank = Bitboards.rankOf(whiteKing);
+        int symmetry = (file > 3) ? 1 : 0;
+        if (pawns) return symmetry;
+        if (file > 3) file = 7 - file;
+        if (rank > 3) {
+            symmetry |= 2;
+            rank = 7 - rank;
+        }
+        return (rank > file) ? symmetry | 4 : symmetry;
+    }
+
+    /**
+     * Moves a square by a symmetry
+     * @param square square to move
+     * @param symmetry flags from symmetry
+     * @return moved square
+     */
+    private static int transform(int square, int symmetry) {
+        int file = Bitboards.fileOf(square);
+        int rank = Bitboards.rankOf(square);
+        if ((symmetry & 1) != 0) file = 7 - file;
+        if ((symmetry & 2) != 0) rank = 7 - rank;
+        return ((symmetry & 4) != 0) ? Bitboards.square(file, rank) : Bitboards.square(rank, file);
+    }
+
+    /**
+     * Mirrors a square top to bottom when the colors are swapped
+     */
+    private static int orient(int square, boolean flip) { return flip ? square ^ 56 : square; }
+
+    private static Color otherColor(Color color) { return (color == Color.WHITE) ? Color.BLACK : Color.WHITE; }
+
+    /**
+     * Returns a key for the men other than kings on a board, equal for boards with the same material
+     * @param board board to read
+     * @param flip true to swap the colors
+     * @return material key
+     */
+    static long materialKey(Board board, boolean flip) {
+        long key = 0L;
+        for (PieceType pieceType : PieceType.values()) {
+            if (pieceType == PieceType.KING) continue;
+            key += Long.bitCount(board.getBitboard(Color.WHITE, pieceType)) * materialBit(flip ? Color.BLACK : Color.WHITE, pieceType);
+            key += Long.bitCount(board.getBitboard(Color.BLACK, pieceType)) * materialBit(flip ? Color.WHITE : Color.BLACK, pieceType);
+        }
+        return key;
+    }
+
+    private static long materialBit(Color color, PieceType pieceType) { return 1L << (4 * Board.bitboardIndex(color, pieceType)); }
+
+    /**
+     * Packs a probe result
+     * @param wdl WIN, DRAW or LOSS for the side to move
+     * @param dtm distance to mate in plies, 0 for a draw
+     * @return packed result
+     */
+    static int result(int wdl, int dtm) { return wdl << 16 | dtm; }
+
+    /**
+     * Returns whether the side to move wins, draws or loses
+     * @param result packed result other than UNKNOWN
+     * @return WIN, DRAW or LOSS
+     */
+    public static int wdl(int result) { return result >>> 16; }
+
+    /**
+     * Returns the distance to mate
+     * @param result packed result other than UNKNOWN
+     * @return plies until mate with best play, 0 for a draw or if the side to move is mated
+     */
+    public static int dtm(int result) { return result & 0xFFFF; }
+
+    /**
+     * Describes a probe result
+     * @param result packed result
+     * @return ex. "win, mate in 7 plies", "draw" or "unknown"
+     */
+    public static String toString(int result) {
+        if (result == UNKNOWN) return "unknown";
+        if (wdl(result) == DRAW) return "draw";
+        return ((wdl(result) == WIN) ? "win, mate in " : "loss, mated in ") + dtm(result) + " plies";
+    }
+
+    /**
+     * Returns the material of the table
+     * @return name, ex. "KQvK"
+     */
+    public String getName() { return name; }
+
+    private static PieceType pieceTypeOf(char c) {
+        switch (c) {
+            case 'Q': return PieceType.QUEEN;
+            case 'R': return PieceType.ROOK;
+            case 'B': return PieceType.BISHOP;
+            case 'N': return PieceType.KNIGHT;
+            case 'P': return PieceType.PAWN;
+            default: return null;
+        }
+    }
+}
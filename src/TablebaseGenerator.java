@@ -0,0 +1,495 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Generates endgame tables by retrograde analysis. First every position of the material is scored by its legal moves
+ * from PieceLogic: mates and stalemates are final, and captures and promotions, which leave the table, are scored from
+ * smaller tables. Then, a ply at a time outward from the mates, the last move into each newly decided position is
+ * taken back to find the positions leading to it. A position with a move to a lost position is won, and a position
+ * whose moves all lead to won positions is lost. Positions never decided are draws. Both passes are split across a
+ * pool of threads. Smaller tables needed for captures and promotions are generated first if they are missing
+ *
+ * Usage:
+ *   java TablebaseGenerator [--threads N] dir material ...
+ *       write tables to dir, ex. java TablebaseGenerator tb KQvK KRvK KPvK KBNvK
+ */
+public class TablebaseGenerator {
+    private static final int MAX_MEN = 4; //Positions are held unreduced while generating, 5 men would need 8 GB
+    private static final int MAX_DTM = 250; //Longest mate a state can hold
+    private static final int CHUNK = 1 << 12; //Positions or frontier entries handed to a thread at once
+
+    //Bit fields of each position's state while generating
+    private static final int COUNT_MASK = 0xFF; //Moves within the table not yet known to lose
+    private static final int EXIT_LOSS_SHIFT = 8; //Longest loss through a capture or promotion, 8 bits
+    private static final int SAFE_EXIT = 1 << 16; //A capture or promotion draws or wins, so the position can't be lost
+    private static final int DECIDED_WIN = 1 << 17;
+    private static final int DECIDED_LOSS = 2 << 17;
+    private static final int DECIDED_DRAW = 3 << 17; //Stalemate, or not a legal position
+    private static final int RESULT_MASK = 3 << 17;
+    private static final int DTM_SHIFT = 19; //Distance to mate of a decided position, 8 bits
+    private static final int LOSS_FLAG = 1 << 30; //Marks scheduled entries that are losses rather than wins
+
+    private final Tablebase layout;
+    private final Tablebases subtables; //Tables for the material left after captures and promotions
+    private final ExecutorService pool;
+    private final int threads;
+    private final int men;
+    private final AtomicIntegerArray states; //State of every position, indexed by index
+
+    /**
+     * Constructor for TablebaseGenerator class
+     * @param layout layout of the table to generate
+     * @param subtables tables for every material reached by a capture or promotion
+     * @param pool pool to run on
+     * @param threads number of threads in the pool
+     */
+    private TablebaseGenerator(Tablebase layout, Tablebases subtables, ExecutorService pool, int threads) {
+        this.layout = layout;
+        this.subtables = subtables;
+        this.pool = pool;
+        this.threads = threads;
+        men = layout.men;
+        states = new AtomicIntegerArray(2 << (6 * men));
+    }
+
+    /**
+     * Generates a table, and first any missing table it needs, adding each to the set and writing it to a directory
+     * @param name material, ex. "KBNvK", see Tablebase
+     * @param tablebases tables already made, the new tables are added
+     * @param dir directory to write tables to
+     * @param pool pool to run on
+     * @param threads number of threads in the pool
+     * @throws IOException if a table can't be written
+     */
+    static void generate(String name, Tablebases tablebases, Path dir, ExecutorService pool, int threads)
+            throws IOException, InterruptedException, ExecutionException {
+        Tablebase layout = new Tablebase(name);
+        if (layout.men > MAX_MEN) throw new IllegalArgumentException("Generating more than " + MAX_MEN + " men isn't supported: " + name);
+        for (String subtable : subtableNames(layout)) {
+            if (!tablebases.contains(subtable)) generate(subtable, tablebases, dir, pool, threads);
+        }
+        long start = System.nanoTime();
+        TablebaseGenerator generator = new TablebaseGenerator(layout, tablebases, pool, threads);
+        int longest = generator.solve();
+        Tablebase table = generator.pack();
+        table.write(dir.resolve(name + ".tb"));
+        tablebases.add(table);
+        System.out.printf(Locale.ROOT, "%-8s %,13d positions, longest mate %3d plies, %,11d bytes, %.1f s%n", name,
+                table.entries, longest, Files.size(dir.resolve(name + ".tb")), (System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * Returns the materials a capture or promotion can lead to
+     * @param layout layout of the table
+     * @return names of the materials
+     */
+    private static List<String> subtableNames(Tablebase layout) {
+        List<String> names = new ArrayList<>();
+        for (int i = 2; i < layout.men; i++) {
+            names.add(nameWith(layout, i, ' '));
+            if (layout.pieceTypes[i] == PieceType.PAWN) {
+                for (char promotion : new char[]{'Q', 'R', 'B', 'N'}) names.add(nameWith(layout, i, promotion));
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Returns the name of a table's material with one man removed or replaced
+     * @param layout layout of the table
+     * @param man index of the man to change
+     * @param letter letter to replace the man with, ' ' to remove it
+     * @return material name
+     */
+    private static String nameWith(Tablebase layout, int man, char letter) {
+        StringBuilder white = new StringBuilder("K");
+        StringBuilder black = new StringBuilder("K");
+        for (int i = 2; i < layout.men; i++) {
+            char c = (i == man) ? letter : "PRNBQK".charAt(layout.pieceTypes[i].ordinal());
+            if (c != ' ') ((layout.colors[i] == Color.WHITE) ? white : black).append(c);
+        }
+        return white + "v" + black;
+    }
+
+    /**
+     * Decides every position, first from its own moves and then outward from the mates a ply at a time
+     * @return longest distance to mate in plies
+     */
+    private int solve() throws InterruptedException, ExecutionException {
+        IntList[] scheduled = new IntList[MAX_DTM + 2]; //Positions decided through captures or promotions, by ply
+        IntList frontier = new IntList(); //Positions decided at the current ply
+        List<Callable<Output>> tasks = new ArrayList<>();
+        for (int start = 0; start < states.length(); start += CHUNK) {
+            int from = start;
+            tasks.add(() -> scoreMoves(from, Math.min(from + CHUNK, states.length())));
+        }
+        merge(pool.invokeAll(tasks), frontier, scheduled);
+
+        int longest = 0;
+        for (int dtm = 0; dtm <= MAX_DTM; dtm++) {
+            if (scheduled[dtm] != null) {
+                for (int i = 0; i < scheduled[dtm].size; i++) {
+                    int entry = scheduled[dtm].values[i];
+                    int index = entry & ~LOSS_FLAG;
+                    if (decide(index, ((entry & LOSS_FLAG) != 0) ? DECIDED_LOSS : DECIDED_WIN, dtm)) frontier.add(index);
+                }
+                scheduled[dtm] = null;
+            }
+            if (frontier.size == 0) continue;
+            longest = dtm;
+            if (dtm == MAX_DTM) throw new IllegalStateException("Mate longer than " + MAX_DTM + " plies in " + layout.name);
+            IntList current = frontier;
+            int ply = dtm;
+            tasks.clear();
+            int chunk = Math.max(256, current.size / (threads * 4) + 1);
+            for (int start = 0; start < current.size; start += chunk) {
+                int from = start;
+                int to = Math.min(start + chunk, current.size);
+                tasks.add(() -> unmakeMoves(current, from, to, ply));
+            }
+            frontier = new IntList();
+            merge(pool.invokeAll(tasks), frontier, scheduled);
+        }
+        return longest;
+    }
+
+    /**
+     * Scores positions by their own moves, deciding mates and stalemates and scheduling positions decided by
+     * captures and promotions
+     * @param from first index
+     * @param to index past the last
+     * @return mates found and positions scheduled
+     */
+    private Output scoreMoves(int from, int to) {
+        Output out = new Output();
+        Board board = new Board();
+        PieceLogic logic = new PieceLogic();
+        int[] moves = new int[Move.MAX_MOVES];
+        int[] squares = new int[men];
+        for (int index = from; index < to; index++) {
+            int turn = decode(index, squares);
+            if (!isLegalPosition(squares, turn)) {
+                states.set(index, DECIDED_DRAW);
+                continue;
+            }
+            Color color = (turn == 0) ? Color.WHITE : Color.BLACK;
+            board.setPieces(layout.colors, layout.pieceTypes, squares, men, color);
+            int count = logic.generateLegalMoves(board, color, moves);
+            if (count == 0) {
+                if (logic.inCheck(board, color)) {
+                    states.set(index, DECIDED_LOSS);
+                    out.decided.add(index);
+                }
+                else states.set(index, DECIDED_DRAW);
+                continue;
+            }
+            int quiet = 0;
+            int exitWin = Integer.MAX_VALUE;
+            int exitLoss = 0;
+            boolean drawExit = false;
+            for (int i = 0; i < count; i++) {
+                int move = moves[i];
+                if (!Move.is(move, Move.CAPTURE) && Move.promotion(move) == null) {
+                    quiet++;
+                    continue;
+                }
+                board.makeMove(move);
+                int result = subtables.probe(board);
+                board.unmakeMove();
+                if (result == Tablebase.UNKNOWN) throw new IllegalStateException("No table for a capture or promotion from " + layout.name);
+                if (Tablebase.wdl(result) == Tablebase.LOSS) exitWin = Math.min(exitWin, Tablebase.dtm(result) + 1);
+                else if (Tablebase.wdl(result) == Tablebase.WIN) exitLoss = Math.max(exitLoss, Tablebase.dtm(result) + 1);
+                else drawExit = true;
+            }
+            boolean safeExit = drawExit || exitWin != Integer.MAX_VALUE;
+            states.set(index, quiet | exitLoss << EXIT_LOSS_SHIFT | (safeExit ? SAFE_EXIT : 0));
+            if (exitWin != Integer.MAX_VALUE) out.schedule(exitWin, index);
+            else if (quiet == 0 && !drawExit) out.schedule(exitLoss, index | LOSS_FLAG);
+        }
+        return out;
+    }
+
+    /**
+     * Takes back the last move into each position decided at a ply, updating the positions before them
+     * @param frontier positions decided at ply
+     * @param from first entry of frontier to take moves back from
+     * @param to entry past the last
+     * @param ply distance to mate of the frontier
+     * @return positions decided a ply further out and positions scheduled later
+     */
+    private Output unmakeMoves(IntList frontier, int from, int to, int ply) {
+        Output out = new Output();
+        int[] squares = new int[men];
+        for (int f = from; f < to; f++) {
+            int index = frontier.values[f];
+            boolean won = (states.get(index) & RESULT_MASK) == DECIDED_WIN;
+            int turn = decode(index, squares);
+            //The side not to move made the last move
+            Color mover = (turn == 0) ? Color.BLACK : Color.WHITE;
+            int defenderKing = squares[turn]; //King of the side to move, which mustn't be in check before the move
+            long occupied = 0L;
+            for (int square : squares) occupied |= Bitboards.bit(square);
+            for (int i = 0; i < men; i++) {
+                if (layout.colors[i] != mover) continue;
+                int square = squares[i];
+                long origins;
+                if (layout.pieceTypes[i] == PieceType.PAWN) {
+                    int step = (mover == Color.WHITE) ? -8 : 8;
+                    int single = square + step;
+                    int startRank = (mover == Color.WHITE) ? 1 : 6;
+                    origins = 0L;
+                    if (Bitboards.rankOf(single) != 0 && Bitboards.rankOf(single) != 7 && (occupied & Bitboards.bit(single)) == 0) {
+                        origins |= Bitboards.bit(single);
+                        int twice = single + step;
+                        if (Bitboards.rankOf(twice) == startRank && (occupied & Bitboards.bit(twice)) == 0) origins |= Bitboards.bit(twice);
+                    }
+                }
+                else origins = attacks(layout.pieceTypes[i], mover, square, occupied) & ~occupied;
+                for (; origins != 0; origins &= origins - 1) {
+                    int origin = Bitboards.lowestSquare(origins);
+                    squares[i] = origin;
+                    long before = occupied ^ Bitboards.bit(square) ^ Bitboards.bit(origin);
+                    if (!isAttacked(squares, defenderKing, mover, before)) update(index(squares, 1 - turn), won, ply, out);
+                }
+                squares[i] = square;
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Updates a position with a move into a position decided at ply
+     * @param index position before the move
+     * @param won true if the position after the move is won for its side to move, false if it is lost
+     * @param ply distance to mate of the position after the move
+     * @param out where to record positions decided or scheduled
+     */
+    private void update(int index, boolean won, int ply, Output out) {
+        if (!won) {
+            if (decide(index, DECIDED_WIN, ply + 1)) out.decided.add(index);
+            return;
+        }
+        while (true) {
+            int state = states.get(index);
+            if ((state & RESULT_MASK) != 0) return;
+            assert (state & COUNT_MASK) > 0 : "More moves into decided positions than the position has";
+            if ((state & COUNT_MASK) > 1 || (state & SAFE_EXIT) != 0) {
+                if (states.compareAndSet(index, state, state - 1)) return;
+                continue;
+            }
+            //Last move left, and every other move loses too
+            int loss = Math.max(ply + 1, state >>> EXIT_LOSS_SHIFT & 0xFF);
+            if (loss == ply + 1) {
+                if (states.compareAndSet(index, state, DECIDED_LOSS | loss << DTM_SHIFT)) {
+                    out.decided.add(index);
+                    return;
+                }
+            }
+            else if (states.compareAndSet(index, state, state - 1)) {
+                out.schedule(loss, index | LOSS_FLAG);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Decides a position unless it already is
+     * @param index position to decide
+     * @param result DECIDED_WIN or DECIDED_LOSS
+     * @param dtm distance to mate in plies
+     * @return true if the position was decided by this call
+     */
+    private boolean decide(int index, int result, int dtm) {
+        while (true) {
+            int state = states.get(index);
+            if ((state & RESULT_MASK) != 0) return false;
+            if (states.compareAndSet(index, state, result | dtm << DTM_SHIFT)) return true;
+        }
+    }
+
+    /**
+     * Packs the decided positions into a table, keeping only the positions symmetry leaves
+     * @return the table
+     */
+    private Tablebase pack() {
+        byte[] values = new byte[(int) layout.entries];
+        int[] squares = new int[men];
+        int largest = 0;
+        for (int entry = 0; entry < values.length; entry++) {
+            int rest = entry;
+            for (int i = men - 1; i > 0; i--) {
+                squares[i] = rest & 63;
+                rest >>>= 6;
+            }
+            squares[0] = layout.kingSquare(rest % layout.kingSlots);
+            int state = states.get(index(squares, rest / layout.kingSlots));
+            int result = state & RESULT_MASK;
+            if (result == DECIDED_WIN || result == DECIDED_LOSS) {
+                values[entry] = (byte) ((state >>> DTM_SHIFT & 0xFF) + 1);
+                largest = Math.max(largest, values[entry] & 0xFF);
+            }
+        }
+        int bits = Math.max(1, 32 - Integer.numberOfLeadingZeros(largest));
+        return new Tablebase(layout.name, bits, Tablebase.pack(values, bits));
+    }
+
+    /**
+     * Returns true if no two men share a square, no pawn is on the first or last rank and the side not to move
+     * isn't in check
+     * @param squares square of each man
+     * @param turn 0 if white is to move, 1 if black is
+     * @return true if the position can occur
+     */
+    private boolean isLegalPosition(int[] squares, int turn) {
+        long occupied = 0L;
+        for (int i = 0; i < men; i++) {
+            long bit = Bitboards.bit(squares[i]);
+            if ((occupied & bit) != 0) return false;
+            if (layout.pieceTypes[i] == PieceType.PAWN && (Bitboards.rankOf(squares[i]) == 0 || Bitboards.rankOf(squares[i]) == 7)) return false;
+            occupied |= bit;
+        }
+        return !isAttacked(squares, squares[1 - turn], (turn == 0) ? Color.WHITE : Color.BLACK, occupied);
+    }
+
+    /**
+     * Returns true if a square is attacked by a color's men
+     * @param squares square of each man
+     * @param target square to test
+     * @param color attacking color
+     * @param occupied occupied squares
+     * @return true if a man of color attacks target
+     */
+    private boolean isAttacked(int[] squares, int target, Color color, long occupied) {
+        for (int i = 0; i < men; i++) {
+            if (layout.colors[i] == color && (attacks(layout.pieceTypes[i], color, squares[i], occupied) & Bitboards.bit(target)) != 0) return true;
+        }
+        return false;
+    }
+
+    private static long attacks(PieceType pieceType, Color color, int square, long occupied) {
+        switch (pieceType) {
+            case PAWN: return Bitboards.pawnAttacks(color, square);
+            case KNIGHT: return Bitboards.knightAttacks(square);
+            case BISHOP: return Bitboards.bishopAttacks(square, occupied);
+            case ROOK: return Bitboards.rookAttacks(square, occupied);
+            case QUEEN: return Bitboards.queenAttacks(square, occupied);
+            default: return Bitboards.kingAttacks(square);
+        }
+    }
+
+    /**
+     * Returns the unreduced index of a position, the side to move followed by six bits per man
+     * @param squares square of each man
+     * @param turn 0 if white is to move, 1 if black is
+     * @return index into states
+     */
+    private static int index(int[] squares, int turn) {
+        int index = turn;
+        for (int square : squares) index = index << 6 | square;
+        return index;
+    }
+
+    /**
+     * Reads the squares of a position from its index
+     * @param index index into states
+     * @param squares filled with the square of each man
+     * @return 0 if white is to move, 1 if black is
+     */
+    private int decode(int index, int[] squares) {
+        for (int i = men - 1; i >= 0; i--) {
+            squares[i] = index & 63;
+            index >>>= 6;
+        }
+        return index;
+    }
+
+    /**
+     * Collects the output of finished tasks
+     * @param outputs finished tasks
+     * @param decided where to add decided positions
+     * @param scheduled where to add scheduled positions, by ply
+     */
+    private static void merge(List<Future<Output>> outputs, IntList decided, IntList[] scheduled)
+            throws InterruptedException, ExecutionException {
+        for (Future<Output> future : outputs) {
+            Output out = future.get();
+            decided.addAll(out.decided);
+            for (int i = 0; i < out.plies.size; i++) {
+                int ply = out.plies.values[i];
+                if (ply >= scheduled.length) throw new IllegalStateException("Mate longer than " + MAX_DTM + " plies");
+                if (scheduled[ply] == null) scheduled[ply] = new IntList();
+                scheduled[ply].add(out.entries.values[i]);
+            }
+        }
+    }
+
+    /**
+     * Positions decided and scheduled by one task
+     */
+    private static class Output {
+        final IntList decided = new IntList();
+        final IntList plies = new IntList(); //Ply each scheduled position is decided at
+        final IntList entries = new IntList(); //Scheduled position, with LOSS_FLAG if it is lost
+
+        void schedule(int ply, int entry) {
+            plies.add(ply);
+            entries.add(entry);
+        }
+    }
+
+    /**
+     * Growable list of ints, so millions of positions don't have to be boxed
+     */
+    private static class IntList {
+        int[] values = new int[16];
+        int size;
+
+        void add(int value) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        void addAll(IntList other) {
+            if (size + other.size > values.length) values = Arrays.copyOf(values, Math.max(size + other.size, size * 2));
+            System.arraycopy(other.values, 0, values, size, other.size);
+            size += other.size;
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException, ExecutionException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        int i = 0;
+        if (args.length > 1 && args[0].equals("--threads")) {
+            threads = Integer.parseInt(args[1]);
+            i = 2;
+        }
+        if (args.length - i < 2) {
+            System.out.println("Usage: java TablebaseGenerator [--threads N] dir material ...");
+            return;
+        }
+        Path dir = Paths.get(args[i++]);
+        Files.createDirectories(dir);
+        Tablebases tablebases = new Tablebases(dir);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            for (; i < args.length; i++) {
+                if (tablebases.contains(args[i])) System.out.println(args[i] + " already in " + dir);
+                else generate(args[i], tablebases, dir, pool, threads);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Set of endgame tables, probed by the material on the board. A table answers for its material with either side
+ * as the stronger one, and positions with only kings and at most one minor piece are drawn without a table.
+ * Probing allocates nothing and is safe from any number of threads
+ *
+ * Usage:
+ *   java Tablebases dir [fen]          probe a position, from the tables in dir
+ */
+public class Tablebases implements AutoCloseable {
+    private volatile Tablebase[] tables = new Tablebase[0]; //Replaced whole by add, so probes need no lock
+    private volatile int maxMen; //Most men in any table
+
+    /**
+     * Constructor for an empty set, tables are added with add
+     */
+    public Tablebases() { }
+
+    /**
+     * Constructor for Tablebases class, opens every .tb file in a directory
+     * @param dir directory of table files written by TablebaseGenerator
+     * @throws IOException if a table can't be read
+     */
+    public Tablebases(Path dir) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.tb")) {
+            for (Path file : files) add(Tablebase.open(file));
+        }
+    }
+
+    /**
+     * Adds a table to the set
+     * @param table table to add
+     */
+    synchronized void add(Tablebase table) {
+        Tablebase[] grown = Arrays.copyOf(tables, tables.length + 1);
+        grown[tables.length] = table;
+        tables = grown;
+        maxMen = Math.max(maxMen, table.men);
+    }
+
+    /**
+     * Drops every table, so their mappings are released once no probe still holds one. Probes made after closing
+     * find nothing, so a search still holding the set goes on without tables rather than failing
+     */
+    @Override
+    public synchronized void close() {
+        tables = new Tablebase[0];
+        maxMen = 0;
+    }
+
+    /**
+     * Looks up a position
+     * @param board position to look up
+     * @return packed result for the side to move, see Tablebase.wdl and Tablebase.dtm, or Tablebase.UNKNOWN if no
+     *         table holds the position
+     */
+    public int probe(Board board) {
+        int men = Long.bitCount(board.getOccupancy());
+        if (men > Math.max(maxMen, 3) || board.getCastlingRights() != 0) return Tablebase.UNKNOWN;
+        //A lone minor piece can't mate
+        long minors = board.getBitboard(Color.WHITE, PieceType.BISHOP) | board.getBitboard(Color.WHITE, PieceType.KNIGHT)
+                    | board.getBitboard(Color.BLACK, PieceType.BISHOP) | board.getBitboard(Color.BLACK, PieceType.KNIGHT);
+        if (men == 2 || (men == 3 && minors != 0)) return Tablebase.result(Tablebase.DRAW, 0);
+        long key = Tablebase.materialKey(board, false);
+        long flipped = Tablebase.materialKey(board, true);
+        for (Tablebase table : tables) {
+            if (table.materialKey == key) return table.probe(board, false);
+            if (table.materialKey == flipped) return table.probe(board, true);
+        }
+        return Tablebase.UNKNOWN;
+    }
+
+    /**
+     * Returns true if a set has a table for some material, with either side as the stronger one
+     * @param name material, ex. "KQvK"
+     * @return true if the material is in the set or drawn without a table
+     */
+    boolean contains(String name) {
+        Tablebase layout = new Tablebase(name);
+        if (layout.men == 2 || (layout.men == 3 && (layout.pieceTypes[2] == PieceType.BISHOP || layout.pieceTypes[2] == PieceType.KNIGHT))) return true;
+        for (Tablebase table : tables) {
+            if (table.materialKey == layout.materialKey || table.materialKey == flippedKey(layout)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the material key of a layout with its colors swapped
+     */
+    private static long flippedKey(Tablebase layout) {
+        return (layout.materialKey & 0xFFFFFFL) << 24 | layout.materialKey >>> 24;
+    }
+
+    /**
+     * Returns the most men in any table of the set
+     * @return number of men, kings included
+     */
+    public int getMaxMen() { return maxMen; }
+
+    /**
+     * Returns the number of tables in the set
+     * @return number of tables
+     */
+    public int size() { return tables.length; }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: java Tablebases dir [fen]");
+            return;
+        }
+        Tablebases tablebases = new Tablebases(Paths.get(args[0]));
+        Board board = (args.length > 1) ? new Board(String.join(" ", List.of(args).subList(1, args.length))) : new Board();
+        System.out.println(tablebases.size() + " tables, " + Tablebase.toString(tablebases.probe(board)));
+    }
+}
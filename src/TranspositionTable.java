@@ -0,0 +1,189 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed-size hash table of search results keyed by Zobrist key, shared by any number of search threads without locks.
+ * Each entry is two longs, the packed data and the key XORed with the data. A reader only accepts an entry if
+ * XORing the two gives back its key, so an entry torn by two threads writing at once reads as a miss rather than
+ * as another position's result. Entries sit in buckets of two: a probe checks both, and a store replaces
+ * the matching entry, an empty one, or the one that is shallowest and oldest
+ */
+public class TranspositionTable {
+    public static final int BOUND_EXACT = 1; //Score is exact
+    public static final int BOUND_LOWER = 2; //Search failed high, score is a lower bound
+    public static final int BOUND_UPPER = 3; //Search failed low, score is an upper bound
+
+    //Layout of the packed data, a stored entry's bound is never 0 so empty slots read as 0
+    private static final int MOVE_BITS = 24;
+    private static final int SCORE_SHIFT = 24;
+    private static final int DEPTH_SHIFT = 40;
+    private static final int BOUND_SHIFT = 48;
+    private static final int GENERATION_SHIFT = 50;
+
+    private final long[] entries; //Pairs of (key ^ data, data)
+    private final int bucketMask; //Number of buckets minus one
+    private int generation; //Age of the current search, older entries are replaced first
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder overwrites = new LongAdder();
+
+    /**
+     * Constructor for TranspositionTable class, allocates the largest power of two number of entries that fits in megabytes
+     * @param megabytes memory to use, at least 1
+     */
+    public TranspositionTable(int megabytes) {
+        if (megabytes < 1) throw new IllegalArgumentException("Transposition table needs at least 1 MB");
+        //Each bucket holds two entries of two longs, 32 bytes
+        long buckets = Long.highestOneBit((long) megabytes * 1024 * 1024 / 32);
+        buckets = Math.min(buckets, 1L << 28); //Keeps the entry array under the maximum Java array length
+        entries = new long[(int) (buckets * 4)];
+        bucketMask = (int) buckets - 1;
+    }
+
+    /**
+     * Looks up a position
+     * @param key Zobrist key of the position
+     * @return packed entry data, 0 if the position is not in the table
+     */
+    public long probe(long key) {
+        int index = bucketIndex(key);
+        for (int i = index; i < index + 4; i += 2) {
+            long data = entries[i + 1];
+            if (data != 0 && (entries[i] ^ data) == key) {
+                hits.increment();
+                return data;
+            }
+        }
+        misses.increment();
+        return 0L;
+    }
+
+    /**
+     * Stores a search result for a position
+     * @param key Zobrist key of the position
+     * @param depth remaining depth the position was searched to, 0 to 255
+     * @param bound BOUND_EXACT, BOUND_LOWER or BOUND_UPPER
+     * @param score score of the position, must fit in 16 bits
+     * @param move best move found, as a non-negative int of up to 24 bits, 0 if none
+     */
+    public void store(long key, int depth, int bound, int score, int move) {
+        int index = bucketIndex(key);
+        int replace = index;
+        int replaceValue = Integer.MAX_VALUE;
+        for (int i = index; i < index + 4; i += 2) {
+            long data = entries[i + 1];
+            //Reuse this position's own entry or an empty one
+            if (data == 0 || (entries[i] ^ data) == key) {
+                replace = i;
+                replaceValue = Integer.MIN_VALUE;
+                //Keep a deeper result's move if the new result doesn't have one
+                if (move == 0 && data != 0) move = move(data);
+                break;
+            }
+            //Otherwise prefer replacing shallow entries from earlier searches
+            int value = depth(data) - 8 * ((generation - generation(data)) & 0xFF);
+            if (value < replaceValue) {
+                replace = i;
+                replaceValue = value;
+            }
+        }
+        if (replaceValue != Integer.MIN_VALUE) overwrites.increment();
+        long data = (move & ((1L << MOVE_BITS) - 1))
+                  | (long) (score & 0xFFFF) << SCORE_SHIFT
+                  | (long) (Math.min(Math.max(depth, 0), 255)) << DEPTH_SHIFT
+                  | (long) bound << BOUND_SHIFT
+                  | (long) generation << GENERATION_SHIFT;
+        entries[replace + 1] = data;
+        entries[replace] = key ^ data;
+    }
+
+    /**
+     * Starts a new search, so entries from earlier searches are replaced before current ones
+     */
+    public void newSearch() { generation = (generation + 1) & 0xFF; }
+
+    /**
+     * Empties the table and resets the counters
+     */
+    public void clear() {
+        Arrays.fill(entries, 0L);
+        hits.reset();
+        misses.reset();
+        overwrites.reset();
+    }
+
+    /**
+     * Returns the best move of an entry
+     * @param data packed entry data from probe
+     * @return move, 0 if none
+     */
+    public static int move(long data) { return (int) (data & ((1L << MOVE_BITS) - 1)); }
+
+    /**
+     * Returns the score of an entry
+     * @param data packed entry data from probe
+     * @return score
+     */
+    public static int score(long data) { return (short) (data >>> SCORE_SHIFT); }
+
+    /**
+     * Returns the depth an entry was searched to
+     * @param data packed entry data from probe
+     * @return remaining depth
+     */
+    public static int depth(long data) { return (int) (data >>> DEPTH_SHIFT & 0xFF); }
+
+    /**
+     * Returns the bound type of an entry
+     * @param data packed entry data from probe
+     * @return BOUND_EXACT, BOUND_LOWER or BOUND_UPPER
+     */
+    public static int bound(long data) { return (int) (data >>> BOUND_SHIFT & 3); }
+
+    private static int generation(long data) { return (int) (data >>> GENERATION_SHIFT & 0xFF); }
+
+    /**
+     * Returns the number of probes that found their position
+     * @return hit count
+     */
+    public long getHits() { return hits.sum(); }
+
+    /**
+     * Returns the number of probes that did not find their position
+     * @return miss count
+     */
+    public long getMisses() { return misses.sum(); }
+
+    /**
+     * Returns the number of stores that replaced a different position's entry
+     * @return overwrite count
+     */
+    public long getOverwrites() { return overwrites.sum(); }
+
+    /**
+     * Returns the number of entries the table can hold
+     * @return capacity in entries
+     */
+    public int getCapacity() { return entries.length / 2; }
+
+    /**
+     * Returns how full the table is in permille, sampled from the first thousand entries
+     * @return filled entries per thousand
+     */
+    public int getHashfull() {
+        int sample = Math.min(1000, getCapacity());
+        int used = 0;
+        for (int i = 0; i < sample; i++) {
+            long data = entries[i * 2 + 1];
+            if (data != 0 && generation(data) == generation) used++;
+        }
+        return used * 1000 / sample;
+    }
+
+    /**
+     * Returns the index of the first long of a key's bucket
+     * @param key Zobrist key
+     * @return index into entries
+     */
+    private int bucketIndex(long key) { return ((int) key & bucketMask) * 4; }
+}
@@ -0,0 +1,427 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Universal Chess Interface front end, so GUIs and tournament managers can run the engine. Commands are read on
+ * the calling thread while searches run on a thread of their own, so stop, ponderhit and isready are answered
+ * while a search is running: stop sets the search's stop flag, which it checks at every node.
+ * The game's moves are kept on one board between position commands. A position command that repeats the
+ * position and moves of the last one with new moves on the end only plays the new moves, and one that takes
+ * moves back unmakes them, so the board's history for repetitions stays intact and a long game costs nothing
+ * per move
+ *
+ * Usage:
+ *   java Uci [--hash MB] [--threads N] [--book file] [--tb dir]
+ *   java Chess --uci ...               the same, from the game's entry point
+ */
+public class Uci {
+    private static final String START_FEN = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+    private static final int MOVES_TO_GO = 30; //Moves the remaining time is shared over when the GUI doesn't say
+    private static final long MOVE_OVERHEAD = 30; //Milliseconds kept back from each move for the GUI and the pipe
+
+    private final PrintStream out;
+    private final Board board = new Board();
+    private final PieceLogic logic = new PieceLogic();
+    private final int[] legalMoves = new int[Move.MAX_MOVES];
+    private String positionBase; //"startpos" or "fen ..." part of the last position command, null to set up again
+    private int[] played = new int[256]; //Moves of the last position command played on board, in order
+    private int playedCount;
+
+    private int hash = 64; //Transposition table size in megabytes
+    private int threads = 1;
+    private TranspositionTable table;
+    private ParallelSearch search;
+    private OpeningBook book; //Book moves are played without searching, null if none
+    private Tablebases tablebases; //Endgame tables for the search, null if none
+
+    private final ExecutorService searchThread = Executors.newSingleThreadExecutor(runnable -> daemon(runnable, "uci-search"));
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> daemon(runnable, "uci-timer"));
+    private Future<?> running; //Search started by the last go, null if none
+    private ScheduledFuture<?> timedStop; //Stop scheduled by ponderhit, null if none
+    //Guarded by this, the search thread holds back bestmove while either is set until stop or ponderhit clears it
+    private boolean pondering;
+    private boolean infinite;
+    private long ponderMillis; //Time to search once a ponderhit comes, 0 for no limit
+
+    /**
+     * Constructor for Uci class
+     * @param out stream to write replies to
+     */
+    public Uci(PrintStream out) {
+        this.out = out;
+        setPosition("startpos");
+        createSearch();
+    }
+
+    /**
+     * Returns a daemon thread, so a search left running never keeps the engine alive after quit
+     */
+    private static Thread daemon(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * Replaces the search and table with ones of the current size and thread count
+     */
+    private void createSearch() {
+        if (search != null) search.close();
+        table = new TranspositionTable(hash);
+        search = new ParallelSearch(table, threads);
+        search.setTablebases(tablebases);
+        search.setListener(iteration -> send("info " + iteration));
+    }
+
+    /**
+     * Writes a line to the GUI. Called from both threads, so lines never interleave
+     * @param line line to write
+     */
+    private synchronized void send(String line) {
+        out.println(line);
+        out.flush();
+    }
+
+    /**
+     * Reads commands until quit or the end of input
+     * @param in commands from the GUI
+     * @throws IOException if input can't be read
+     */
+    public void run(BufferedReader in) throws IOException {
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (!execute(line.trim())) break;
+        }
+        stop();
+        searchThread.shutdownNow();
+        timer.shutdownNow();
+        search.close();
+    }
+
+    /**
+     * Runs one command
+     * @param line command line
+     * @return false on quit
+     */
+    boolean execute(String line) {
+        int space = line.indexOf(' ');
+        String command = (space < 0) ? line : line.substring(0, space);
+        String arguments = (space < 0) ? "" : line.substring(space + 1).trim();
+        switch (command) {
+            case "uci":
+                send("id name Chess");
+                send("id author caseyst22");
+                send("option name Hash type spin default 64 min 1 max 4096");
+                send("option name Threads type spin default 1 min 1 max 256");
+                send("option name Ponder type check default false");
+                send("option name BookFile type string default <empty>");
+                send("option name TablebasePath type string default <empty>");
+                send("uciok");
+                break;
+            case "isready":
+                send("readyok");
+                break;
+            case "setoption":
+                waitForSearch();
+                setOption(arguments);
+                break;
+            case "ucinewgame":
+                waitForSearch();
+                table.clear();
+                positionBase = null;
+                break;
+            case "position":
+                waitForSearch();
+                setPosition(arguments);
+                break;
+            case "go":
+                waitForSearch();
+                go(arguments);
+                break;
+            case "stop":
+                stop();
+                break;
+            case "ponderhit":
+                ponderhit();
+                break;
+            case "quit":
+                return false;
+            case "d":
+                send(board.toFen());
+                break;
+            default:
+                if (!command.isEmpty()) send("info string unknown command " + command);
+        }
+        return true;
+    }
+
+    /**
+     * Handles "setoption name NAME value VALUE"
+     * @param arguments text after setoption
+     */
+    private void setOption(String arguments) {
+        int valueIndex = arguments.indexOf(" value ");
+        String name = ((valueIndex < 0) ? arguments : arguments.substring(0, valueIndex)).replaceFirst("^name ", "").trim();
+        String value = (valueIndex < 0) ? "" : arguments.substring(valueIndex + 7).trim();
+        try {
+            switch (name.toLowerCase()) {
+                case "hash":
+                    hash = Math.max(1, Integer.parseInt(value));
+                    createSearch();
+                    break;
+                case "threads":
+                    threads = Math.max(1, Integer.parseInt(value));
+                    createSearch();
+                    break;
+                case "ponder":
+                    //Nothing to set up, the GUI decides when to send go ponder
+                    break;
+                case "bookfile":
+                    //Open the new book before letting go of the old one, so a bad path leaves the old book in use
+                    OpeningBook newBook = (value.isEmpty() || value.equals("<empty>")) ? null : new OpeningBook(Paths.get(value));
+                    if (book != null) book.close();
+                    book = newBook;
+                    break;
+                case "tablebasepath":
+                    //Likewise the old tables stay in use, by both the engine and its search, if the new ones can't be read
+                    Tablebases newTablebases = (value.isEmpty() || value.equals("<empty>")) ? null : new Tablebases(Paths.get(value));
+                    search.setTablebases(newTablebases);
+                    if (tablebases != null) tablebases.close();
+                    tablebases = newTablebases;
+                    break;
+                default:
+                    send("info string unknown option " + name);
+            }
+        } catch (IOException | RuntimeException e) {
+            //Bad numbers, paths and files alike, one bad option mustn't end the engine
+            send("info string can't set " + name + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Handles "position startpos|fen FEN [moves MOVE...]". Moves already on the board from the last position
+     * command are kept, so only the moves that differ are unmade and played
+     * @param arguments text after position
+     */
+    private void setPosition(String arguments) {
+        int movesIndex = arguments.indexOf("moves");
+        String base = ((movesIndex < 0) ? arguments : arguments.substring(0, movesIndex)).trim();
+        String[] moves = (movesIndex < 0) ? new String[0] : arguments.substring(movesIndex + 5).trim().split("\\s+");
+        if (moves.length == 1 && moves[0].isEmpty()) moves = new String[0];
+        if (!base.equals(positionBase)) {
+            try {
+                if (base.equals("startpos")) board.setFen(START_FEN);
+                else if (base.startsWith("fen ")) board.setFen(base.substring(4));
+                else throw new IllegalArgumentException("Unknown position " + base);
+            } catch (IllegalArgumentException e) {
+                send("info string " + e.getMessage());
+                board.setFen(START_FEN);
+                base = "startpos";
+                moves = new String[0];
+            }
+            positionBase = base;
+            playedCount = 0;
+        }
+        //Keep the moves the new list starts with, take back the rest
+        int kept = 0;
+        while (kept < playedCount && kept < moves.length && Move.matches(played[kept], moves[kept], 0, moves[kept].length())) kept++;
+        for (; playedCount > kept; playedCount--) board.unmakeMove();
+        for (int i = kept; i < moves.length; i++) {
+            int move = findLegalMove(moves[i]);
+            if (move == Move.NONE) {
+                send("info string illegal move " + moves[i]);
+                return;
+            }
+            board.makeMove(move);
+            if (playedCount == played.length) played = Arrays.copyOf(played, playedCount * 2);
+            played[playedCount++] = move;
+        }
+    }
+
+    /**
+     * Finds the legal move on board written in coordinate notation
+     * @param text move, ex. e2e4 or e7e8q
+     * @return packed move, Move.NONE if text is not a legal move
+     */
+    private int findLegalMove(String text) {
+        int count = logic.generateLegalMoves(board, board.getTurnColor(), legalMoves);
+        for (int i = 0; i < count; i++) {
+            if (Move.matches(legalMoves[i], text, 0, text.length())) return legalMoves[i];
+        }
+        return Move.NONE;
+    }
+
+    /**
+     * Handles "go" with any of wtime, btime, winc, binc, movestogo, movetime, depth, nodes, infinite and ponder,
+     * starting a search on the search thread
+     * @param arguments text after go
+     */
+    private void go(String arguments) {
+        String[] tokens = arguments.isEmpty() ? new String[0] : arguments.split("\\s+");
+        long time = 0;
+        long increment = 0;
+        int movesToGo = 0;
+        long movetime = 0;
+        int depth = Search.MAX_PLY;
+        long nodes = 0;
+        boolean ponder = false;
+        boolean searchInfinite = false;
+        boolean white = board.getTurnColor() == Color.WHITE;
+        try {
+            for (int i = 0; i < tokens.length; i++) {
+                String value = (i + 1 < tokens.length) ? tokens[i + 1] : "0";
+                switch (tokens[i]) {
+                    case "wtime": if (white) time = Long.parseLong(value); i++; break;
+                    case "btime": if (!white) time = Long.parseLong(value); i++; break;
+                    case "winc": if (white) increment = Long.parseLong(value); i++; break;
+                    case "binc": if (!white) increment = Long.parseLong(value); i++; break;
+                    case "movestogo": movesToGo = Integer.parseInt(value); i++; break;
+                    case "movetime": movetime = Long.parseLong(value); i++; break;
+                    case "depth": depth = Math.max(1, Math.min(Search.MAX_PLY, Integer.parseInt(value))); i++; break;
+                    case "nodes": nodes = Long.parseLong(value); i++; break;
+                    case "infinite": searchInfinite = true; break;
+                    case "ponder": ponder = true; break;
+                    default: break;
+                }
+            }
+        } catch (NumberFormatException e) {
+            send("info string bad go limit: " + e.getMessage());
+        }
+        long millis = (movetime > 0) ? movetime : allotTime(time, increment, movesToGo);
+
+        //A book move needs no search, unless the GUI wants the search itself
+        if (book != null && !ponder && !searchInfinite) {
+            int move = book.probe(board);
+            if (move != Move.NONE) {
+                send("info string book move");
+                send("bestmove " + Move.toString(move));
+                return;
+            }
+        }
+        synchronized (this) {
+            pondering = ponder;
+            infinite = searchInfinite;
+            ponderMillis = ponder ? millis : 0;
+        }
+        //A ponder search runs without a limit until ponderhit starts the clock
+        long searchMillis = (ponder || searchInfinite) ? 0 : millis;
+        int maxDepth = depth;
+        search.setNodeLimit(nodes);
+        //Cleared here rather than on the search thread, so a stop that comes before the search starts still counts
+        search.clearStop();
+        running = searchThread.submit(() -> runSearch(maxDepth, searchMillis));
+    }
+
+    /**
+     * Returns the time to spend on a move from the clock
+     * @param time time left on the clock in milliseconds, 0 if the GUI didn't send one
+     * @param increment time added after each move in milliseconds
+     * @param movesToGo moves until the next time control, 0 if none
+     * @return milliseconds to search, 0 for no limit
+     */
+    static long allotTime(long time, long increment, int movesToGo) {
+        if (time <= 0) return 0;
+        long share = time / ((movesToGo > 0) ? Math.min(movesToGo, MOVES_TO_GO) : MOVES_TO_GO) + increment * 3 / 4;
+        //Never plan to use more than the clock holds, less a margin for the time moves take to reach the GUI
+        return Math.max(1, Math.min(share, time - MOVE_OVERHEAD));
+    }
+
+    /**
+     * Searches on the search thread and sends bestmove, holding it back while pondering or searching infinitely
+     * until stop or ponderhit, as the protocol asks
+     * @param maxDepth deepest iteration to search
+     * @param millis time limit, 0 for none
+     */
+    private void runSearch(int maxDepth, long millis) {
+        Search.Result result = search.iterate(board, maxDepth, millis);
+        synchronized (this) {
+            while (pondering || infinite) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            if (timedStop != null) timedStop.cancel(false);
+            timedStop = null;
+        }
+        int[] pv = (result == null) ? new int[0] : result.getPv();
+        //A stop sent before the first iteration finished leaves no line, any legal move beats none
+        int best = (pv.length > 0) ? pv[0] : firstLegalMove();
+        if (best == Move.NONE) send("bestmove 0000");
+        else if (pv.length > 1) send("bestmove " + Move.toString(best) + " ponder " + Move.toString(pv[1]));
+        else send("bestmove " + Move.toString(best));
+    }
+
+    /**
+     * Returns the first legal move on board
+     * @return packed move, Move.NONE if there is none
+     */
+    private int firstLegalMove() {
+        int[] moves = new int[Move.MAX_MOVES];
+        return (logic.generateLegalMoves(board, board.getTurnColor(), moves) > 0) ? moves[0] : Move.NONE;
+    }
+
+    /**
+     * Handles "stop": the search returns as soon as it next checks its stop flag and bestmove is sent
+     */
+    private void stop() {
+        synchronized (this) {
+            pondering = false;
+            infinite = false;
+            notifyAll();
+        }
+        search.stop();
+    }
+
+    /**
+     * Handles "ponderhit": the move pondered on was played, so the search goes on as a normal timed search
+     */
+    private synchronized void ponderhit() {
+        if (!pondering) return;
+        pondering = false;
+        notifyAll();
+        if (ponderMillis > 0) timedStop = timer.schedule(search::stop, ponderMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops any running search and waits for its bestmove, so the board can be changed
+     */
+    private void waitForSearch() {
+        if (running == null) return;
+        if (!running.isDone()) stop();
+        try {
+            running.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            send("info string search failed: " + e.getCause());
+        }
+        running = null;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Uci uci = new Uci(System.out);
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--hash": uci.execute("setoption name Hash value " + args[i + 1]); break;
+                case "--threads": uci.execute("setoption name Threads value " + args[i + 1]); break;
+                case "--book": uci.execute("setoption name BookFile value " + args[i + 1]); break;
+                case "--tb": uci.execute("setoption name TablebasePath value " + args[i + 1]); break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        uci.run(new BufferedReader(new InputStreamReader(System.in)));
+    }
+}
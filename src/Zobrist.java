@@ -0,0 +1,55 @@
+import java.util.SplittableRandom;
+
+/**
+ * Random keys for Zobrist hashing. A position's key is the XOR of the key of every piece on its square, the key of the
+ * castling rights, the key of the en passant file if there is one, and the side key if black is to move.
+ * Because XOR undoes itself, Board keeps its key current by XORing in only what each move changes
+ */
+public class Zobrist {
+    private static final long[][] PIECE_KEYS = new long[12][64]; //Indexed by Board.bitboardIndex, then square
+    private static final long[] CASTLING_KEYS = new long[16]; //Indexed by castling rights bitmask
+    private static final long[] EN_PASSANT_KEYS = new long[8]; //Indexed by file of the en passant square
+    private static final long SIDE_KEY; //Included when black is to move
+
+    static {
+        //Fixed seed so keys, and anything stored by key, are the same on every run
+        SplittableRandom random = new SplittableRandom(0x2F0B1A5D3C4E6F71L);
+        for (long[] keys : PIECE_KEYS) {
+            for (int square = 0; square < 64; square++) keys[square] = random.nextLong();
+        }
+        //No castling rights hashes to nothing, so positions without castling only depend on pieces and side
+        for (int rights = 1; rights < 16; rights++) CASTLING_KEYS[rights] = random.nextLong();
+        for (int file = 0; file < 8; file++) EN_PASSANT_KEYS[file] = random.nextLong();
+        SIDE_KEY = random.nextLong();
+    }
+
+    /**
+     * Returns the key for a piece on a square
+     * @param bitboardIndex Board.bitboardIndex of the piece's color and type
+     * @param square square of the piece
+     * @return piece square key
+     */
+    public static long piece(int bitboardIndex, int square) { return PIECE_KEYS[bitboardIndex][square]; }
+
+    /**
+     * Returns the key for a set of castling rights
+     * @param castlingRights bitmask of Board.CASTLE_ flags
+     * @return castling key
+     */
+    public static long castling(int castlingRights) { return CASTLING_KEYS[castlingRights]; }
+
+    /**
+     * Returns the key for an en passant square, which only depends on its file
+     * @param enPassantSquare en passant square, -1 if none
+     * @return en passant key, 0 if there is no en passant square
+     */
+    public static long enPassant(int enPassantSquare) {
+        return (enPassantSquare == -1) ? 0L : EN_PASSANT_KEYS[Bitboards.fileOf(enPassantSquare)];
+    }
+
+    /**
+     * Returns the key XORed in when black is to move
+     * @return side to move key
+     */
+    public static long side() { return SIDE_KEY; }
+}